@@ -0,0 +1,456 @@
+/**
+HeliosAPM JavaAgentLoader
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal;
+
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+
+import javax.management.ObjectName;
+
+import com.heliosapm.jal.tinylog.Logger;
+import com.heliosapm.jal.utils.IsolatedClassLoader;
+import com.heliosapm.jal.utils.StreamedArchives;
+import com.heliosapm.jal.utils.WeaklyReferencedClassLoader;
+
+/**
+ * <p>Title: AgentBootstrap</p>
+ * <p>Description: Boots the agents specified in the JavaAgentLoader agent options.
+ * Each agent jar is fetched, its manifest read and its classes indexed into a dedicated {@link IsolatedClassLoader}
+ * concurrently on a bounded pool. Once all agents are prepared, their <b><code>premain</code></b> (or <b><code>agentmain</code></b>)
+ * methods are invoked serially, in the order the agents were specified.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.AgentBootstrap</code></p>
+ */
+
+public class AgentBootstrap {
+	/** The system property overriding the maximum number of agent preparation threads */
+	public static final String BOOT_THREADS_PROP = "com.heliosapm.jal.boot.threads";
+	/** The JMX ObjectName prefix for agent isolated class loaders */
+	public static final String LOADER_OBJECT_NAME = "com.heliosapm.jal.classloader:service=IsolatedClassLoader,agent=";
+	/** The manifest attribute naming the premain class */
+	public static final Attributes.Name PREMAIN_CLASS = new Attributes.Name("Premain-Class");
+	/** The manifest attribute naming the agentmain class */
+	public static final Attributes.Name AGENT_CLASS = new Attributes.Name("Agent-Class");
+	/** The name of the optional static method of the agent class invoked when the agent is stopped, taking the agent's instrumentation or no arguments */
+	public static final String STOP_METHOD = "agentstop";
+
+	/** The agent jar URLs and their agent arguments, in boot order */
+	protected final Map<URL, String> agents;
+	/** Additional classpath URLs added to each agent's isolated class loader */
+	protected final URL[] classpath;
+	/** The instrumentation instance, which may be null */
+	protected final Instrumentation inst;
+	/** true if the agents are being dynamically attached, false if loaded on JVM start */
+	protected final boolean attached;
+
+	/** Serial number factory for preparation thread names */
+	private static final AtomicInteger threadSerial = new AtomicInteger(0);
+
+	/**
+	 * Creates a new AgentBootstrap
+	 * @param agents The agent jar URLs and their agent arguments, in boot order
+	 * @param classpath Additional classpath URLs added to each agent's isolated class loader (can be null)
+	 * @param inst The instrumentation instance (can be null)
+	 * @param attached true if the agents are being dynamically attached, false if loaded on JVM start
+	 */
+	public AgentBootstrap(final Map<URL, String> agents, final Set<URL> classpath, final Instrumentation inst, final boolean attached) {
+		if(agents==null) throw new IllegalArgumentException("The passed agent map was null");
+		this.agents = new LinkedHashMap<URL, String>(agents);
+		this.classpath = classpath==null ? new URL[0] : classpath.toArray(new URL[classpath.size()]);
+		this.inst = inst;
+		this.attached = attached;
+	}
+
+	/**
+	 * Prepares all the agents concurrently, then invokes each agent's entry point in order.
+	 * Failures are logged per agent and do not prevent the remaining agents from booting.
+	 * The class loaders of agents which fail to boot are closed.
+	 * @return the successfully booted agents, in boot order
+	 */
+	public List<LoadedAgent> boot() {
+		if(agents.isEmpty()) return Collections.emptyList();
+		final long start = System.nanoTime();
+		final ExecutorService pool = newBootPool(agents.size());
+		final Map<URL, Future<LoadedAgent>> futures = new LinkedHashMap<URL, Future<LoadedAgent>>(agents.size());
+		// every prepared agent, so the ones never booted can be discarded if boot is interrupted
+		final List<LoadedAgent> prepared = new ArrayList<LoadedAgent>(agents.size());
+		final AtomicBoolean abandoned = new AtomicBoolean(false);
+		final List<LoadedAgent> booted = new ArrayList<LoadedAgent>(agents.size());
+		try {
+			for(final Map.Entry<URL, String> entry: agents.entrySet()) {
+				futures.put(entry.getKey(), pool.submit(new Callable<LoadedAgent>() {
+					@Override
+					public LoadedAgent call() throws Exception {
+						final LoadedAgent agent = prepare(entry.getKey(), entry.getValue());
+						synchronized(prepared) {
+							if(abandoned.get()) {
+								agent.discard();
+								throw new InterruptedException("Boot was interrupted");
+							}
+							prepared.add(agent);
+						}
+						return agent;
+					}
+				}));
+			}
+			for(Map.Entry<URL, Future<LoadedAgent>> entry: futures.entrySet()) {
+				final LoadedAgent agent;
+				try {
+					agent = entry.getValue().get();
+				} catch (ExecutionException eex) {
+					Logger.error(eex.getCause(), "Failed to prepare agent [{}]", entry.getKey());
+					continue;
+				} catch (InterruptedException iex) {
+					Thread.currentThread().interrupt();
+					Logger.error(iex, "Interrupted while preparing agent [{}]", entry.getKey());
+					synchronized(prepared) {
+						abandoned.set(true);
+						for(LoadedAgent pending: prepared) {
+							if(!booted.contains(pending)) pending.discard();
+						}
+					}
+					break;
+				}
+				try {
+					agent.invoke(inst, attached);
+					booted.add(agent);
+					Logger.info("Booted agent [{}]: class [{}], prepared in {} ms, {} in {} ms", agent.url, agent.agentClassName,
+							TimeUnit.NANOSECONDS.toMillis(agent.prepareNanos), agent.entryPoint, TimeUnit.NANOSECONDS.toMillis(agent.invokeNanos));
+				} catch (Throwable ex) {
+					Logger.error(ex, "Failed to invoke agent [{}]", agent.url);
+					agent.discard();
+				}
+			}
+			Logger.info("Booted {} of {} agents in {} ms", booted.size(), agents.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			return booted;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fetches the agent jar's manifest, indexes the agent's isolated class loader and loads (without initializing) the agent class
+	 * @param url The agent jar URL
+	 * @param args The agent arguments
+	 * @return the prepared agent
+	 * @throws Exception thrown on any error preparing the agent
+	 */
+	protected LoadedAgent prepare(final URL url, final String args) throws Exception {
+		final long start = System.nanoTime();
+		final Manifest manifest = readManifest(url);
+		final Attributes.Name classAttr = attached ? AGENT_CLASS : PREMAIN_CLASS;
+		final String agentClassName = manifest.getMainAttributes().getValue(classAttr);
+		if(agentClassName==null || agentClassName.trim().isEmpty()) {
+			throw new Exception("No [" + classAttr + "] in manifest of agent jar [" + url + "]");
+		}
+		final Set<URL> urls = new LinkedHashSet<URL>();
+		urls.add(url);
+		Collections.addAll(urls, classpath);
+		final IsolatedClassLoader classLoader = new IsolatedClassLoader(
+				new ObjectName(LOADER_OBJECT_NAME + ObjectName.quote(url.toString())),
+				urls.toArray(new URL[urls.size()]));
+		boolean loaded = false;
+		try {
+			final Class<?> agentClass = Class.forName(agentClassName.trim(), false, classLoader);
+			final LoadedAgent agent = new LoadedAgent(url, args, classpath, classLoader, agentClass, System.nanoTime() - start);
+			agent.transformClasses = split(manifest.getMainAttributes().getValue(TransformerMultiplexer.TRANSFORM_CLASSES));
+			agent.transformLoaders = split(manifest.getMainAttributes().getValue(TransformerMultiplexer.TRANSFORM_LOADERS));
+			loaded = true;
+			return agent;
+		} finally {
+			if(!loaded) classLoader.close();
+		}
+	}
+
+	/**
+	 * Splits a comma or whitespace separated manifest attribute value
+	 * @param value The value to split
+	 * @return the non empty values, or null if there are none
+	 */
+	protected static String[] split(final String value) {
+		if(value==null || value.trim().isEmpty()) return null;
+		final List<String> values = new ArrayList<String>();
+		for(String v: value.trim().split("[,\\s]+")) {
+			if(!v.isEmpty()) values.add(v);
+		}
+		return values.isEmpty() ? null : values.toArray(new String[values.size()]);
+	}
+
+	/**
+	 * Reads the manifest from the passed jar URL, or from its content if it was streamed into this JVM
+	 * @param url The jar URL
+	 * @return the manifest
+	 * @throws Exception thrown if the jar cannot be read or has no manifest
+	 */
+	protected static Manifest readManifest(final URL url) throws Exception {
+		InputStream is = null;
+		JarInputStream jis = null;
+		try {
+			is = StreamedArchives.openStream(url);
+			jis = new JarInputStream(is, false);
+			final Manifest manifest = jis.getManifest();
+			if(manifest==null) throw new Exception("No manifest found in agent jar [" + url + "]");
+			return manifest;
+		} finally {
+			if(jis != null) try { jis.close(); } catch (Exception x) {/* No Op */}
+			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Creates the bounded agent preparation pool
+	 * @param agentCount The number of agents to prepare
+	 * @return the pool
+	 */
+	protected static ExecutorService newBootPool(final int agentCount) {
+		int threads = Math.min(agentCount, Runtime.getRuntime().availableProcessors());
+		try {
+			final String override = System.getProperty(BOOT_THREADS_PROP);
+			if(override!=null) threads = Math.min(agentCount, Integer.parseInt(override.trim()));
+		} catch (Exception ex) {
+			/* No Op */
+		}
+		threads = Math.max(1, threads);
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "JavaAgentLoaderBoot#" + threadSerial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * <p>Title: LoadedAgent</p>
+	 * <p>Description: A prepared agent, its isolated class loader and its boot timings.
+	 * A stopped agent drops its class loader and agent class so they can be collected.</p>
+	 * <p><code>com.heliosapm.jal.AgentBootstrap.LoadedAgent</code></p>
+	 */
+	public static class LoadedAgent {
+		/** The agent jar URL */
+		public final URL url;
+		/** The agent arguments */
+		public final String args;
+		/** The agent class name */
+		public final String agentClassName;
+		/** The elapsed time to prepare the agent in ns. */
+		public final long prepareNanos;
+		/** The additional classpath URLs of the agent's isolated class loader */
+		final URL[] classpath;
+		/** The agent's isolated class loader, null once stopped */
+		private volatile IsolatedClassLoader classLoader;
+		/** The agent class, null once stopped */
+		private volatile Class<?> agentClass;
+		/** The instrumentation handed to the agent, null if there is none or once stopped */
+		private volatile AgentInstrumentation instrumentation = null;
+		/** The classes and packages the agent's transformers apply to, or null for all */
+		volatile String[] transformClasses = null;
+		/** The class loader class names the agent's transformers apply to, or null for all */
+		volatile String[] transformLoaders = null;
+		/** The invoked entry point name */
+		private volatile String entryPoint = null;
+		/** The elapsed time of the agent entry point invocation in ns. */
+		private volatile long invokeNanos = -1L;
+
+		LoadedAgent(final URL url, final String args, final URL[] classpath, final IsolatedClassLoader classLoader, final Class<?> agentClass, final long prepareNanos) {
+			this.url = url;
+			this.args = args;
+			this.classpath = classpath;
+			this.classLoader = classLoader;
+			this.agentClass = agentClass;
+			this.agentClassName = agentClass.getName();
+			this.prepareNanos = prepareNanos;
+		}
+
+		/**
+		 * Returns the agent's isolated class loader
+		 * @return the class loader or null if the agent has been stopped
+		 */
+		public IsolatedClassLoader getClassLoader() {
+			return classLoader;
+		}
+
+		/**
+		 * Returns the transformers the agent has registered
+		 * @return the registered transformers
+		 */
+		public List<ClassFileTransformer> getTransformers() {
+			final AgentInstrumentation ai = instrumentation;
+			return ai==null ? Collections.<ClassFileTransformer>emptyList() : ai.getTransformers();
+		}
+
+		/**
+		 * Determines if the agent has been stopped
+		 * @return true if the agent has been stopped, false otherwise
+		 */
+		public boolean isStopped() {
+			return classLoader==null;
+		}
+
+		/**
+		 * Invokes the agent's entry point with the agent's class loader as the thread context class loader
+		 * @param inst The instrumentation (can be null)
+		 * @param attached true to invoke <b><code>agentmain</code></b>, false to invoke <b><code>premain</code></b>
+		 * @throws Exception thrown if the entry point cannot be found or throws
+		 */
+		void invoke(final Instrumentation inst, final boolean attached) throws Exception {
+			final String methodName = attached ? "agentmain" : "premain";
+			Method method = null;
+			Object[] methodArgs = null;
+			if(inst!=null) {
+				instrumentation = new AgentInstrumentation(inst, TransformerMultiplexer.isEnabled()
+						? TransformerMultiplexer.getInstance(inst).register(url.toString(), transformClasses, transformLoaders) : null);
+				try {
+					method = agentClass.getMethod(methodName, String.class, Instrumentation.class);
+					methodArgs = new Object[]{args, instrumentation.getInstrumentation()};
+				} catch (NoSuchMethodException nex) {
+					/* No Op */
+				}
+			}
+			if(method==null) {
+				method = agentClass.getMethod(methodName, String.class);
+				methodArgs = new Object[]{args};
+			}
+			final long start = System.nanoTime();
+			try {
+				invokeInContext(method, methodArgs);
+			} finally {
+				invokeNanos = System.nanoTime() - start;
+				entryPoint = methodName;
+			}
+		}
+
+		/**
+		 * Stops the agent: invokes its optional <b><code>agentstop</code></b> method, removes the transformers it registered,
+		 * unregisters its class loader's management interface and drops the class loader and agent class.
+		 * The agent must not be referenced from outside its class loader for the loader to be collected.
+		 * @return the number of transformers removed
+		 */
+		synchronized int stop() {
+			final IsolatedClassLoader cl = classLoader;
+			if(cl==null) return 0;
+			final AgentInstrumentation ai = instrumentation;
+			try {
+				Method method = null;
+				Object[] methodArgs = null;
+				if(ai!=null) {
+					try {
+						method = agentClass.getMethod(STOP_METHOD, Instrumentation.class);
+						methodArgs = new Object[]{ai.getInstrumentation()};
+					} catch (NoSuchMethodException nex) {
+						/* No Op */
+					}
+				}
+				if(method==null) {
+					try {
+						method = agentClass.getMethod(STOP_METHOD);
+						methodArgs = new Object[0];
+					} catch (NoSuchMethodException nex) {
+						/* No Op */
+					}
+				}
+				if(method!=null) invokeInContext(method, methodArgs);
+			} catch (Throwable ex) {
+				Logger.error(ex, "Agent [{}] {} failed", url, STOP_METHOD);
+			}
+			StreamedArchives.remove(url);
+			return discard();
+		}
+
+		/**
+		 * Discards an agent which failed to boot, or was never booted: removes any transformers it registered,
+		 * closes its class loader and drops the class loader and agent class, without invoking <b><code>agentstop</code></b>.
+		 * @return the number of transformers removed
+		 */
+		synchronized int discard() {
+			final IsolatedClassLoader cl = classLoader;
+			if(cl==null) return 0;
+			final AgentInstrumentation ai = instrumentation;
+			final int removed = ai==null ? 0 : ai.removeTransformers();
+			cl.close();
+			instrumentation = null;
+			agentClass = null;
+			classLoader = null;
+			return removed;
+		}
+
+		/**
+		 * Invokes a static method of the agent class with the agent's class loader as the thread context class loader.
+		 * The context class loader is a weak reference to the agent's class loader, so threads started by the agent
+		 * which inherit it do not keep the class loader reachable once the agent is stopped.
+		 * @param method The method to invoke
+		 * @param methodArgs The method arguments
+		 * @throws Exception thrown if the method throws
+		 */
+		private void invokeInContext(final Method method, final Object[] methodArgs) throws Exception {
+			final Thread current = Thread.currentThread();
+			final ClassLoader cl = current.getContextClassLoader();
+			try {
+				current.setContextClassLoader(new WeaklyReferencedClassLoader(classLoader));
+				method.invoke(null, methodArgs);
+			} finally {
+				current.setContextClassLoader(cl);
+			}
+		}
+
+		/**
+		 * Returns the invoked entry point name
+		 * @return the invoked entry point name or null if the agent has not been invoked
+		 */
+		public String getEntryPoint() {
+			return entryPoint;
+		}
+
+		/**
+		 * Returns the elapsed time of the agent entry point invocation in ns.
+		 * @return the elapsed time of the agent entry point invocation or -1 if the agent has not been invoked
+		 */
+		public long getInvokeNanos() {
+			return invokeNanos;
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+/**
+HeliosAPM JavaAgentLoader
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.heliosapm.jal.utils.IsolatedClassLoader;
+
+/**
+ * <p>Title: AgentInstrumentation</p>
+ * <p>Description: The {@link Instrumentation} handed to each booted agent. It delegates to the JVM's instrumentation
+ * and records the {@link ClassFileTransformer}s the agent registers, so they can be removed when the agent is stopped.
+ * When the agent has a {@link TransformerMultiplexer} registration, its transformers are added to the multiplexer
+ * rather than to the JVM, except for Java 9+ module aware transformers, which the multiplexer cannot invoke.
+ * Appending to the system or bootstrap class loader search invalidates the class names isolated loaders remember as absent.</p>
+ * <p>It is a dynamic proxy rather than an implementation of the interface, so the methods added to
+ * {@link Instrumentation} by later Java versions are delegated too.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.AgentInstrumentation</code></p>
+ */
+
+public class AgentInstrumentation implements InvocationHandler {
+	/** The JVM's instrumentation */
+	private final Instrumentation delegate;
+	/** The transformers registered by the agent */
+	private final List<ClassFileTransformer> transformers = new CopyOnWriteArrayList<ClassFileTransformer>();
+	/** The agent's multiplexer registration, or null if transformers are added to the JVM directly */
+	private final TransformerMultiplexer.Registration registration;
+	/** The proxy handed to the agent */
+	private final Instrumentation proxy;
+
+	/**
+	 * Creates a new AgentInstrumentation
+	 * @param delegate The JVM's instrumentation
+	 * @param registration The agent's multiplexer registration, or null to add transformers to the JVM directly
+	 */
+	AgentInstrumentation(final Instrumentation delegate, final TransformerMultiplexer.Registration registration) {
+		if(delegate==null) throw new IllegalArgumentException("The passed instrumentation was null");
+		this.delegate = delegate;
+		this.registration = registration;
+		proxy = (Instrumentation)Proxy.newProxyInstance(AgentInstrumentation.class.getClassLoader(), new Class<?>[]{Instrumentation.class}, this);
+	}
+
+	/**
+	 * Returns the instrumentation to hand to the agent
+	 * @return the tracking instrumentation
+	 */
+	public Instrumentation getInstrumentation() {
+		return proxy;
+	}
+
+	/**
+	 * Returns the transformers currently registered by the agent
+	 * @return the registered transformers
+	 */
+	public List<ClassFileTransformer> getTransformers() {
+		return new ArrayList<ClassFileTransformer>(transformers);
+	}
+
+	/**
+	 * Removes every transformer registered by the agent from the multiplexer and the JVM's instrumentation
+	 * @return the number of transformers removed
+	 */
+	public int removeTransformers() {
+		int removed = 0;
+		for(ClassFileTransformer transformer: transformers) {
+			if((registration!=null && registration.remove(transformer)) || delegate.removeTransformer(transformer)) removed++;
+		}
+		transformers.clear();
+		if(registration!=null) registration.unregister();
+		return removed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+	 */
+	@Override
+	public Object invoke(final Object p, final Method method, final Object[] args) throws Throwable {
+		final String name = method.getName();
+		if(method.getDeclaringClass()==Object.class) {
+			if("equals".equals(name)) return p==args[0];
+			if("hashCode".equals(name)) return System.identityHashCode(p);
+			if("toString".equals(name)) return "AgentInstrumentation[" + delegate + "]";
+		}
+		if(registration!=null) {
+			if("addTransformer".equals(name) && !TransformerMultiplexer.isModuleAware((ClassFileTransformer)args[0])) {
+				final boolean canRetransform = args.length > 1 && Boolean.TRUE.equals(args[1]);
+				if(canRetransform && !delegate.isRetransformClassesSupported()) {
+					throw new UnsupportedOperationException("adding retransformable transformers is not supported in this environment");
+				}
+				registration.add((ClassFileTransformer)args[0], canRetransform);
+				transformers.add((ClassFileTransformer)args[0]);
+				return null;
+			}
+			if("removeTransformer".equals(name) && registration.remove((ClassFileTransformer)args[0])) {
+				transformers.remove(args[0]);
+				return Boolean.TRUE;
+			}
+		}
+		final Object result;
+		try {
+			result = method.invoke(delegate, args);
+		} catch (InvocationTargetException ite) {
+			throw ite.getCause();
+		}
+		if("addTransformer".equals(name)) {
+			transformers.add((ClassFileTransformer)args[0]);
+		} else if("removeTransformer".equals(name) && Boolean.TRUE.equals(result)) {
+			transformers.remove(args[0]);
+		} else if("appendToSystemClassLoaderSearch".equals(name) || "appendToBootstrapClassLoaderSearch".equals(name)) {
+			IsolatedClassLoader.parentSearchAppended();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,357 @@
+/**
+HeliosAPM JavaAgentLoader
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.heliosapm.jal.tinylog.Logger;
+import com.heliosapm.jal.utils.ClasspathPrefetch;
+import com.heliosapm.jal.utils.IsolatedClassLoader;
+import com.heliosapm.jal.utils.WeaklyReferencedClassLoader;
+
+/**
+ * <p>Title: AgentLifecycle</p>
+ * <p>Description: Manages the lifecycle of the agents booted by {@link JavaAgent}, so agents can be upgraded
+ * without restarting the JVM. A running agent can be stopped, reloaded from a new jar, and new agents installed,
+ * either through this class or its management interface registered as {@link #OBJECT_NAME}.</p>
+ * <p>Stopping an agent (see {@link AgentBootstrap.LoadedAgent#stop()}) invokes its optional
+ * <b><code>agentstop</code></b> method, removes the transformers it registered, unregisters its class loader's
+ * management interface and drops the class loader. The class loader of each stopped agent is then tracked
+ * through a weak reference: one that has not been collected within the leak timeout
+ * (<b><code>com.heliosapm.jal.lifecycle.leaktimeout</code></b> ms.) is reported as leaked, along with the
+ * threads suspected of keeping it reachable.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.AgentLifecycle</code></p>
+ */
+
+public class AgentLifecycle implements AgentLifecycleMBean {
+	/** The JMX ObjectName of the agent lifecycle management interface */
+	public static final String OBJECT_NAME = "com.heliosapm.jal:service=AgentLifecycle";
+	/** The system property defining the time in ms. after which a stopped agent's uncollected class loader is reported as leaked */
+	public static final String LEAK_TIMEOUT_PROP = "com.heliosapm.jal.lifecycle.leaktimeout";
+	/** The default leak timeout in ms. */
+	public static final long DEFAULT_LEAK_TIMEOUT = 60000L;
+
+	/** The singleton instance */
+	private static volatile AgentLifecycle instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+
+	/** The stopped agents */
+	private final List<StoppedAgent> stopped = new CopyOnWriteArrayList<StoppedAgent>();
+	/** The leak timeout in ms. */
+	private final long leakTimeout;
+
+	/**
+	 * Acquires the AgentLifecycle singleton instance, registering its management interface on first access
+	 * @return the AgentLifecycle singleton instance
+	 */
+	public static AgentLifecycle getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new AgentLifecycle();
+				}
+			}
+		}
+		return instance;
+	}
+
+	private AgentLifecycle() {
+		long timeout = DEFAULT_LEAK_TIMEOUT;
+		try {
+			final String s = System.getProperty(LEAK_TIMEOUT_PROP);
+			if(s!=null) timeout = Long.parseLong(s.trim());
+		} catch (Exception ex) {
+			/* No Op */
+		}
+		leakTimeout = timeout;
+		try {
+			final ObjectName objectName = new ObjectName(OBJECT_NAME);
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(!server.isRegistered(objectName)) server.registerMBean(this, objectName);
+		} catch (Exception ex) {
+			Logger.warn(ex, "Failed to register AgentLifecycle MBean [{}]", OBJECT_NAME);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.AgentLifecycleMBean#getAgents()
+	 */
+	@Override
+	public String[] getAgents() {
+		final List<String> urls = new ArrayList<String>();
+		for(AgentBootstrap.LoadedAgent agent: JavaAgent.getAgents()) {
+			urls.add(agent.url.toString());
+		}
+		return urls.toArray(new String[urls.size()]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.AgentLifecycleMBean#install(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void install(final String url, final String args) {
+		install(toURL(url), args, Collections.<URL>emptySet());
+	}
+
+	/**
+	 * Boots a new agent, invoking its <b><code>agentmain</code></b>
+	 * @param url The agent jar URL
+	 * @param args The agent arguments (can be null)
+	 * @param classpath Additional classpath URLs added to the agent's isolated class loader, staged by {@link ClasspathPrefetch} (can be null)
+	 * @return the booted agent
+	 */
+	public AgentBootstrap.LoadedAgent install(final URL url, final String args, final Set<URL> classpath) {
+		if(url==null) throw new IllegalArgumentException("The passed URL was null");
+		if(find(url.toString())!=null) throw new IllegalArgumentException("Agent [" + url + "] is already running");
+		final List<AgentBootstrap.LoadedAgent> booted = new AgentBootstrap(Collections.singletonMap(url, args), ClasspathPrefetch.prefetch(classpath), JavaAgent.INSTRUMENTATION, true).boot();
+		if(booted.isEmpty()) throw new IllegalStateException("Failed to boot agent [" + url + "]");
+		JavaAgent.addAgents(booted);
+		return booted.get(0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.AgentLifecycleMBean#stop(java.lang.String)
+	 */
+	@Override
+	public int stop(final String url) {
+		final AgentBootstrap.LoadedAgent agent = find(url);
+		if(agent==null) throw new IllegalArgumentException("No running agent [" + url + "]");
+		return stop(agent);
+	}
+
+	/**
+	 * Stops a running agent and tracks the collection of its class loader
+	 * @param agent The agent to stop
+	 * @return the number of transformers removed
+	 */
+	public int stop(final AgentBootstrap.LoadedAgent agent) {
+		final IsolatedClassLoader classLoader = agent.getClassLoader();
+		if(classLoader==null) return 0;
+		final long start = System.nanoTime();
+		final int removed = agent.stop();
+		JavaAgent.removeAgent(agent);
+		purge();
+		stopped.add(new StoppedAgent(agent.url.toString(), classLoader));
+		Logger.info("Stopped agent [{}]: removed {} transformers in {} ms", agent.url, removed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return removed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.AgentLifecycleMBean#reload(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void reload(final String url, final String newUrl) {
+		final AgentBootstrap.LoadedAgent agent = find(url);
+		if(agent==null) throw new IllegalArgumentException("No running agent [" + url + "]");
+		reload(agent, (newUrl==null || newUrl.trim().isEmpty()) ? agent.url : toURL(newUrl));
+	}
+
+	/**
+	 * Stops a running agent and boots a new version of it with the same arguments and classpath
+	 * @param agent The running agent
+	 * @param newUrl The new version's jar URL
+	 * @return the booted new version
+	 */
+	public AgentBootstrap.LoadedAgent reload(final AgentBootstrap.LoadedAgent agent, final URL newUrl) {
+		final Set<URL> classpath = new LinkedHashSet<URL>();
+		Collections.addAll(classpath, agent.classpath);
+		stop(agent);
+		final AgentBootstrap.LoadedAgent reloaded = install(newUrl, agent.args, classpath);
+		Logger.info("Reloaded agent [{}] from [{}]", agent.url, newUrl);
+		return reloaded;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.AgentLifecycleMBean#getStoppedAgents()
+	 */
+	@Override
+	public String[] getStoppedAgents() {
+		final List<String> descriptions = new ArrayList<String>(stopped.size());
+		for(StoppedAgent agent: stopped) {
+			descriptions.add(agent.toString());
+		}
+		// collected agents are reported once
+		purge();
+		return descriptions.toArray(new String[descriptions.size()]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.AgentLifecycleMBean#getLeakedAgents()
+	 */
+	@Override
+	public String[] getLeakedAgents() {
+		purge();
+		final List<String> leaked = new ArrayList<String>();
+		for(StoppedAgent agent: stopped) {
+			if(agent.isLeaked(leakTimeout)) {
+				leaked.add(agent.toString());
+				Logger.warn("Class loader of stopped agent [{}] not collected after {} ms. Suspects: {}", agent.url, agent.age(), suspects(agent));
+			}
+		}
+		return leaked.toArray(new String[leaked.size()]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.AgentLifecycleMBean#awaitCollection(long)
+	 */
+	@Override
+	public boolean awaitCollection(final long timeoutMs) {
+		final long deadline = System.currentTimeMillis() + timeoutMs;
+		while(true) {
+			purge();
+			if(stopped.isEmpty()) return true;
+			if(System.currentTimeMillis() >= deadline) return false;
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.AgentLifecycleMBean#getLeakSuspects(java.lang.String)
+	 */
+	@Override
+	public String[] getLeakSuspects(final String url) {
+		final Set<String> suspects = new LinkedHashSet<String>();
+		for(StoppedAgent agent: stopped) {
+			if(agent.url.equals(url)) suspects.addAll(suspects(agent));
+		}
+		return suspects.toArray(new String[suspects.size()]);
+	}
+
+	/**
+	 * Removes the stopped agents whose class loader has been collected
+	 */
+	private void purge() {
+		for(StoppedAgent agent: stopped) {
+			if(agent.classLoader.get()==null) stopped.remove(agent);
+		}
+	}
+
+	/**
+	 * Lists the live threads that are instances of classes defined by the passed stopped agent's class loader or use it,
+	 * or its isolated class loader, as their context class loader
+	 * @param agent The stopped agent
+	 * @return the suspect thread descriptions
+	 */
+	private static List<String> suspects(final StoppedAgent agent) {
+		final List<String> suspects = new ArrayList<String>();
+		final ClassLoader classLoader = agent.classLoader.get();
+		if(classLoader==null) return suspects;
+		final ClassLoader isolated = agent.isolatedClassLoader.get();
+		for(Map.Entry<Thread, StackTraceElement[]> entry: Thread.getAllStackTraces().entrySet()) {
+			final Thread t = entry.getKey();
+			ClassLoader context = t.getContextClassLoader();
+			if(context instanceof WeaklyReferencedClassLoader) context = ((WeaklyReferencedClassLoader)context).getDelegate();
+			if(t.getClass().getClassLoader()==classLoader) {
+				suspects.add("Thread [" + t.getName() + "] is a " + t.getClass().getName());
+			} else if(context!=null && (context==classLoader || context==isolated)) {
+				suspects.add("Thread [" + t.getName() + "] context class loader");
+			}
+		}
+		return suspects;
+	}
+
+	/**
+	 * Returns the running agent with the passed URL
+	 * @param url The agent jar URL
+	 * @return the agent or null if no agent with the passed URL is running
+	 */
+	private static AgentBootstrap.LoadedAgent find(final String url) {
+		if(url==null) return null;
+		for(AgentBootstrap.LoadedAgent agent: JavaAgent.getAgents()) {
+			if(agent.url.toString().equals(url.trim())) return agent;
+		}
+		return null;
+	}
+
+	private static URL toURL(final String url) {
+		if(url==null || url.trim().isEmpty()) throw new IllegalArgumentException("The passed URL was empty");
+		try {
+			return new URL(url.trim());
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Invalid agent URL: [" + url + "]", ex);
+		}
+	}
+
+	/**
+	 * <p>Title: StoppedAgent</p>
+	 * <p>Description: A stopped agent whose class loader is awaiting collection</p>
+	 * <p><code>com.heliosapm.jal.AgentLifecycle.StoppedAgent</code></p>
+	 */
+	private static class StoppedAgent {
+		/** The agent jar URL */
+		final String url;
+		/** The class loader that defined the agent's classes */
+		final WeakReference<ClassLoader> classLoader;
+		/** The agent's isolated class loader, which is not referenced by the classes it loaded */
+		final WeakReference<IsolatedClassLoader> isolatedClassLoader;
+		/** The time the agent was stopped */
+		final long stoppedAt = System.currentTimeMillis();
+
+		StoppedAgent(final String url, final IsolatedClassLoader classLoader) {
+			this.url = url;
+			this.classLoader = new WeakReference<ClassLoader>(classLoader.getDefiningClassLoader());
+			this.isolatedClassLoader = new WeakReference<IsolatedClassLoader>(classLoader);
+		}
+
+		long age() {
+			return System.currentTimeMillis() - stoppedAt;
+		}
+
+		boolean isLeaked(final long leakTimeout) {
+			return classLoader.get()!=null && age() > leakTimeout;
+		}
+
+		@Override
+		public String toString() {
+			return url + (classLoader.get()==null ? ": collected" : (": awaiting collection for " + age() + " ms"));
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+HeliosAPM JavaAgentLoader
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal;
+
+/**
+ * <p>Title: AgentLifecycleMBean</p>
+ * <p>Description: JMX MBean interface for {@link AgentLifecycle}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.AgentLifecycleMBean</code></p>
+ */
+
+public interface AgentLifecycleMBean {
+	/**
+	 * Returns the URLs of the running agents
+	 * @return the running agent URLs in boot order
+	 */
+	public String[] getAgents();
+
+	/**
+	 * Boots a new agent, invoking its <b><code>agentmain</code></b>
+	 * @param url The agent jar URL
+	 * @param args The agent arguments (can be null)
+	 */
+	public void install(String url, String args);
+
+	/**
+	 * Stops a running agent
+	 * @param url The agent jar URL
+	 * @return the number of transformers removed
+	 */
+	public int stop(String url);
+
+	/**
+	 * Stops a running agent and boots a new version of it with the same arguments and classpath
+	 * @param url The running agent's jar URL
+	 * @param newUrl The new version's jar URL, or null to reload the same URL
+	 */
+	public void reload(String url, String newUrl);
+
+	/**
+	 * Returns the stopped agents and whether their class loader has been collected.
+	 * Agents whose class loader has been collected are reported once, then no longer tracked.
+	 * @return the stopped agents' descriptions
+	 */
+	public String[] getStoppedAgents();
+
+	/**
+	 * Returns the stopped agents whose class loader has not been collected within the leak timeout
+	 * @return the leaked agents' descriptions
+	 */
+	public String[] getLeakedAgents();
+
+	/**
+	 * Requests garbage collections until the class loaders of all stopped agents have been collected or the timeout elapses
+	 * @param timeoutMs The timeout in ms.
+	 * @return true if all the class loaders were collected, false otherwise
+	 */
+	public boolean awaitCollection(long timeoutMs);
+
+	/**
+	 * Returns the live threads that keep a stopped agent's class loader reachable,
+	 * because they are instances of its classes or use it as their context class loader
+	 * @param url The agent jar URL
+	 * @return the suspect thread descriptions
+	 */
+	public String[] getLeakSuspects(String url);
+}
@@ -21,38 +21,50 @@ under the License.
 package com.heliosapm.jal;
 
 import java.lang.instrument.Instrumentation;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.heliosapm.jal.options.AgentInstaller;
+import com.heliosapm.jal.options.AgentOption;
+import com.heliosapm.jal.utils.ClasspathPrefetch;
+import com.heliosapm.jal.utils.StreamedArchives;
 
 /**
  * <p>Title: JavaAgent</p>
- * <p>Description: </p> 
+ * <p>Description: The JavaAgentLoader agent which boots other agents in isolated class loaders</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.jal.JavaAgent</code></p>
  * <p>Tasks:<ol>
  * 	<li>Agent arguments/options:<ul>
- * 		<li><b>--agent</b>: in the form AGENT-JAR (url) SPACE AGENT-ARGS (1 string)</li>
- * 		<li></li>
- * 		<li></li>
- * 		<li></li>
- * 		<li></li>
- *  </li>
- *  <li>For each agent jar:<ol>
- *  	<li>Read URL into ByteBuffer</li>
+ * 		<li><b>AGENT</b>: in the form AGENT-JAR (url) SPACE AGENT-ARGS (1 string). Can be specified multiple times.</li>
+ * 		<li><b>CP</b>: an additional classpath URL added to each agent's class loader. Can be specified multiple times.
+ * 		Remote URLs, and URLs with a checksum fragment, are fetched concurrently into a local content addressed cache first
+ * 		(see {@link com.heliosapm.jal.utils.ClasspathPrefetch}).</li>
+ * 		<li><b>D</b>: a system property to set before the agents are booted. Can be specified multiple times.</li>
+ * 		<li><b>STREAM</b>: the loopback port and token of the installer's payload server. The AGENT and CP jars it serves are
+ * 		received into memory (see {@link com.heliosapm.jal.utils.StreamedArchives}) and never read from this JVM's filesystem.</li>
+ *  </ul></li>
+ *  <li>For each agent jar, concurrently (see {@link AgentBootstrap}):<ol>
  *  	<li>Extract manifest</li>
  *  	<li>Find Premain-Class, or Agent-Class class name</li>
+ *  	<li>Index the agent's classes into its own {@link com.heliosapm.jal.utils.IsolatedClassLoader}</li>
  *  </ol></li>
- *  <li></li>
- *  <li></li>
- *  <li></li>
- *  <li></li>
- *  <li></li>
- *  
+ *  <li>Invoke each agent's premain, or agentmain, in the order the agents were specified</li>
  * </ol></p>
+ * <p>Booted agents can then be stopped, reloaded and new agents installed through {@link AgentLifecycle}.</p>
  */
 
 public class JavaAgent {
 	/** The provided instrumentation instance */
 	public static Instrumentation INSTRUMENTATION = null;
+	/** The booted agents */
+	private static final List<AgentBootstrap.LoadedAgent> AGENTS = new CopyOnWriteArrayList<AgentBootstrap.LoadedAgent>();
 	
 	/**
 	 * The agent premain
@@ -60,12 +72,7 @@ public class JavaAgent {
 	 * @param inst The instrumentation
 	 */
 	public static void premain(final String agentArgs, final Instrumentation inst) {
-		INSTRUMENTATION = inst;
-		try {
-			// TODO
-		} catch (Throwable ex) {
-			ex.printStackTrace(System.err);
-		}
+		boot(agentArgs, inst, false);
 	}
 
 	/**
@@ -82,7 +89,7 @@ public class JavaAgent {
 	 * @param inst The instrumentation
 	 */
 	public static void agentmain(final String agentArgs, final Instrumentation inst) {
-		premain(agentArgs, inst);
+		boot(agentArgs, inst, true);
 	}
 
 	/**
@@ -90,8 +97,65 @@ public class JavaAgent {
 	 * @param agentArgs The agent argument string
 	 */
 	public static void agentmain(final String agentArgs) {
-		premain(agentArgs, null);
+		agentmain(agentArgs, null);
+	}
+	
+	/**
+	 * Returns the agents booted so far
+	 * @return the booted agents in boot order
+	 */
+	public static List<AgentBootstrap.LoadedAgent> getAgents() {
+		return Collections.unmodifiableList(AGENTS);
+	}
+	
+	/**
+	 * Adds newly booted agents
+	 * @param agents The booted agents
+	 */
+	static void addAgents(final List<AgentBootstrap.LoadedAgent> agents) {
+		AGENTS.addAll(agents);
 	}
 	
+	/**
+	 * Removes a stopped agent
+	 * @param agent The stopped agent
+	 * @return true if the agent was removed, false if it was not booted
+	 */
+	static boolean removeAgent(final AgentBootstrap.LoadedAgent agent) {
+		return AGENTS.remove(agent);
+	}
+	
+	/**
+	 * Applies the agent options and boots the specified agents
+	 * @param agentArgs The agent argument string
+	 * @param inst The instrumentation
+	 * @param attached true if dynamically attached, false if loaded on JVM start
+	 */
+	@SuppressWarnings("unchecked")
+	private static void boot(final String agentArgs, final Instrumentation inst, final boolean attached) {
+		if(inst!=null) INSTRUMENTATION = inst;
+		try {
+			final Map<AgentOption, Object> options = AgentOption.agentOptions(agentArgs);
+			final Properties sysProps = (Properties)options.get(AgentOption.D);
+			if(sysProps!=null) {
+				for(String key: sysProps.stringPropertyNames()) {
+					System.setProperty(key, sysProps.getProperty(key));
+				}
+			}
+			final String stream = (String)options.get(AgentOption.STREAM);
+			if(stream!=null) {
+				StreamedArchives.receive(stream);
+			}
+			final Map<URL, String> agents = (Map<URL, String>)options.get(AgentOption.AGENT);
+			if(agents!=null) {
+				final Set<URL> classpath = ClasspathPrefetch.prefetch((Set<URL>)options.get(AgentOption.CP));
+				AGENTS.addAll(new AgentBootstrap(agents, classpath, INSTRUMENTATION, attached).boot());
+			}
+			AgentLifecycle.getInstance();
+			System.setProperty(AgentInstaller.AGENT_INSTALLED_PROP, Version.getVersion());
+		} catch (Throwable ex) {
+			ex.printStackTrace(System.err);
+		}
+	}
 
 }
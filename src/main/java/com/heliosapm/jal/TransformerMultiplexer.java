@@ -0,0 +1,488 @@
+/**
+HeliosAPM JavaAgentLoader
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.heliosapm.jal.tinylog.Logger;
+
+/**
+ * <p>Title: TransformerMultiplexer</p>
+ * <p>Description: A single pair of {@link ClassFileTransformer}s registered with the JVM on behalf of every agent booted by
+ * {@link JavaAgent}. Transformers the agents add through their {@link AgentInstrumentation} are added here instead of
+ * to the JVM, so the JVM calls one transformer per class load rather than one per agent transformer.</p>
+ * <p>Agents may declare up front which classes and class loaders their transformers apply to with the manifest attributes
+ * <b><code>Transform-Classes</code></b> (class names, matching the class and its nested classes, or package names
+ * ending in <b><code>.*</code></b>, matching the package and its sub packages) and <b><code>Transform-Loaders</code></b>
+ * (class loader class names, or <b><code>bootstrap</code></b>). The class filters of all agents are compiled into a
+ * trie of internal class names, so a class load is matched against every agent in one walk of its name, and classes
+ * no agent applies to are skipped without invoking any transformer. Agents that declare no filters see every class.</p>
+ * <p>The time each agent's transformers spend transforming is recorded and published through the management
+ * interface registered as {@link #OBJECT_NAME}. Multiplexing is disabled by setting
+ * <b><code>com.heliosapm.jal.transform.multiplex</code></b> to <b><code>false</code></b>.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.TransformerMultiplexer</code></p>
+ */
+
+public class TransformerMultiplexer implements TransformerMultiplexerMBean {
+	/** The JMX ObjectName of the multiplexer management interface */
+	public static final String OBJECT_NAME = "com.heliosapm.jal:service=TransformerMultiplexer";
+	/** The system property that disables multiplexing when set to false */
+	public static final String MULTIPLEX_PROP = "com.heliosapm.jal.transform.multiplex";
+	/** The manifest attribute declaring the classes and packages an agent's transformers apply to */
+	public static final String TRANSFORM_CLASSES = "Transform-Classes";
+	/** The manifest attribute declaring the class loaders an agent's transformers apply to */
+	public static final String TRANSFORM_LOADERS = "Transform-Loaders";
+	/** The loader filter name matching the bootstrap class loader */
+	public static final String BOOTSTRAP_LOADER = "bootstrap";
+	/** The maximum number of agents with class filters. Further agents see every class. */
+	public static final int MAX_FILTERED = 64;
+
+	/** The singleton instance */
+	private static volatile TransformerMultiplexer instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+
+	/** The JVM's instrumentation */
+	private final Instrumentation instrumentation;
+	/** The pipeline of transformers that are not retransformation capable */
+	private final Pipeline plain = new Pipeline(false);
+	/** The pipeline of retransformation capable transformers */
+	private final Pipeline retransforming = new Pipeline(true);
+	/** The current registrations and their compiled filters */
+	private volatile Dispatch dispatch = new Dispatch(new Registration[0]);
+
+	/**
+	 * Determines if multiplexing is enabled
+	 * @return true if multiplexing is enabled, false otherwise
+	 */
+	public static boolean isEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty(MULTIPLEX_PROP, "true").trim());
+	}
+
+	/**
+	 * Acquires the TransformerMultiplexer singleton instance, registering its management interface on first access
+	 * @param instrumentation The JVM's instrumentation
+	 * @return the TransformerMultiplexer singleton instance
+	 */
+	public static TransformerMultiplexer getInstance(final Instrumentation instrumentation) {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					if(instrumentation==null) throw new IllegalArgumentException("The passed instrumentation was null");
+					instance = new TransformerMultiplexer(instrumentation);
+				}
+			}
+		}
+		return instance;
+	}
+
+	private TransformerMultiplexer(final Instrumentation instrumentation) {
+		this.instrumentation = instrumentation;
+		try {
+			final ObjectName objectName = new ObjectName(OBJECT_NAME);
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(!server.isRegistered(objectName)) server.registerMBean(this, objectName);
+		} catch (Exception ex) {
+			Logger.warn(ex, "Failed to register TransformerMultiplexer MBean [{}]", OBJECT_NAME);
+		}
+	}
+
+	/**
+	 * Registers an agent
+	 * @param name The agent name
+	 * @param classes The classes and packages the agent's transformers apply to, or null for all
+	 * @param loaders The class loader class names the agent's transformers apply to, or null for all
+	 * @return the agent's registration
+	 */
+	public Registration register(final String name, final String[] classes, final String[] loaders) {
+		synchronized(lock) {
+			final Registration[] current = dispatch.registrations;
+			long used = 0;
+			for(Registration r: current) used |= r.bit;
+			long bit = 0;
+			if(classes!=null && classes.length!=0 && used!=-1L) {
+				bit = Long.lowestOneBit(~used);
+			}
+			final Registration registration = new Registration(name, classes, loaders, bit);
+			final Registration[] next = Arrays.copyOf(current, current.length + 1);
+			next[current.length] = registration;
+			dispatch = new Dispatch(next);
+			return registration;
+		}
+	}
+
+	/**
+	 * Unregisters an agent, removing all its transformers
+	 * @param registration The agent's registration
+	 */
+	public void unregister(final Registration registration) {
+		synchronized(lock) {
+			registration.plain.clear();
+			registration.retransforming.clear();
+			final List<Registration> next = new ArrayList<Registration>(Arrays.asList(dispatch.registrations));
+			if(next.remove(registration)) {
+				dispatch = new Dispatch(next.toArray(new Registration[next.size()]));
+			}
+		}
+	}
+
+	/**
+	 * Determines if the passed transformer implements the Java 9+ module aware transform method,
+	 * which the multiplexer cannot invoke, so it must be registered directly with the JVM
+	 * @param transformer The transformer to test
+	 * @return true if the transformer is module aware, false otherwise
+	 */
+	public static boolean isModuleAware(final ClassFileTransformer transformer) {
+		for(Method m: transformer.getClass().getMethods()) {
+			if("transform".equals(m.getName()) && m.getDeclaringClass()!=ClassFileTransformer.class
+					&& m.getParameterTypes().length==6 && "java.lang.Module".equals(m.getParameterTypes()[0].getName())) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Registers the pipeline with the JVM the first time a transformer is added to it
+	 * @param pipeline The pipeline
+	 */
+	private void activate(final Pipeline pipeline) {
+		if(pipeline.active) return;
+		synchronized(pipeline) {
+			if(pipeline.active) return;
+			instrumentation.addTransformer(pipeline, pipeline.retransform);
+			pipeline.active = true;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.TransformerMultiplexerMBean#getAgentFilters()
+	 */
+	@Override
+	public Map<String, String> getAgentFilters() {
+		final Map<String, String> filters = new LinkedHashMap<String, String>();
+		for(Registration r: dispatch.registrations) {
+			filters.put(r.name, "classes=" + (r.bit==0 ? "*" : Arrays.toString(r.classes)) + ", loaders=" + (r.loaders==null ? "*" : r.loaders.toString()));
+		}
+		return filters;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.TransformerMultiplexerMBean#getAgentTransformNanos()
+	 */
+	@Override
+	public Map<String, Long> getAgentTransformNanos() {
+		final Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for(Registration r: dispatch.registrations) map.put(r.name, r.nanos.get());
+		return map;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.TransformerMultiplexerMBean#getAgentTransformCounts()
+	 */
+	@Override
+	public Map<String, Long> getAgentTransformCounts() {
+		final Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for(Registration r: dispatch.registrations) map.put(r.name, r.calls.get());
+		return map;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.TransformerMultiplexerMBean#getAgentModifiedCounts()
+	 */
+	@Override
+	public Map<String, Long> getAgentModifiedCounts() {
+		final Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for(Registration r: dispatch.registrations) map.put(r.name, r.modified.get());
+		return map;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.TransformerMultiplexerMBean#getDispatchedCount()
+	 */
+	@Override
+	public long getDispatchedCount() {
+		return plain.dispatched.get() + retransforming.dispatched.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.TransformerMultiplexerMBean#getSkippedCount()
+	 */
+	@Override
+	public long getSkippedCount() {
+		return plain.skipped.get() + retransforming.skipped.get();
+	}
+
+	/**
+	 * Converts a class filter to its internal name prefix
+	 * @param filter The class or package filter
+	 * @return the internal name prefix
+	 */
+	static String toPrefix(final String filter) {
+		String f = filter.trim().replace('.', '/');
+		if(f.endsWith("/*")) return f.substring(0, f.length() - 1);
+		if(f.endsWith("/")) return f;
+		return f + '$';
+	}
+
+	/**
+	 * <p>Title: Registration</p>
+	 * <p>Description: An agent's filters, transformers and transform statistics</p>
+	 * <p><code>com.heliosapm.jal.TransformerMultiplexer.Registration</code></p>
+	 */
+	public class Registration {
+		/** The agent name */
+		final String name;
+		/** The class filters */
+		final String[] classes;
+		/** The loader filters or null for all */
+		final Set<String> loaders;
+		/** The agent's bit in the class filter trie, or 0 if the agent sees every class */
+		final long bit;
+		/** The agent's transformers that are not retransformation capable */
+		final List<ClassFileTransformer> plain = new CopyOnWriteArrayList<ClassFileTransformer>();
+		/** The agent's retransformation capable transformers */
+		final List<ClassFileTransformer> retransforming = new CopyOnWriteArrayList<ClassFileTransformer>();
+		/** The elapsed time of the agent's transformers in ns. */
+		final AtomicLong nanos = new AtomicLong(0L);
+		/** The number of classes dispatched to the agent's transformers */
+		final AtomicLong calls = new AtomicLong(0L);
+		/** The number of classes modified by the agent's transformers */
+		final AtomicLong modified = new AtomicLong(0L);
+
+		Registration(final String name, final String[] classes, final String[] loaders, final long bit) {
+			this.name = name;
+			this.classes = classes==null ? new String[0] : classes.clone();
+			this.loaders = loaders==null || loaders.length==0 ? null : Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(loaders)));
+			this.bit = bit;
+			if(classes!=null && classes.length!=0 && bit==0) {
+				Logger.warn("More than {} agents with class filters, agent [{}] will see every class", MAX_FILTERED, name);
+			}
+		}
+
+		/**
+		 * Adds a transformer
+		 * @param transformer The transformer
+		 * @param canRetransform true if the transformer is retransformation capable
+		 */
+		public void add(final ClassFileTransformer transformer, final boolean canRetransform) {
+			if(transformer==null) throw new NullPointerException();
+			if(canRetransform) {
+				retransforming.add(transformer);
+				activate(TransformerMultiplexer.this.retransforming);
+			} else {
+				plain.add(transformer);
+				activate(TransformerMultiplexer.this.plain);
+			}
+		}
+
+		/**
+		 * Removes a transformer
+		 * @param transformer The transformer
+		 * @return true if the transformer was removed, false if it was not registered
+		 */
+		public boolean remove(final ClassFileTransformer transformer) {
+			return retransforming.remove(transformer) || plain.remove(transformer);
+		}
+
+		/**
+		 * Unregisters the agent, removing all its transformers
+		 */
+		public void unregister() {
+			TransformerMultiplexer.this.unregister(this);
+		}
+
+		/**
+		 * Determines if the agent's transformers apply to classes of the passed loader
+		 * @param loader The defining class loader, null for the bootstrap class loader
+		 * @return true if the loader is accepted, false otherwise
+		 */
+		boolean accepts(final ClassLoader loader) {
+			return loaders==null || loaders.contains(loader==null ? BOOTSTRAP_LOADER : loader.getClass().getName());
+		}
+	}
+
+	/**
+	 * <p>Title: Dispatch</p>
+	 * <p>Description: An immutable snapshot of the registrations and the trie compiled from their class filters</p>
+	 */
+	private static class Dispatch {
+		/** The registrations in registration order */
+		final Registration[] registrations;
+		/** The class filter trie root */
+		final Node root = new Node();
+
+		Dispatch(final Registration[] registrations) {
+			this.registrations = registrations;
+			for(Registration r: registrations) {
+				if(r.bit==0) continue;
+				for(String filter: r.classes) {
+					final String prefix = toPrefix(filter);
+					if(prefix.charAt(prefix.length() - 1)=='$') {
+						root.insert(prefix.substring(0, prefix.length() - 1), 0L, r.bit);
+					}
+					root.insert(prefix, r.bit, 0L);
+				}
+			}
+		}
+
+		/**
+		 * Returns the bits of the filtered agents whose filters match the passed class
+		 * @param className The internal class name
+		 * @return the matched agents' bits
+		 */
+		long match(final String className) {
+			long mask = 0;
+			Node node = root;
+			final int len = className.length();
+			for(int i = 0; i < len && node!=null; i++) {
+				node = node.child(className.charAt(i));
+				if(node!=null) mask |= node.prefixMask;
+			}
+			if(node!=null) mask |= node.exactMask;
+			return mask;
+		}
+	}
+
+	/**
+	 * <p>Title: Node</p>
+	 * <p>Description: A class filter trie node</p>
+	 */
+	private static class Node {
+		/** The characters of the child nodes */
+		char[] chars = new char[0];
+		/** The child nodes */
+		Node[] children = new Node[0];
+		/** The agents matching every name with this node's prefix */
+		long prefixMask = 0;
+		/** The agents matching the name ending at this node */
+		long exactMask = 0;
+
+		Node child(final char c) {
+			final char[] cs = chars;
+			for(int i = 0; i < cs.length; i++) {
+				if(cs[i]==c) return children[i];
+			}
+			return null;
+		}
+
+		void insert(final String key, final long prefixBit, final long exactBit) {
+			Node node = this;
+			for(int i = 0; i < key.length(); i++) {
+				final char c = key.charAt(i);
+				Node next = node.child(c);
+				if(next==null) {
+					next = new Node();
+					node.chars = Arrays.copyOf(node.chars, node.chars.length + 1);
+					node.chars[node.chars.length - 1] = c;
+					node.children = Arrays.copyOf(node.children, node.children.length + 1);
+					node.children[node.children.length - 1] = next;
+				}
+				node = next;
+			}
+			node.prefixMask |= prefixBit;
+			node.exactMask |= exactBit;
+		}
+	}
+
+	/**
+	 * <p>Title: Pipeline</p>
+	 * <p>Description: The transformer registered with the JVM, dispatching to the matched agents' transformers in registration order</p>
+	 */
+	private class Pipeline implements ClassFileTransformer {
+		/** true if this pipeline dispatches to retransformation capable transformers */
+		final boolean retransform;
+		/** true once registered with the JVM */
+		volatile boolean active = false;
+		/** The number of classes dispatched to at least one agent */
+		final AtomicLong dispatched = new AtomicLong(0L);
+		/** The number of classes no agent's filters matched */
+		final AtomicLong skipped = new AtomicLong(0L);
+
+		Pipeline(final boolean retransform) {
+			this.retransform = retransform;
+		}
+
+		@Override
+		public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+				final ProtectionDomain protectionDomain, final byte[] classfileBuffer) throws IllegalClassFormatException {
+			final Dispatch d = dispatch;
+			final Registration[] registrations = d.registrations;
+			if(registrations.length==0) return null;
+			final long mask = className==null ? 0L : d.match(className);
+			byte[] current = classfileBuffer;
+			boolean changed = false;
+			boolean any = false;
+			for(final Registration r: registrations) {
+				if(r.bit!=0 && (mask & r.bit)==0) continue;
+				final List<ClassFileTransformer> transformers = retransform ? r.retransforming : r.plain;
+				if(transformers.isEmpty() || !r.accepts(loader)) continue;
+				any = true;
+				boolean modified = false;
+				final long start = System.nanoTime();
+				for(final ClassFileTransformer transformer: transformers) {
+					try {
+						final byte[] result = transformer.transform(loader, className, classBeingRedefined, protectionDomain, current);
+						if(result!=null) {
+							current = result;
+							modified = true;
+						}
+					} catch (Throwable ex) {
+						// as the JVM does, a failed transformer is treated as having made no change
+						/* No Op */
+					}
+				}
+				r.nanos.addAndGet(System.nanoTime() - start);
+				r.calls.incrementAndGet();
+				if(modified) {
+					r.modified.incrementAndGet();
+					changed = true;
+				}
+			}
+			(any ? dispatched : skipped).incrementAndGet();
+			return changed ? current : null;
+		}
+	}
+}
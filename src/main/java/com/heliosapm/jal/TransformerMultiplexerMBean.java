@@ -0,0 +1,69 @@
+/**
+HeliosAPM JavaAgentLoader
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal;
+
+import java.util.Map;
+
+/**
+ * <p>Title: TransformerMultiplexerMBean</p>
+ * <p>Description: JMX MBean interface for {@link TransformerMultiplexer}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.TransformerMultiplexerMBean</code></p>
+ */
+
+public interface TransformerMultiplexerMBean {
+	/**
+	 * Returns the class and loader filters of each registered agent
+	 * @return the filter descriptions keyed by agent name
+	 */
+	public Map<String, String> getAgentFilters();
+
+	/**
+	 * Returns the total time each agent's transformers spent transforming
+	 * @return the transform time in ns. keyed by agent name
+	 */
+	public Map<String, Long> getAgentTransformNanos();
+
+	/**
+	 * Returns the number of classes dispatched to each agent's transformers
+	 * @return the dispatched class counts keyed by agent name
+	 */
+	public Map<String, Long> getAgentTransformCounts();
+
+	/**
+	 * Returns the number of classes modified by each agent's transformers
+	 * @return the modified class counts keyed by agent name
+	 */
+	public Map<String, Long> getAgentModifiedCounts();
+
+	/**
+	 * Returns the number of class loads dispatched to at least one agent
+	 * @return the number of dispatched class loads
+	 */
+	public long getDispatchedCount();
+
+	/**
+	 * Returns the number of class loads that no agent's filters matched, and were skipped
+	 * @return the number of skipped class loads
+	 */
+	public long getSkippedCount();
+}
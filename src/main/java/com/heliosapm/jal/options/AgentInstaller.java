@@ -12,6 +12,8 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.jal.options;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -42,14 +44,64 @@ public class AgentInstaller {
 	 * Entry point to invoke the agent installer
 	 * @param args The installer directives: <ul>
 	 * 	<li><b>--pid &lt;jvm id&gt;</b> The target JVM to install into</li>
+	 * 	<li><b>--match &lt;regex&gt;</b> Installs into every JVM with a display name matching the expression (see {@link BatchAgentInstaller})</li>
+	 * 	<li><b>--main &lt;main class&gt;</b> Installs into every JVM running the main class or jar (see {@link BatchAgentInstaller})</li>
+	 * 	<li><b>--threads &lt;count&gt;</b> The maximum number of JVMs a batch install installs into concurrently</li>
+	 * 	<li><b>--timeout &lt;ms&gt;</b> The timeout of the install into each JVM of a batch install</li>
 	 *  <li><b>--D &lt;key&gt;=&lt;value&gt;</b> Specifies a system property to set before launching the agent.
 	 *  Can be specified multiple times.</li>
+	 * 	<li><b>--profile &lt;name or file&gt;</b> Applies a compiled agent option profile (see {@link AgentProfiles}). Can be specified multiple times.</li>
+	 * 	<li><b>--saveprofile &lt;name or file&gt;</b> Compiles the agent options into a profile, and installs (if a target is specified) passing only the profile</li>
+	 * 	<li><b>--stream &lt;port&gt;</b> Streams the local agent and classpath jars to the targets over a loopback socket
+	 * 	on this port (0 for any free port) instead of having the targets read them from disk (see {@link AgentPayloadServer})</li>
 	 * </ul>
 	 */
 	public static void main(final String[] args) {
 		final StringBuilder packedAgentOptions = new StringBuilder();
 		final Map<AgentOption, Object> agentOptions = AgentOption.commandLine(packedAgentOptions, args);
-		install(agentOptions, packedAgentOptions.toString());
+		final boolean batch = agentOptions.containsKey(AgentOption.MATCH) || agentOptions.containsKey(AgentOption.MAIN);
+		String packed = packedAgentOptions.toString();
+		if(agentOptions.containsKey(AgentOption.SAVEPROFILE)) {
+			final File profile;
+			try {
+				profile = AgentProfiles.compile((String)agentOptions.get(AgentOption.SAVEPROFILE), packed);
+			} catch (IOException iex) {
+				throw new RuntimeException("Failed to compile agent profile", iex);
+			}
+			if(!batch && !agentOptions.containsKey(AgentOption.PID)) return;
+			packed = AgentOption.PROFILE.name() + ":" + profile.getPath();
+		}
+		if(batch) {
+			if(agentOptions.containsKey(AgentOption.PID)) throw new IllegalArgumentException("PID cannot be combined with MATCH or MAIN");
+		} else {
+			if(!agentOptions.containsKey(AgentOption.PID)) throw new RuntimeException("Missing mandatory command line option[s]: one of [PID, MATCH, MAIN]");
+		}
+		AgentPayloadServer payloadServer = null;
+		try {
+			if(agentOptions.containsKey(AgentOption.STREAM)) {
+				try {
+					payloadServer = AgentPayloadServer.start((Integer)agentOptions.get(AgentOption.STREAM), packed);
+				} catch (IOException iex) {
+					throw new RuntimeException("Failed to start agent payload server", iex);
+				}
+				packed = payloadServer.prepend(packed);
+			}
+			if(batch) {
+				BatchAgentInstaller.fromOptions(agentOptions, packed).install();
+			} else {
+				install(agentOptions, packed);
+			}
+		} finally {
+			if(payloadServer!=null) payloadServer.close();
+		}
+	}
+	
+	/**
+	 * Returns the path of the agent jar installed into target JVMs
+	 * @return the agent jar path
+	 */
+	static String agentJar() {
+		return AgentInstaller.class.getProtectionDomain().getCodeSource().getLocation().getFile();
 	}
 	
 	private static void install(final Map<AgentOption, Object> agentOptions, final String packedAgentOptions) {		
@@ -62,7 +114,7 @@ public class AgentInstaller {
 				LOG.log(Level.WARNING, "Agent already installed in JVM [" + pid + "]");
 				return;
 			}
-			final String jarFile = AgentInstaller.class.getProtectionDomain().getCodeSource().getLocation().getFile();
+			final String jarFile = agentJar();
 			LOG.log(Level.INFO, "Agent jar [" + jarFile + "]");
 			if(packedAgentOptions.isEmpty()) {
 				LOG.log(Level.INFO, "Executing [vm.loadAgent(\"" + jarFile + "\")]");
@@ -2,16 +2,21 @@
 package com.heliosapm.jal.options;
 
 import java.io.File;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import com.heliosapm.jal.utils.ClasspathPrefetch;
+import com.heliosapm.jal.utils.StreamedArchives;
+
 
 /**
  * <p>Title: AgentOption</p>
@@ -22,16 +27,23 @@ import java.util.regex.Pattern;
  */
 
 public enum AgentOption implements AgentOptionProcessor {
-	/** Additional classpath entry for agent */
+	/**
+	 * Additional classpath entry for agent. Non file URLs are fetched, and URLs with a checksum fragment
+	 * (e.g. <b><code>#sha256=&lt;hex&gt;</code></b>) verified, by {@link com.heliosapm.jal.utils.ClasspathPrefetch}.
+	 */
 	CP(true, true, false, false, false) {
 		@Override
 		public void agentOpts(String value, Map<AgentOption, Object> extracted) {
 			URL url;
 			try {
 				url = new URL(value);
-				final File f = new File(url.getFile());
-				if(!f.exists()) throw new IllegalArgumentException("Invalid classpath URL (file): [" + f + "]");
-				url = f.getAbsoluteFile().toURI().toURL();
+				if("file".equals(url.getProtocol())) {
+					final File f = new File(url.getFile());
+					// a streamed classpath jar need not exist here, it is received from the installer
+					if(!f.exists() && !extracted.containsKey(STREAM)) throw new IllegalArgumentException("Invalid classpath URL (file): [" + f + "]");
+					url = absolute(url);
+				}
+				ClasspathPrefetch.checksum(url);
 			} catch (Exception ex) {
 				throw new IllegalArgumentException("Invalid classpath URL: [" + value + "]", ex);
 			}
@@ -47,7 +59,8 @@ public enum AgentOption implements AgentOptionProcessor {
 		public void commandLine(final String value, final StringBuilder agentOpts, final Map<AgentOption, Object> extracted) {
 			final URL url;
 			try {
-				url = new URL(value);
+				// resolved here, as the target resolves relative file URLs against its own working directory
+				url = absolute(new URL(value));
 			} catch (Exception ex) {
 				throw new IllegalArgumentException("Invalid classpath URL: [" + value + "]", ex);
 			}
@@ -57,8 +70,45 @@ public enum AgentOption implements AgentOptionProcessor {
 			agentOpts.append(name()).append(":").append(url.toString());			
 		}
 	},
-	/** The process ID of the JVM to install to */
-	PID(false, false, false, true, false){
+	/** An agent to load, in the form AGENT-JAR (url) SPACE AGENT-ARGS */
+	AGENT(true, true, false, false, false) {
+		@Override
+		public void agentOpts(final String value, final Map<AgentOption, Object> extracted) {
+			final String spec = value.trim();
+			int index = -1;
+			for(int i = 0; i < spec.length(); i++) {
+				if(Character.isWhitespace(spec.charAt(i))) {
+					index = i;
+					break;
+				}
+			}
+			final String jar = index==-1 ? spec : spec.substring(0, index);
+			final String args = index==-1 ? null : spec.substring(index+1).trim();
+			final URL url;
+			try {
+				url = new URL(jar);
+			} catch (Exception ex) {
+				throw new IllegalArgumentException("Invalid agent URL: [" + jar + "]", ex);
+			}
+			@SuppressWarnings("unchecked")
+			Map<URL, String> agents = (Map<URL, String>)extracted.get(this);
+			if(agents==null) {
+				agents = new LinkedHashMap<URL, String>();
+				extracted.put(this, agents);
+			}
+			if(agents.containsKey(url)) throw new IllegalArgumentException("Duplicate agent URL: [" + url + "]");
+			agents.put(url, (args==null || args.isEmpty()) ? null : args);
+		}
+		@Override
+		public void commandLine(final String value, final StringBuilder agentOpts, final Map<AgentOption, Object> extracted) {
+			if(agentOpts.length()!=0) {
+				agentOpts.append(AgentInstaller.DELIM_TERM);
+			}
+			agentOpts.append(name()).append(":").append(value.trim());
+		}
+	},
+	/** The process ID of the JVM to install to. One of PID, MATCH or MAIN is required on the command line. */
+	PID(false, false, false, false, false){
 		@Override
 		public void agentOpts(final String value, final Map<AgentOption, Object> extracted) {
 			/* No Op */
@@ -69,6 +119,106 @@ public enum AgentOption implements AgentOptionProcessor {
 			extracted.put(this, value);
 		}
 	},
+	/** A regular expression matched against the display names of the JVMs to install to */
+	MATCH(false, false, false, false, false){
+		@Override
+		public void agentOpts(final String value, final Map<AgentOption, Object> extracted) {
+			/* No Op */
+		}
+		@Override
+		public void commandLine(final String value, final StringBuilder agentOpts, final Map<AgentOption, Object> extracted) {
+			if(extracted.containsKey(this)) throw new IllegalArgumentException("Multiple MATCH arguments");
+			try {
+				extracted.put(this, Pattern.compile(value));
+			} catch (Exception ex) {
+				throw new IllegalArgumentException("Invalid MATCH expression: [" + value + "]", ex);
+			}
+		}
+	},
+	/** The main class (or jar) name of the JVMs to install to */
+	MAIN(false, false, false, false, false){
+		@Override
+		public void agentOpts(final String value, final Map<AgentOption, Object> extracted) {
+			/* No Op */
+		}
+		@Override
+		public void commandLine(final String value, final StringBuilder agentOpts, final Map<AgentOption, Object> extracted) {
+			if(extracted.containsKey(this)) throw new IllegalArgumentException("Multiple MAIN arguments");
+			extracted.put(this, value.trim());
+		}
+	},
+	/** The maximum number of JVMs installed to concurrently by a batch install */
+	THREADS(false, false, false, false, false){
+		@Override
+		public void agentOpts(final String value, final Map<AgentOption, Object> extracted) {
+			/* No Op */
+		}
+		@Override
+		public void commandLine(final String value, final StringBuilder agentOpts, final Map<AgentOption, Object> extracted) {
+			if(extracted.containsKey(this)) throw new IllegalArgumentException("Multiple THREADS arguments");
+			extracted.put(this, positiveInt(this, value));
+		}
+	},
+	/** The timeout in ms of the install into each JVM of a batch install */
+	TIMEOUT(false, false, false, false, false){
+		@Override
+		public void agentOpts(final String value, final Map<AgentOption, Object> extracted) {
+			/* No Op */
+		}
+		@Override
+		public void commandLine(final String value, final StringBuilder agentOpts, final Map<AgentOption, Object> extracted) {
+			if(extracted.containsKey(this)) throw new IllegalArgumentException("Multiple TIMEOUT arguments");
+			extracted.put(this, positiveInt(this, value));
+		}
+	},
+	/** Streams the local AGENT and CP jars to the install target over a loopback socket on this port (0 for any free port), see {@link AgentPayloadServer} */
+	STREAM(false, true, false, false, false){
+		@Override
+		public void agentOpts(final String value, final Map<AgentOption, Object> extracted) {
+			extracted.put(this, StreamedArchives.checkSpec(value.trim()));
+		}
+		@Override
+		public void commandLine(final String value, final StringBuilder agentOpts, final Map<AgentOption, Object> extracted) {
+			if(extracted.containsKey(this)) throw new IllegalArgumentException("Multiple STREAM arguments");
+			final int port;
+			try {
+				port = Integer.parseInt(value.trim());
+			} catch (Exception ex) {
+				throw new IllegalArgumentException("Invalid STREAM value: [" + value + "]", ex);
+			}
+			if(port < 0 || port > 65535) throw new IllegalArgumentException("Invalid STREAM value: [" + value + "]");
+			// the agent option is added by the installer once the payload server is bound
+			extracted.put(this, port);
+		}
+	},
+	/** A compiled agent option profile (see {@link AgentProfiles}), by name or file path, whose options are applied in place of this option */
+	PROFILE(true, true, false, false, false){
+		@Override
+		public void agentOpts(final String value, final Map<AgentOption, Object> extracted) {
+			AgentProfiles.load(value, extracted);
+		}
+		@Override
+		public void commandLine(final String value, final StringBuilder agentOpts, final Map<AgentOption, Object> extracted) {
+			final File f = AgentProfiles.profileFile(value);
+			if(!f.isFile()) throw new IllegalArgumentException("No such agent profile: [" + f + "]");
+			if(agentOpts.length()!=0) {
+				agentOpts.append(AgentInstaller.DELIM_TERM);
+			}
+			agentOpts.append(name()).append(":").append(f.getPath());
+		}
+	},
+	/** Compiles the agent options into a profile with this name or file path (see {@link AgentProfiles}), and installs with the profile */
+	SAVEPROFILE(false, false, false, false, false){
+		@Override
+		public void agentOpts(final String value, final Map<AgentOption, Object> extracted) {
+			/* No Op */
+		}
+		@Override
+		public void commandLine(final String value, final StringBuilder agentOpts, final Map<AgentOption, Object> extracted) {
+			if(extracted.containsKey(this)) throw new IllegalArgumentException("Multiple SAVEPROFILE arguments");
+			extracted.put(this, value.trim());
+		}
+	},
 	/** A system property to set in the install target */
 	D(true, true, false, false, false){
 		@Override
@@ -136,7 +286,9 @@ public enum AgentOption implements AgentOptionProcessor {
 	}
 	
 	private static Set<AgentOption> mandatoryCl() {
-		return EnumSet.copyOf(mandatoryCommandLine);
+		final Set<AgentOption> set = EnumSet.noneOf(AgentOption.class);
+		set.addAll(mandatoryCommandLine);
+		return set;
 	}
 	
 	private static Set<AgentOption> mandatoryOpt() {
@@ -146,6 +298,35 @@ public enum AgentOption implements AgentOptionProcessor {
 	}
 	
 	
+	/**
+	 * Resolves a file URL to an absolute file URL, retaining its ref. Other URLs are returned as is.
+	 * @param url The URL to resolve
+	 * @return the resolved URL
+	 * @throws MalformedURLException thrown if the resolved URL is invalid
+	 */
+	static URL absolute(final URL url) throws MalformedURLException {
+		if(!"file".equals(url.getProtocol())) return url;
+		final URL normalized = new File(url.getFile()).getAbsoluteFile().toURI().toURL();
+		return url.getRef()==null ? normalized : new URL(normalized + "#" + url.getRef());
+	}
+
+	/**
+	 * Parses a positive int option value
+	 * @param option The option the value is for
+	 * @param value The value to parse
+	 * @return the parsed value
+	 */
+	private static int positiveInt(final AgentOption option, final String value) {
+		final int i;
+		try {
+			i = Integer.parseInt(value.trim());
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Invalid " + option.name() + " value: [" + value + "]", ex);
+		}
+		if(i < 1) throw new IllegalArgumentException("Invalid " + option.name() + " value: [" + value + "]");
+		return i;
+	}
+	
 	/**
 	 * Decodes the passed string to an agent option
 	 * @param code The code to decode
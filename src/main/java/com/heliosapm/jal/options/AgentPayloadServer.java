@@ -0,0 +1,251 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.options;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.heliosapm.jal.utils.StreamedArchives;
+
+/**
+ * <p>Title: AgentPayloadServer</p>
+ * <p>Description: Serves the agent payload (the local agent and classpath jars named in the agent options) to install targets
+ * over a loopback socket, so targets that cannot read the installer's filesystem (e.g. containers with their own mount namespace)
+ * receive the jars straight into their agent class loaders' buffers, and no target reads them from disk.</p>
+ * <p>The server binds to the loopback address only and serves only clients presenting its one-time token,
+ * which is passed to the targets in the {@link AgentOption#STREAM} agent option. The jar contents are
+ * transferred from the file channel to the socket channel without being copied through the heap.
+ * Any number of targets may fetch the payload concurrently until the server is closed.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.options.AgentPayloadServer</code></p>
+ */
+
+public class AgentPayloadServer implements Runnable, Closeable {
+	/** Static class logger */
+	private final static Logger LOG = Logger.getLogger(AgentPayloadServer.class.getName());
+	/** Serial number factory for connection thread names */
+	private static final AtomicInteger serial = new AtomicInteger(0);
+
+	/** The payload files keyed by the URL they are referenced by in the agent options */
+	private final Map<String, File> payload;
+	/** The server channel */
+	private final ServerSocketChannel server;
+	/** The one-time token clients must present */
+	private final String token;
+	/** The number of payloads served */
+	private final AtomicInteger served = new AtomicInteger(0);
+
+	/**
+	 * Creates a new AgentPayloadServer and starts accepting connections
+	 * @param port The loopback port to listen on, or 0 for any free port
+	 * @param packedAgentOptions The packed agent options naming the payload jars
+	 * @return the started server
+	 * @throws IOException thrown if the server cannot be bound
+	 */
+	public static AgentPayloadServer start(final int port, final String packedAgentOptions) throws IOException {
+		final AgentPayloadServer server = new AgentPayloadServer(port, payload(packedAgentOptions));
+		final Thread t = new Thread(server, "AgentPayloadServer");
+		t.setDaemon(true);
+		t.start();
+		return server;
+	}
+
+	/**
+	 * Collects the local files named by the AGENT and CP options in the passed packed agent options.
+	 * URLs that are not local files are left for the target to read itself.
+	 * @param packedAgentOptions The packed agent options
+	 * @return the payload files keyed by the URL they are referenced by
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, File> payload(final String packedAgentOptions) {
+		final Map<AgentOption, Object> options = AgentOption.agentOptions(packedAgentOptions);
+		final List<URL> urls = new ArrayList<URL>();
+		final Map<URL, String> agents = (Map<URL, String>)options.get(AgentOption.AGENT);
+		if(agents!=null) urls.addAll(agents.keySet());
+		final Set<URL> classpath = (Set<URL>)options.get(AgentOption.CP);
+		if(classpath!=null) urls.addAll(classpath);
+		final Map<String, File> payload = new LinkedHashMap<String, File>();
+		for(URL url: urls) {
+			if(!"file".equals(url.getProtocol())) continue;
+			File f;
+			try {
+				f = new File(url.toURI());
+			} catch (Exception ex) {
+				f = new File(url.getFile());
+			}
+			if(f.isFile()) payload.put(url.toString(), f);
+		}
+		return payload;
+	}
+
+	private AgentPayloadServer(final int port, final Map<String, File> payload) throws IOException {
+		this.payload = payload;
+		final byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		final StringBuilder b = new StringBuilder(32);
+		for(byte x: bytes) b.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+		token = b.toString();
+		server = ServerSocketChannel.open();
+		try {
+			server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), port));
+		} catch (IOException iex) {
+			try { server.close(); } catch (Exception x) {/* No Op */}
+			throw iex;
+		}
+		LOG.log(Level.INFO, "Serving " + payload.size() + " payload jars " + payload.keySet() + " on loopback port " + getPort());
+	}
+
+	/**
+	 * Returns the port the server is listening on
+	 * @return the port
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Returns the URLs of the served payload jars
+	 * @return the payload URLs
+	 */
+	public Collection<String> getPayload() {
+		return payload.keySet();
+	}
+
+	/**
+	 * Returns the number of payloads served so far
+	 * @return the number of payloads served
+	 */
+	public int getServed() {
+		return served.get();
+	}
+
+	/**
+	 * Prepends the {@link AgentOption#STREAM} option for this server to the passed packed agent options.
+	 * The option is placed first so it is known when the target parses the options that follow it.
+	 * @param packedAgentOptions The packed agent options
+	 * @return the packed agent options including this server's stream option
+	 */
+	public String prepend(final String packedAgentOptions) {
+		final String option = AgentOption.STREAM.name() + ":" + StreamedArchives.spec(getPort(), token);
+		return (packedAgentOptions==null || packedAgentOptions.isEmpty()) ? option : option + AgentInstaller.DELIM_TERM + packedAgentOptions;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while(server.isOpen()) {
+			final SocketChannel channel;
+			try {
+				channel = server.accept();
+			} catch (IOException iex) {
+				if(server.isOpen()) LOG.log(Level.WARNING, "Payload server accept failed", iex);
+				continue;
+			}
+			final Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					serve(channel);
+				}
+			}, "AgentPayloadServer#" + serial.incrementAndGet());
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Authenticates the client on the passed channel and sends it the payload
+	 * @param channel The client channel
+	 */
+	private void serve(final SocketChannel channel) {
+		final long start = System.nanoTime();
+		try {
+			channel.socket().setSoTimeout(StreamedArchives.DEFAULT_TIMEOUT);
+			final DataInputStream in = new DataInputStream(channel.socket().getInputStream());
+			if(in.readInt()!=StreamedArchives.MAGIC || !token.equals(in.readUTF())) {
+				LOG.log(Level.WARNING, "Rejected payload client [" + channel.socket().getRemoteSocketAddress() + "]");
+				return;
+			}
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 8192));
+			out.writeInt(payload.size());
+			long total = 0;
+			for(Map.Entry<String, File> entry: payload.entrySet()) {
+				RandomAccessFile raf = null;
+				try {
+					raf = new RandomAccessFile(entry.getValue(), "r");
+					final FileChannel fc = raf.getChannel();
+					final long size = fc.size();
+					if(size > Integer.MAX_VALUE) throw new IOException("Payload jar too large [" + entry.getValue() + "]");
+					out.writeUTF(entry.getKey());
+					out.writeInt((int)size);
+					out.flush();
+					long position = 0;
+					while(position < size) {
+						position += fc.transferTo(position, size - position, channel);
+					}
+					total += size;
+				} finally {
+					if(raf != null) try { raf.close(); } catch (Exception x) {/* No Op */}
+				}
+			}
+			out.flush();
+			served.incrementAndGet();
+			LOG.log(Level.INFO, "Sent " + payload.size() + " payload jars (" + total + " bytes) to [" + channel.socket().getRemoteSocketAddress() + "] in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+		} catch (Exception ex) {
+			LOG.log(Level.WARNING, "Failed to send payload to [" + channel.socket().getRemoteSocketAddress() + "]", ex);
+		} finally {
+			try { channel.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Stops accepting connections
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		try { server.close(); } catch (Exception x) {/* No Op */}
+	}
+}
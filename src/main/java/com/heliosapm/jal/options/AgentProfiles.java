@@ -0,0 +1,205 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.options;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.heliosapm.jal.utils.ArchiveMode;
+import com.heliosapm.jal.utils.IsolatedClassLoader;
+
+/**
+ * <p>Title: AgentProfiles</p>
+ * <p>Description: Named agent option profiles, compiled by the installer into local files so that installs pass only a
+ * <b><code>PROFILE</code></b> reference to the target instead of the full packed agent options, which are re-parsed
+ * on every attach and can exceed the length the attach protocol allows for agent arguments.</p>
+ * <p>A profile is compiled from packed agent options once: the options are validated, classpath URLs are resolved to
+ * absolute file URLs, and the local AGENT and CP jars are pre-indexed into the persistent archive cache used by
+ * {@link ArchiveMode#CACHED}, which the profile then selects (unless the options select a mode themselves).
+ * The compiled profile is a binary list of option names and values, which the target reads and applies in one pass
+ * with no splitting or pattern matching.</p>
+ * <p>Profiles are stored in <b><code>~/.jal/profiles</code></b> unless overridden by the system property
+ * <b><code>com.heliosapm.jal.profile.dir</code></b>, as <b><code>&lt;name&gt;.jalp</code></b>.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.options.AgentProfiles</code></p>
+ */
+
+public final class AgentProfiles {
+	/** Static class logger */
+	private final static Logger LOG = Logger.getLogger(AgentProfiles.class.getName());
+	/** The system property defining the profile directory */
+	public static final String PROFILE_DIR_PROP = "com.heliosapm.jal.profile.dir";
+	/** The default profile directory */
+	public static final String DEFAULT_PROFILE_DIR = System.getProperty("user.home") + File.separator + ".jal" + File.separator + "profiles";
+	/** The compiled profile file extension */
+	public static final String EXTENSION = ".jalp";
+	/** The compiled profile magic number */
+	static final int MAGIC = 0x4A414C50;
+	/** The compiled profile format version */
+	static final int VERSION = 1;
+
+	private AgentProfiles() {}
+
+	/**
+	 * Returns the configured profile directory
+	 * @return the profile directory
+	 */
+	public static File getProfileDir() {
+		final String dir = System.getProperty(PROFILE_DIR_PROP);
+		return new File((dir==null || dir.trim().isEmpty()) ? DEFAULT_PROFILE_DIR : dir.trim());
+	}
+
+	/**
+	 * Returns the file of the referenced profile
+	 * @param ref The profile name, or the path of a compiled profile file
+	 * @return the profile file
+	 */
+	public static File profileFile(final String ref) {
+		if(ref==null || ref.trim().isEmpty()) throw new IllegalArgumentException("The passed profile reference was empty");
+		final String r = ref.trim();
+		if(r.endsWith(EXTENSION) || r.indexOf('/')!=-1 || r.indexOf(File.separatorChar)!=-1) return new File(r).getAbsoluteFile();
+		return new File(getProfileDir(), r + EXTENSION).getAbsoluteFile();
+	}
+
+	/**
+	 * Compiles packed agent options into a profile
+	 * @param ref The profile name, or the path of the compiled profile file
+	 * @param packedAgentOptions The packed agent options
+	 * @return the compiled profile file
+	 * @throws IOException thrown on any error pre-indexing the jars or writing the profile
+	 */
+	@SuppressWarnings("unchecked")
+	public static File compile(final String ref, final String packedAgentOptions) throws IOException {
+		final long start = System.nanoTime();
+		final File file = profileFile(ref);
+		final Map<AgentOption, Object> options = AgentOption.agentOptions(packedAgentOptions);
+		if(options.containsKey(AgentOption.PROFILE) || options.containsKey(AgentOption.STREAM)) {
+			throw new IllegalArgumentException("A profile cannot contain PROFILE or STREAM options");
+		}
+		final List<String[]> entries = new ArrayList<String[]>();
+		int cached = 0;
+		if(packedAgentOptions!=null && !packedAgentOptions.trim().isEmpty()) {
+			for(String option: AgentOption.PACKED_SPLITTER.split(packedAgentOptions)) {
+				final int index = option.indexOf(':');
+				final AgentOption ao = AgentOption.decode(option.substring(0, index));
+				String value = ao.flag ? "" : option.substring(index + 1);
+				URL url = null;
+				if(ao==AgentOption.CP) {
+					url = AgentOption.absolute(new URL(value));
+					value = url.toString();
+				} else if(ao==AgentOption.AGENT) {
+					final String spec = value.trim();
+					final String jar = spec.split("\\s+", 2)[0];
+					url = AgentOption.absolute(new URL(jar));
+					value = url + spec.substring(jar.length());
+				}
+				if(url!=null && IsolatedClassLoader.precache(url)) cached++;
+				entries.add(new String[]{ao.name(), value});
+			}
+		}
+		if(cached > 0) {
+			final Properties sysProps = (Properties)options.get(AgentOption.D);
+			if(sysProps==null || !sysProps.containsKey(ArchiveMode.MODE_PROP)) {
+				entries.add(new String[]{AgentOption.D.name(), ArchiveMode.MODE_PROP + "=" + ArchiveMode.CACHED.name()});
+				if(sysProps==null || !sysProps.containsKey(IsolatedClassLoader.CACHE_DIR_PROP)) {
+					entries.add(new String[]{AgentOption.D.name(), IsolatedClassLoader.CACHE_DIR_PROP + "=" + IsolatedClassLoader.getCacheDir().getAbsolutePath()});
+				}
+			}
+		}
+		write(file, entries);
+		LOG.log(Level.INFO, "Compiled agent profile [" + file + "]: " + entries.size() + " options, " + cached + " jars pre-indexed in "
+				+ ((System.nanoTime() - start) / 1000000) + " ms");
+		return file;
+	}
+
+	/**
+	 * Applies the options of a compiled profile
+	 * @param ref The profile name, or the path of the compiled profile file
+	 * @param extracted The map of extracted agent options to apply the profile's options to
+	 */
+	static void load(final String ref, final Map<AgentOption, Object> extracted) {
+		final File file = profileFile(ref);
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final byte[] content = new byte[(int)raf.length()];
+			raf.readFully(content);
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+			if(in.readInt()!=MAGIC) throw new IOException("Not a compiled agent profile");
+			final int version = in.readInt();
+			if(version!=VERSION) throw new IOException("Unsupported agent profile version [" + version + "]");
+			final int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				final AgentOption ao = AgentOption.decode(in.readUTF());
+				final String value = in.readUTF();
+				ao.agentOpts(ao.flag ? null : value, extracted);
+			}
+		} catch (IOException iex) {
+			throw new IllegalArgumentException("Failed to load agent profile [" + file + "]", iex);
+		} finally {
+			if(raf != null) try { raf.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Writes a compiled profile to a temp file and renames it into place
+	 * @param file The profile file
+	 * @param entries The option names and values
+	 * @throws IOException thrown on any error writing the profile
+	 */
+	private static void write(final File file, final List<String[]> entries) throws IOException {
+		final File dir = file.getParentFile();
+		if(!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) throw new IOException("Failed to create profile directory [" + dir + "]");
+		final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for(String[] entry: entries) {
+				out.writeUTF(entry[0]);
+				out.writeUTF(entry[1]);
+			}
+			out.close();
+			out = null;
+			if(!tmp.renameTo(file)) {
+				file.delete();
+				if(!tmp.renameTo(file)) throw new IOException("Failed to rename [" + tmp + "] to [" + file + "]");
+			}
+		} finally {
+			if(out != null) try { out.close(); } catch (Exception x) {/* No Op */}
+			tmp.delete();
+		}
+	}
+}
@@ -0,0 +1,446 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.options;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.heliosapm.shorthand.attach.vm.PerfData;
+import com.heliosapm.shorthand.attach.vm.VirtualMachine;
+import com.heliosapm.shorthand.attach.vm.VirtualMachineDescriptor;
+import com.heliosapm.shorthand.attach.vm.VirtualMachineRegistry;
+
+/**
+ * <p>Title: BatchAgentInstaller</p>
+ * <p>Description: Installs the agent into every JVM on this host matching a display name expression and/or a main class.
+ * The JVMs are attached to concurrently by a bounded pool, each install is bounded by a timeout,
+ * JVMs that already have the agent installed ({@link AgentInstaller#AGENT_INSTALLED_PROP}) are skipped
+ * and a per-PID report of the outcomes and latencies is logged when the batch completes.</p>
+ * <p>An install that times out is reported and abandoned, and the pool is grown by one thread so the abandoned attach
+ * does not reduce the concurrency of the rest of the batch, then shrunk back when the abandoned attach returns. The attach API's own attach timeout
+ * (<b><code>sun.tools.attach.attachTimeout</code></b>) is set to the install timeout if it is not already set.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.options.BatchAgentInstaller</code></p>
+ */
+
+public class BatchAgentInstaller {
+	/** Static class logger */
+	private final static Logger LOG = Logger.getLogger(BatchAgentInstaller.class.getName());
+	
+	/** The default maximum number of concurrent installs */
+	public static final int DEFAULT_THREADS = 8;
+	/** The default install timeout in ms */
+	public static final int DEFAULT_TIMEOUT = 30000;
+	/** The system property defining the attach API's attach timeout in ms */
+	public static final String ATTACH_TIMEOUT_PROP = "sun.tools.attach.attachTimeout";
+	
+	/** The display name expression to match, or null */
+	private final Pattern match;
+	/** The main class or jar to match, or null */
+	private final String main;
+	/** The maximum number of concurrent installs */
+	private final int threads;
+	/** The install timeout in ms */
+	private final long timeout;
+	/** The agent jar to install */
+	private final String agentJar;
+	/** The packed agent options */
+	private final String packedAgentOptions;
+	
+	/**
+	 * <p>Title: Status</p>
+	 * <p>Description: Enumerates the outcomes of an install into one JVM</p>
+	 */
+	public static enum Status {
+		/** The agent was installed */
+		INSTALLED,
+		/** The agent was already installed */
+		SKIPPED,
+		/** The install failed */
+		FAILED,
+		/** The install did not complete within the timeout */
+		TIMEOUT;
+	}
+	
+	/**
+	 * Creates a BatchAgentInstaller from parsed command line options
+	 * @param agentOptions The parsed command line options
+	 * @param packedAgentOptions The packed agent options passed to each target
+	 * @return the BatchAgentInstaller
+	 */
+	public static BatchAgentInstaller fromOptions(final Map<AgentOption, Object> agentOptions, final String packedAgentOptions) {
+		final Integer threads = (Integer)agentOptions.get(AgentOption.THREADS);
+		final Integer timeout = (Integer)agentOptions.get(AgentOption.TIMEOUT);
+		return new BatchAgentInstaller((Pattern)agentOptions.get(AgentOption.MATCH), (String)agentOptions.get(AgentOption.MAIN),
+				threads==null ? DEFAULT_THREADS : threads, timeout==null ? DEFAULT_TIMEOUT : timeout,
+				AgentInstaller.agentJar(), packedAgentOptions);
+	}
+	
+	/**
+	 * Creates a new BatchAgentInstaller
+	 * @param match The expression matched against the display name of each JVM, or null to match all
+	 * @param main The main class or jar name of the JVMs to install into, or null to match all. A main class also matches by its simple name.
+	 * @param threads The maximum number of concurrent installs
+	 * @param timeout The install timeout in ms
+	 * @param agentJar The agent jar to install
+	 * @param packedAgentOptions The packed agent options passed to each target
+	 */
+	public BatchAgentInstaller(final Pattern match, final String main, final int threads, final long timeout, final String agentJar, final String packedAgentOptions) {
+		if(threads < 1) throw new IllegalArgumentException("Invalid thread count [" + threads + "]");
+		if(timeout < 1) throw new IllegalArgumentException("Invalid timeout [" + timeout + "]");
+		if(agentJar==null || agentJar.trim().isEmpty()) throw new IllegalArgumentException("The passed agent jar was null or empty");
+		this.match = match;
+		this.main = main;
+		this.threads = threads;
+		this.timeout = timeout;
+		this.agentJar = agentJar;
+		this.packedAgentOptions = packedAgentOptions==null ? "" : packedAgentOptions;
+	}
+	
+	/**
+	 * Lists the JVMs on this host matched by this installer, excluding this JVM. The JVMs are listed from their
+	 * performance data files without attaching, or through the Attach API if there are none.
+	 * @return the display names of the matched JVMs keyed by JVM id
+	 */
+	public Map<String, String> targets() {
+		if(System.getProperty(ATTACH_TIMEOUT_PROP)==null) {
+			System.setProperty(ATTACH_TIMEOUT_PROP, String.valueOf(timeout));
+		}
+		final String self = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+		final Map<String, String> jvms = new LinkedHashMap<String, String>();
+		if(VirtualMachineRegistry.getPerfDataDirectories().isEmpty()) {
+			for(VirtualMachineDescriptor vmd: VirtualMachine.list()) {
+				jvms.put(vmd.id(), vmd.displayName());
+			}
+		} else {
+			for(PerfData pd: PerfData.list()) {
+				jvms.put(pd.getPid(), pd.getCommand());
+			}
+		}
+		final Map<String, String> targets = new LinkedHashMap<String, String>();
+		for(Map.Entry<String, String> jvm: jvms.entrySet()) {
+			if(!self.equals(jvm.getKey()) && matches(jvm.getValue())) targets.put(jvm.getKey(), jvm.getValue());
+		}
+		return targets;
+	}
+	
+	/**
+	 * Determines if the passed JVM display name is matched by this installer
+	 * @param displayName The display name, the main class or jar followed by the program arguments
+	 * @return true if the display name is matched, false otherwise
+	 */
+	boolean matches(final String displayName) {
+		final String name = displayName==null ? "" : displayName.trim();
+		if(match!=null && !match.matcher(name).find()) return false;
+		if(main!=null) {
+			final int index = name.indexOf(' ');
+			final String mainClass = index==-1 ? name : name.substring(0, index);
+			if(!mainClass.equals(main) && !mainClass.endsWith("." + main) && !mainClass.endsWith("/" + main) && !mainClass.endsWith(File.separator + main)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Installs the agent into every matched JVM and logs the report
+	 * @return the results of each install, in the order the JVMs were listed
+	 */
+	public List<InstallResult> install() {
+		final Map<String, String> targets = targets();
+		LOG.log(Level.INFO, "Installing Agent jar [" + agentJar + "] into " + targets.size() + " JVMs with " + threads + " threads and a " + timeout + " ms timeout...");
+		final long start = System.nanoTime();
+		final List<InstallResult> results = new ArrayList<InstallResult>(targets.size());
+		if(targets.isEmpty()) {
+			LOG.log(Level.WARNING, "No JVMs matched");
+			return results;
+		}
+		final AtomicInteger serial = new AtomicInteger();
+		final ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "BatchAgentInstaller#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		final int poolSize = Math.min(threads, targets.size());
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+		final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		final CountDownLatch latch = new CountDownLatch(targets.size());
+		try {
+			for(final Map.Entry<String, String> target: targets.entrySet()) {
+				final String id = target.getKey();
+				final InstallResult result = new InstallResult(id, target.getValue());
+				results.add(result);
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						final Thread worker = Thread.currentThread();
+						final Watch watch = new Watch();
+						result.start = System.nanoTime();
+						final ScheduledFuture<?> timer = watchdog.schedule(new Runnable() {
+							@Override
+							public void run() {
+								if(result.complete(Status.TIMEOUT, "Timed out after " + timeout + " ms")) {
+									// replace the abandoned worker
+									if(watch.abandon(worker)) resize(pool, 1);
+									latch.countDown();
+								}
+							}
+						}, timeout, TimeUnit.MILLISECONDS);
+						try {
+							if(install(id, result)) latch.countDown();
+						} finally {
+							timer.cancel(false);
+							if(watch.finish()) resize(pool, -1);
+						}
+					}
+				});
+			}
+			latch.await();
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			LOG.log(Level.WARNING, "Interrupted while waiting for installs to complete");
+		} finally {
+			watchdog.shutdownNow();
+			pool.shutdownNow();
+		}
+		LOG.log(Level.INFO, report(results, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		return results;
+	}
+	
+	/**
+	 * Grows or shrinks the core and maximum size of the passed pool
+	 * @param pool The pool to resize
+	 * @param delta The number of threads to add, or remove if negative
+	 */
+	private static void resize(final ThreadPoolExecutor pool, final int delta) {
+		synchronized(pool) {
+			// the maximum size can not be less than the core size
+			if(delta > 0) {
+				pool.setMaximumPoolSize(pool.getMaximumPoolSize() + delta);
+				pool.setCorePoolSize(pool.getCorePoolSize() + delta);
+			} else {
+				pool.setCorePoolSize(pool.getCorePoolSize() + delta);
+				pool.setMaximumPoolSize(pool.getMaximumPoolSize() + delta);
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Watch</p>
+	 * <p>Description: Guards the interrupt of a worker by the watchdog, so it only hits the install that timed out
+	 * and never the worker's next install</p>
+	 */
+	private static class Watch {
+		/** True while the install runs on its worker */
+		private boolean running = true;
+		/** True if the install was abandoned by the watchdog */
+		private boolean abandoned = false;
+		
+		/**
+		 * Called by the watchdog: interrupts the worker if the install is still running on it
+		 * @param worker The worker running the install
+		 * @return true if the install was abandoned, false if it had already finished
+		 */
+		synchronized boolean abandon(final Thread worker) {
+			if(!running) return false;
+			abandoned = true;
+			worker.interrupt();
+			return true;
+		}
+		
+		/**
+		 * Called by the worker when the install returns: clears any interrupt aimed at the install
+		 * @return true if the install had been abandoned, false otherwise
+		 */
+		synchronized boolean finish() {
+			running = false;
+			Thread.interrupted();
+			return abandoned;
+		}
+	}
+	
+	/**
+	 * Installs the agent into one JVM, recording the outcome and latencies in the passed result
+	 * @param id The id of the JVM to install into
+	 * @param result The result to record to
+	 * @return true if the outcome was recorded, false if the install had already timed out
+	 */
+	private boolean install(final String id, final InstallResult result) {
+		VirtualMachine vm = null;
+		Status status = Status.INSTALLED;
+		String message = null;
+		try {
+			vm = VirtualMachine.attach(id);
+			result.attachMs = elapsedMs(result.start);
+			if(vm.getSystemProperties().containsKey(AgentInstaller.AGENT_INSTALLED_PROP)) {
+				status = Status.SKIPPED;
+				message = "Agent already installed";
+			} else {
+				final long loadStart = System.nanoTime();
+				if(packedAgentOptions.isEmpty()) {
+					vm.loadAgent(agentJar);
+				} else {
+					vm.loadAgent(agentJar, packedAgentOptions);
+				}
+				result.loadMs = elapsedMs(loadStart);
+			}
+		} catch (Throwable ex) {
+			Throwable cause = ex;
+			while(cause.getCause()!=null) cause = cause.getCause();
+			status = Status.FAILED;
+			message = cause.toString();
+			LOG.log(Level.FINE, "Failed to install Agent into JVM [" + id + "]", ex);
+		} finally {
+			if(vm!=null) try { vm.detach(); } catch (Exception x) {/* No Op */}
+		}
+		return result.complete(status, message);
+	}
+	
+	/**
+	 * Renders the report of a batch install
+	 * @param results The results of each install
+	 * @param elapsed The elapsed time of the batch in ms
+	 * @return the report
+	 */
+	public static String report(final List<InstallResult> results, final long elapsed) {
+		final Map<Status, Integer> counts = new EnumMap<Status, Integer>(Status.class);
+		for(Status s: Status.values()) counts.put(s, 0);
+		final StringBuilder b = new StringBuilder("Batch Install Report");
+		b.append(String.format("%n  %-8s %-9s %8s %8s %8s  %s", "PID", "STATUS", "ATTACH", "LOAD", "TOTAL", "JVM"));
+		for(InstallResult r: results) {
+			if(r.status!=null) counts.put(r.status, counts.get(r.status) + 1);
+			b.append("\n  ").append(r);
+		}
+		b.append("\n  ").append(results.size()).append(" JVMs in ").append(elapsed).append(" ms: ").append(counts);
+		return b.toString();
+	}
+	
+	private static long elapsedMs(final long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+	
+	/**
+	 * <p>Title: InstallResult</p>
+	 * <p>Description: The outcome and latencies of the install into one JVM. Latencies are -1 if the step was not reached.</p>
+	 */
+	public static class InstallResult {
+		/** The JVM id */
+		public final String pid;
+		/** The JVM display name */
+		public final String displayName;
+		/** Set when the result is final */
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+		/** The outcome */
+		private volatile Status status = null;
+		/** The failure or skip message */
+		private volatile String message = null;
+		/** The start time of the install in nanos */
+		private volatile long start = 0L;
+		/** The elapsed time to attach in ms */
+		private volatile long attachMs = -1L;
+		/** The elapsed time to load the agent in ms */
+		private volatile long loadMs = -1L;
+		/** The total elapsed time of the install in ms */
+		private volatile long totalMs = -1L;
+		
+		InstallResult(final String pid, final String displayName) {
+			this.pid = pid;
+			this.displayName = displayName;
+		}
+		
+		/**
+		 * Makes this result final unless it already is
+		 * @param status The outcome
+		 * @param message The message
+		 * @return true if this call made the result final, false if it already was
+		 */
+		boolean complete(final Status status, final String message) {
+			if(!completed.compareAndSet(false, true)) return false;
+			this.status = status;
+			this.message = message;
+			totalMs = elapsedMs(start);
+			return true;
+		}
+		
+		/**
+		 * Returns the outcome, or null if the install has not completed
+		 * @return the outcome
+		 */
+		public Status getStatus() {
+			return completed.get() ? status : null;
+		}
+		
+		/**
+		 * Returns the failure, skip or timeout message
+		 * @return the message or null
+		 */
+		public String getMessage() {
+			return message;
+		}
+		
+		/**
+		 * Returns the elapsed time to attach in ms
+		 * @return the attach latency or -1 if the attach did not complete
+		 */
+		public long getAttachMs() {
+			return attachMs;
+		}
+		
+		/**
+		 * Returns the elapsed time to load the agent in ms
+		 * @return the load latency or -1 if the agent was not loaded
+		 */
+		public long getLoadMs() {
+			return loadMs;
+		}
+		
+		/**
+		 * Returns the total elapsed time of the install in ms
+		 * @return the total latency or -1 if the install has not completed
+		 */
+		public long getTotalMs() {
+			return totalMs;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%-8s %-9s %8d %8d %8d  %s%s", pid, status, attachMs, loadMs, totalMs, displayName, message==null ? "" : " : " + message);
+		}
+	}
+}
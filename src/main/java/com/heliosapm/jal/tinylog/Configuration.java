@@ -22,6 +22,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.heliosapm.jal.tinylog.writers.LogEntryValue;
 import com.heliosapm.jal.tinylog.writers.Writer;
@@ -36,6 +38,7 @@ public final class Configuration {
 	
 	private static final Level DEFAULT_LEVEL = Level.INFO;
 	private static final String DEFAULT_FORMAT_PATTERN = "{date} [{thread}] {class}.{method}()\n{level}: {message}";
+	private static final int MAX_CACHED_LEVELS = 4096;
 	private static final int DEFAULT_MAX_STACK_TRACE_ELEMENTS = 40;
 
 	private final Configurator configurator;
@@ -43,6 +46,7 @@ public final class Configuration {
 	private final Level level;
 	private final Level lowestLevel;
 	private final Map<String, Level> customLevels;
+	private final ConcurrentMap<String, Level> cachedLevels;
 	private final String formatPattern;
 	private final Locale locale;
 	private final List<Writer> writers;
@@ -79,6 +83,7 @@ public final class Configuration {
 		this.level = level == null ? getLevel(writerDefinitions) : level;
 		this.lowestLevel = getLowestLevel(this.level, customLevels, writerDefinitions);
 		this.customLevels = customLevels;
+		this.cachedLevels = new ConcurrentHashMap<String, Level>();
 		this.formatPattern = formatPattern == null ? DEFAULT_FORMAT_PATTERN : formatPattern;
 		this.locale = locale == null ? Locale.getDefault() : locale;
 		this.writers = getWriters(writerDefinitions);
@@ -110,7 +115,8 @@ public final class Configuration {
 	}
 
 	/**
-	 * Get the severity level for a package or class.
+	 * Get the severity level for a package or class. Resolved levels are cached for the lifetime of this configuration,
+	 * which is replaced on each activation of a configurator.
 	 *
 	 * @param packageOrClass
 	 *            Name of the package respectively class
@@ -118,6 +124,21 @@ public final class Configuration {
 	 * @return Severity level for the package respectively class
 	 */
 	public Level getLevel(final String packageOrClass) {
+		if (customLevels.isEmpty()) {
+			return level;
+		}
+
+		Level cachedLevel = cachedLevels.get(packageOrClass);
+		if (cachedLevel == null) {
+			cachedLevel = resolveLevel(packageOrClass);
+			if (cachedLevels.size() < MAX_CACHED_LEVELS) {
+				cachedLevels.put(packageOrClass, cachedLevel);
+			}
+		}
+		return cachedLevel;
+	}
+
+	private Level resolveLevel(final String packageOrClass) {
 		String key = packageOrClass;
 		while (true) {
 			Level customLevel = customLevels.get(key);
@@ -17,13 +17,14 @@ import java.io.File;
 
 import com.heliosapm.jal.tinylog.runtime.JavaRuntime;
 import com.heliosapm.jal.tinylog.runtime.RuntimeDialect;
+import com.heliosapm.jal.tinylog.runtime.StackWalkerRuntime;
 
 /**
  * Encapsulate functionality that depends on the environment.
  */
 public final class EnvironmentHelper {
 
-	private static final RuntimeDialect DIALECT = new JavaRuntime();
+	private static final RuntimeDialect DIALECT = createDialect();
 	private static final String NEW_LINE = System.getProperty("line.separator");
 
 	private EnvironmentHelper() {
@@ -56,6 +57,23 @@ public final class EnvironmentHelper {
 		return DIALECT;
 	}
 
+	/**
+	 * Create the runtime dialect for the current VM. {@link StackWalkerRuntime} is used on Java 9 and later, and
+	 * {@link JavaRuntime} on older versions or if the stack walker cannot be used.
+	 *
+	 * @return Runtime dialect
+	 */
+	private static RuntimeDialect createDialect() {
+		if (StackWalkerRuntime.isSupported()) {
+			try {
+				return new StackWalkerRuntime();
+			} catch (Throwable ex) {
+				InternalLogger.warn(ex, "Failed to create stack walker runtime dialect");
+			}
+		}
+		return new JavaRuntime();
+	}
+
 	/**
 	 * Get the line separator.
 	 *
@@ -17,6 +17,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.heliosapm.jal.tinylog.runtime.RuntimeDialect;
 import com.heliosapm.jal.tinylog.writers.LogEntryValue;
@@ -38,6 +40,8 @@ public final class Logger {
 	private static final String NEW_LINE = EnvironmentHelper.getNewLine();
 
 	private static final RuntimeDialect dialect = EnvironmentHelper.getRuntimeDialect();
+	private static final int MAX_CACHED_CLASS_NAMES = 4096;
+	private static final ConcurrentMap<String, String> loggingClassNames = new ConcurrentHashMap<String, String>();
 	private static volatile Configuration configuration = Configurator.defaultConfig().create();
 
 	static {
@@ -597,6 +601,33 @@ public final class Logger {
 		return new StackTraceElement(className, "<unknown>", "<unknown>", -1);
 	}
 
+	private static String getLoggingClassName(final String className) {
+		String loggingClassName = loggingClassNames.get(className);
+		if (loggingClassName == null) {
+			loggingClassName = resolveLoggingClassName(className);
+			if (loggingClassNames.size() < MAX_CACHED_CLASS_NAMES) {
+				loggingClassNames.put(className, loggingClassName);
+			}
+		}
+		return loggingClassName;
+	}
+
+	private static String resolveLoggingClassName(final String className) {
+		for (int index = className.indexOf("$", 0); index != -1; index = className.indexOf('$', index + 2)) {
+			// trailing dollar sign
+			if (index >= className.length() - 1) {
+				return className.substring(0, index);
+			}
+
+			char firstLetter = className.charAt(index + 1);
+			// first letter after dollar sign is not an uppercase letter of an inner class
+			if (firstLetter < 'A' || firstLetter > 'Z') {
+				return className.substring(0, index);
+			}
+		}
+		return className;
+	}
+
 	private static LogEntry[] createLogEntries(final Configuration currentConfiguration, final int strackTraceDepth, final Level level,
 			final StackTraceElement createdStackTraceElement, final Throwable exception, final Object message, final Object[] arguments) {
 		Set<LogEntryValue> requiredLogEntryValues = currentConfiguration.getRequiredLogEntryValues(level);
@@ -638,21 +669,7 @@ public final class Logger {
 						stackTraceElement = onlyClassName ? asStackTraceElement(dialect.getClassName(strackTraceDepth))
 								: dialect.getStackTraceElement(strackTraceDepth);
 					}
-					className = stackTraceElement.getClassName();
-					for (int index = className.indexOf("$", 0); index != -1; index = className.indexOf('$', index + 2)) {
-						// trailing dollar sign
-						if (index >= className.length() - 1) {
-							className = className.substring(0, index);
-							break;
-						}
-
-						char firstLetter = className.charAt(index + 1);
-						// first letter after dollar sign is not an uppercase letter of an inner class
-						if (firstLetter < 'A' || firstLetter > 'Z') {
-							className = className.substring(0, index);
-							break;
-						}
-					}
+					className = getLoggingClassName(stackTraceElement.getClassName());
 					break;
 
 				case METHOD:
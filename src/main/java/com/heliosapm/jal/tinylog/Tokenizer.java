@@ -598,7 +598,7 @@ final class Tokenizer {
 			if (dotIndex < 0) {
 				builder.append(fullyQualifiedClassName);
 			} else {
-				builder.append(fullyQualifiedClassName.substring(dotIndex + 1));
+				builder.append(fullyQualifiedClassName, dotIndex + 1, fullyQualifiedClassName.length());
 			}
 		}
 
@@ -619,7 +619,7 @@ final class Tokenizer {
 			String fullyQualifiedClassName = logEntry.getClassName();
 			int dotIndex = fullyQualifiedClassName.lastIndexOf('.');
 			if (dotIndex != -1) {
-				builder.append(fullyQualifiedClassName.substring(0, dotIndex));
+				builder.append(fullyQualifiedClassName, 0, dotIndex);
 			}
 		}
 
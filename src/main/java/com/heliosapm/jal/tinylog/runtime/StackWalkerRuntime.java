@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Martin Winandy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.heliosapm.jal.tinylog.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Runtime dialect implementation for Java 9 and later, which walks the stack with {@code java.lang.StackWalker}.
+ *
+ * <p>
+ * Unlike {@link JavaRuntime}, which captures the full stack trace of a new throwable for each lookup, only the frames
+ * up to the requested one are walked, and only that frame is converted to a stack trace element. The walker does not
+ * retain class references, so the frames only carry names. {@code StackWalker} is accessed reflectively, as this
+ * class is compiled for older Java versions and only instantiated on Java 9 or later.
+ * </p>
+ */
+public final class StackWalkerRuntime implements RuntimeDialect {
+
+	private static final String STACK_WALKER_CLASS = "java.lang.StackWalker";
+	private static final String STACK_FRAME_CLASS = "java.lang.StackWalker$StackFrame";
+
+	private final Object walker;
+	private final Method walkMethod;
+	private final Method getClassNameMethod;
+	private final Method toStackTraceElementMethod;
+	private final String processId;
+
+	/**
+	 * @throws Exception
+	 *             StackWalker is not available or does not work as expected
+	 */
+	public StackWalkerRuntime() throws Exception {
+		Class<?> walkerClass = Class.forName(STACK_WALKER_CLASS);
+		Class<?> frameClass = Class.forName(STACK_FRAME_CLASS);
+		walker = walkerClass.getMethod("getInstance").invoke(null);
+		walkMethod = walkerClass.getMethod("walk", Function.class);
+		getClassNameMethod = frameClass.getMethod("getClassName");
+		toStackTraceElementMethod = frameClass.getMethod("toStackTraceElement");
+		processId = resolveProcessId();
+
+		StackTraceElement element = getStackTraceElement(0);
+		if (element == null || !StackWalkerRuntime.class.getName().equals(element.getClassName())) {
+			throw new IllegalStateException("StackWalker returned unexpected frame " + element);
+		}
+	}
+
+	/**
+	 * Determine whether {@code java.lang.StackWalker} is available.
+	 *
+	 * @return <code>true</code> if running on Java 9 or later, <code>false</code> if not
+	 */
+	public static boolean isSupported() {
+		try {
+			Class.forName(STACK_WALKER_CLASS);
+			return true;
+		} catch (Throwable ex) {
+			return false;
+		}
+	}
+
+	@Override
+	public String getProcessId() {
+		return processId;
+	}
+
+	@Override
+	public String getClassName(final int depth) {
+		Object frame = walk(depth);
+		try {
+			return (String) getClassNameMethod.invoke(frame);
+		} catch (Exception ex) {
+			throw new IllegalStateException("Failed to get class name from stack frame", ex);
+		}
+	}
+
+	@Override
+	public StackTraceElement getStackTraceElement(final int depth) {
+		Object frame = walk(depth);
+		try {
+			return (StackTraceElement) toStackTraceElementMethod.invoke(frame);
+		} catch (Exception ex) {
+			throw new IllegalStateException("Failed to get stack trace element from stack frame", ex);
+		}
+	}
+
+	/**
+	 * Walk the stack to a specific frame. Frame 0 is the caller of this method.
+	 *
+	 * @param depth
+	 *            Position of the stack frame
+	 * @return Stack frame from defined position
+	 */
+	private Object walk(final int depth) {
+		Object frame;
+		try {
+			// reflection frames of the invocation are hidden by the walker
+			frame = walkMethod.invoke(walker, new FrameFinder(depth + 1));
+		} catch (Exception ex) {
+			throw new IllegalStateException("Failed to walk stack", ex);
+		}
+		if (frame == null) {
+			throw new ArrayIndexOutOfBoundsException(depth);
+		}
+		return frame;
+	}
+
+	private static String resolveProcessId() {
+		try {
+			Class<?> processClass = Class.forName("java.lang.ProcessHandle");
+			Object process = processClass.getMethod("current").invoke(null);
+			return String.valueOf(processClass.getMethod("pid").invoke(process));
+		} catch (Throwable ex) {
+			String name = ManagementFactory.getRuntimeMXBean().getName();
+			int index = name.indexOf('@');
+			return index > 0 ? name.substring(0, index) : name;
+		}
+	}
+
+	/**
+	 * Selects the stack frame at a specific position from the walked frames.
+	 */
+	private static final class FrameFinder implements Function<Stream<Object>, Object> {
+
+		private final int depth;
+
+		private FrameFinder(final int depth) {
+			this.depth = depth;
+		}
+
+		@Override
+		public Object apply(final Stream<Object> frames) {
+			return frames.skip(depth).findFirst().orElse(null);
+		}
+
+	}
+
+}
@@ -0,0 +1,307 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>Title: ArchiveCache</p>
+ * <p>Description: The persistent, per user cache of pre-inflated archives used by {@link ArchiveMode#CACHED}.</p>
+ * <p>Each cached archive is a copy of the source archive with every entry stored uncompressed, so it can be memory mapped
+ * and served by a {@link MappedArchiveIndex} as zero-copy slices. Its central directory is the resource index.
+ * Cache files are keyed by the SHA-256 digest of the source archive's content, so a modified archive gets a new cache file.
+ * The cache file's archive comment holds the format marker, the key and the SHA-256 digest of the rest of the cache file,
+ * which is verified each time the cache file is opened, so partially written, corrupt, tampered or mismatched cache files
+ * are detected and rebuilt. A cache directory or file not owned by the current user is refused.</p>
+ * <p>Cache files are written to a temp file and renamed into place while holding a file lock on the key,
+ * so several JVMs of the same user can safely populate the same cache directory. Cache files that have not been
+ * used for longer than the maximum age are evicted when a new cache file is written.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.ArchiveCache</code></p>
+ */
+
+final class ArchiveCache {
+	/** The system property defining the archive cache directory */
+	public static final String CACHE_DIR_PROP = "com.heliosapm.jal.classloader.cache.dir";
+	/** The default archive cache directory */
+	public static final String DEFAULT_CACHE_DIR = System.getProperty("user.home") + File.separator + ".jal" + File.separator + "classcache";
+	/** The system property defining the ms after which an unused cache file is evicted */
+	public static final String MAX_AGE_PROP = "com.heliosapm.jal.classloader.cache.maxage";
+	/** The default ms after which an unused cache file is evicted */
+	public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+	/** The archive comment prefix identifying a complete cache file of the current format */
+	static final String MARKER = "JAL-ARCHIVE-CACHE/2 ";
+	/** The length of a hex encoded SHA-256 digest */
+	static final int DIGEST_LENGTH = 64;
+	/** The ms between updates of the last modified time of a used cache file */
+	private static final long TOUCH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private ArchiveCache() {}
+
+	/**
+	 * Returns the configured archive cache directory
+	 * @return the archive cache directory
+	 */
+	static File getCacheDir() {
+		final String dir = System.getProperty(CACHE_DIR_PROP);
+		return new File((dir==null || dir.trim().isEmpty()) ? DEFAULT_CACHE_DIR : dir.trim());
+	}
+
+	/**
+	 * Returns the mapped cache of the passed archive, creating it if it does not exist or is stale
+	 * @param archive The source archive file
+	 * @param mapped The memory mapped source archive
+	 * @return the mapped cache file
+	 * @throws IOException thrown on any error reading the archive or reading or writing the cache
+	 */
+	static ByteBuffer map(final File archive, final ByteBuffer mapped) throws IOException {
+		final String key = key(mapped);
+		final File dir = getCacheDir();
+		if(dir.exists()) ClasspathPrefetch.checkOwner(dir);
+		final File cacheFile = new File(dir, key + ".jar");
+		ByteBuffer cached = open(cacheFile, key);
+		if(cached!=null) return cached;
+		if(!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) throw new IOException("Failed to create archive cache directory [" + dir + "]");
+		// file locks are held per JVM, so threads of this JVM serialize here first
+		synchronized(ArchiveCache.class) {
+			RandomAccessFile lockFile = null;
+			FileLock lock = null;
+			try {
+				lockFile = new RandomAccessFile(new File(dir, key + ".lock"), "rw");
+				lock = lockFile.getChannel().lock();
+				cached = open(cacheFile, key);
+				if(cached!=null) return cached;
+				final long start = System.nanoTime();
+				final File tmp = File.createTempFile(key, ".tmp", dir);
+				try {
+					write(archive, tmp, key);
+					seal(tmp);
+					if(!tmp.renameTo(cacheFile)) {
+						cacheFile.delete();
+						if(!tmp.renameTo(cacheFile)) throw new IOException("Failed to rename [" + tmp + "] to [" + cacheFile + "]");
+					}
+				} finally {
+					tmp.delete();
+				}
+				cached = open(cacheFile, key);
+				if(cached==null) throw new IOException("Invalid archive cache written to [" + cacheFile + "]");
+				IsolatedClassLoader.log("Cached [%s] in [%s] in %s ms", archive, cacheFile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				evict(dir, key, Long.getLong(MAX_AGE_PROP, DEFAULT_MAX_AGE));
+				return cached;
+			} finally {
+				if(lock != null) try { lock.release(); } catch (Exception x) {/* No Op */}
+				if(lockFile != null) try { lockFile.close(); } catch (Exception x) {/* No Op */}
+			}
+		}
+	}
+
+	/**
+	 * Computes the cache key of the passed archive
+	 * @param mapped The memory mapped archive
+	 * @return the hex encoded SHA-256 digest of the archive's content
+	 * @throws IOException thrown if the digest cannot be computed
+	 */
+	static String key(final ByteBuffer mapped) throws IOException {
+		return sha256(mapped.duplicate());
+	}
+
+	/**
+	 * Maps the passed cache file if it is a complete, intact cache file for the passed key, owned by the current user
+	 * @param cacheFile The cache file
+	 * @param key The expected key
+	 * @return the mapped cache file or null if it does not exist or is not valid
+	 */
+	static ByteBuffer open(final File cacheFile, final String key) {
+		if(!cacheFile.isFile()) return null;
+		try {
+			ClasspathPrefetch.checkOwner(cacheFile);
+			final ByteBuffer mapped = MappedArchiveIndex.map(cacheFile);
+			final ByteBuffer archive = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			final int eocd = MappedArchiveIndex.findEndOfCentralDirectory(archive);
+			final String expected = MARKER + key + " ";
+			if(MappedArchiveIndex.u16(archive, eocd + 20)!=expected.length() + DIGEST_LENGTH) return null;
+			final int comment = eocd + MappedArchiveIndex.EOCD_HDR;
+			for(int i = 0; i < expected.length(); i++) {
+				if(archive.get(comment + i)!=(byte)expected.charAt(i)) return null;
+			}
+			final int digestOffset = comment + expected.length();
+			final ByteBuffer content = mapped.duplicate();
+			content.limit(digestOffset);
+			final String digest = sha256(content);
+			for(int i = 0; i < DIGEST_LENGTH; i++) {
+				if(archive.get(digestOffset + i)!=(byte)digest.charAt(i)) {
+					IsolatedClassLoader.loge("Discarding corrupt archive cache file [%s]", cacheFile);
+					return null;
+				}
+			}
+			final long now = System.currentTimeMillis();
+			if(now - cacheFile.lastModified() > TOUCH_INTERVAL) cacheFile.setLastModified(now);
+			return mapped;
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the SHA-256 digest of the passed cache file, up to its digest, into the placeholder at the end of its archive comment
+	 * @param file The written cache file
+	 * @throws IOException thrown on any error reading or writing the file
+	 */
+	private static void seal(final File file) throws IOException {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			// read rather than mapped, as a mapped file can not be renamed on some platforms
+			final ByteBuffer content = ByteBuffer.allocate((int)(raf.length() - DIGEST_LENGTH));
+			while(content.hasRemaining()) {
+				if(raf.getChannel().read(content, content.position())==-1) throw new IOException("Truncated archive cache file [" + file + "]");
+			}
+			content.flip();
+			final String digest = sha256(content);
+			raf.seek(raf.length() - DIGEST_LENGTH);
+			raf.write(digest.getBytes("US-ASCII"));
+			raf.getFD().sync();
+		} finally {
+			if(raf != null) try { raf.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Deletes the cache files, and their lock and temp files, not used for longer than the passed maximum age
+	 * @param dir The archive cache directory
+	 * @param key The key of the cache file just written, which is kept
+	 * @param maxAge The maximum age in ms.
+	 */
+	private static void evict(final File dir, final String key, final long maxAge) {
+		final File[] files = dir.listFiles();
+		if(files==null) return;
+		final long cutoff = System.currentTimeMillis() - maxAge;
+		int evicted = 0;
+		for(File f: files) {
+			final String name = f.getName();
+			if(name.startsWith(key) || !(name.endsWith(".jar") || name.endsWith(".lock") || name.endsWith(".tmp"))) continue;
+			if(f.isFile() && f.lastModified() < cutoff && f.delete() && name.endsWith(".jar")) evicted++;
+		}
+		if(evicted > 0) IsolatedClassLoader.log("Evicted %s unused archive cache files from [%s]", evicted, dir);
+	}
+
+	/**
+	 * Computes the SHA-256 digest of the remaining content of the passed buffer
+	 * @param content The content to digest, which is consumed
+	 * @return the hex encoded digest
+	 * @throws IOException thrown if the digest cannot be computed
+	 */
+	private static String sha256(final ByteBuffer content) throws IOException {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(content);
+			final byte[] hash = digest.digest();
+			final char[] chars = new char[hash.length * 2];
+			for(int i = 0; i < hash.length; i++) {
+				chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+				chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+			}
+			return new String(chars);
+		} catch (Exception ex) {
+			throw new IOException("Failed to compute archive digest: " + ex);
+		}
+	}
+
+	/**
+	 * Writes a pre-inflated copy of the passed archive, with a placeholder for its digest at the end of its archive comment
+	 * @param archive The source archive
+	 * @param target The file to write to
+	 * @param key The cache key
+	 * @throws IOException thrown on any error reading the archive or writing the copy
+	 */
+	private static void write(final File archive, final File target, final String key) throws IOException {
+		ZipFile zipFile = null;
+		FileOutputStream fos = null;
+		ZipOutputStream zos = null;
+		try {
+			zipFile = new ZipFile(archive);
+			fos = new FileOutputStream(target);
+			zos = new ZipOutputStream(new BufferedOutputStream(fos, 65536));
+			zos.setMethod(ZipOutputStream.STORED);
+			final Set<String> names = new HashSet<String>();
+			final CRC32 crc = new CRC32();
+			byte[] buff = new byte[8192];
+			for(Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements();) {
+				final ZipEntry ze = en.nextElement();
+				if(ze.isDirectory() || !names.add(ze.getName())) continue;
+				final InputStream is = zipFile.getInputStream(ze);
+				int length = 0;
+				try {
+					int bytesRead = 0;
+					while((bytesRead = is.read(buff, length, buff.length - length))!=-1) {
+						length += bytesRead;
+						if(length==buff.length) {
+							final byte[] larger = new byte[buff.length * 2];
+							System.arraycopy(buff, 0, larger, 0, length);
+							buff = larger;
+						}
+					}
+				} finally {
+					try { is.close(); } catch (Exception x) {/* No Op */}
+				}
+				crc.reset();
+				crc.update(buff, 0, length);
+				final ZipEntry stored = new ZipEntry(ze.getName());
+				stored.setMethod(ZipEntry.STORED);
+				stored.setSize(length);
+				stored.setCompressedSize(length);
+				stored.setCrc(crc.getValue());
+				stored.setTime(ze.getTime());
+				zos.putNextEntry(stored);
+				zos.write(buff, 0, length);
+				zos.closeEntry();
+			}
+			final StringBuilder comment = new StringBuilder(MARKER).append(key).append(' ');
+			for(int i = 0; i < DIGEST_LENGTH; i++) comment.append('0');
+			zos.setComment(comment.toString());
+			zos.finish();
+			zos.flush();
+			fos.getFD().sync();
+		} finally {
+			if(zos != null) try { zos.close(); } catch (Exception x) {/* No Op */}
+			if(fos != null) try { fos.close(); } catch (Exception x) {/* No Op */}
+			if(zipFile != null) try { zipFile.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+}
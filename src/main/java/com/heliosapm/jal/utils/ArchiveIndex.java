@@ -0,0 +1,285 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Title: ArchiveIndex</p>
+ * <p>Description: The indexed class and resource entries of one archive in an {@link IsolatedClassLoader}'s classpath</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.ArchiveIndex</code></p>
+ */
+
+abstract class ArchiveIndex {
+	/** The URL of the indexed archive */
+	protected final URL url;
+	/** The protection domain classes from this archive are defined in */
+	protected final ProtectionDomain protectionDomain;
+	/** Class bytes read ahead of demand by a warm-up, keyed by class entry path */
+	protected final ConcurrentHashMap<String, ByteBuffer> warmed = new ConcurrentHashMap<String, ByteBuffer>();
+	/** The number of classes defined from this archive */
+	protected final AtomicInteger defined = new AtomicInteger(0);
+
+	/**
+	 * Creates a new ArchiveIndex
+	 * @param url The URL of the indexed archive
+	 * @param protectionDomain The protection domain classes from this archive are defined in
+	 */
+	protected ArchiveIndex(final URL url, final ProtectionDomain protectionDomain) {
+		this.url = url;
+		this.protectionDomain = protectionDomain;
+	}
+
+	/**
+	 * Indexes the archive at the passed URL
+	 * @param url The archive URL
+	 * @param protectionDomain The protection domain classes from this archive are defined in
+	 * @param mode The requested archive mode. Archives that cannot be read in the requested mode are read eagerly,
+	 * except for archive files whose central directory cannot be mapped, which are read lazily.
+	 * Archives nested in other archives are always indexed from their outer archive's content, streamed archives (see {@link StreamedArchives})
+	 * from their received content and directories from their files.
+	 * @return the archive index
+	 * @throws Exception thrown on any error reading the archive
+	 */
+	static ArchiveIndex index(final URL url, final ProtectionDomain protectionDomain, final ArchiveMode mode) throws Exception {
+		if(NestedArchiveIndex.isNested(url) || StreamedArchives.isStreamed(url)) {
+			return new NestedArchiveIndex(url, protectionDomain);
+		}
+		final File file = toFile(url);
+		if(file!=null && file.isDirectory()) {
+			return new DirectoryArchiveIndex(url, protectionDomain, file);
+		}
+		if(mode==ArchiveMode.MAPPED && file!=null && file.isFile()) {
+			try {
+				return new MappedArchiveIndex(url, protectionDomain, MappedArchiveIndex.map(file));
+			} catch (ZipException zex) {
+				return unmapped(url, protectionDomain, file, zex);
+			}
+		}
+		if(mode==ArchiveMode.CACHED && file!=null && file.isFile()) {
+			final ByteBuffer mapped = MappedArchiveIndex.map(file);
+			try {
+				return new MappedArchiveIndex(url, protectionDomain, ArchiveCache.map(file, mapped));
+			} catch (Exception ex) {
+				IsolatedClassLoader.loge("Failed to use archive cache for [%s], mapping the archive: %s", url, ex);
+				try {
+					return new MappedArchiveIndex(url, protectionDomain, mapped);
+				} catch (ZipException zex) {
+					return unmapped(url, protectionDomain, file, zex);
+				}
+			}
+		}
+		if(mode==ArchiveMode.LAZY && file!=null && file.isFile()) {
+			return new LazyArchiveIndex(url, protectionDomain, file);
+		}
+		return new EagerArchiveIndex(url, protectionDomain);
+	}
+
+	/**
+	 * Indexes an archive file whose central directory could not be mapped with a {@link LazyArchiveIndex}, since its
+	 * {@link java.util.zip.ZipFile} reads any archive the JVM can, and streaming it eagerly would miss entries after prepended data
+	 * @param url The archive URL
+	 * @param protectionDomain The protection domain classes from this archive are defined in
+	 * @param file The archive file
+	 * @param zex The exception mapping the archive
+	 * @return the archive index
+	 * @throws IOException thrown on any error opening the archive
+	 */
+	private static ArchiveIndex unmapped(final URL url, final ProtectionDomain protectionDomain, final File file, final ZipException zex) throws IOException {
+		IsolatedClassLoader.loge("Failed to map the central directory of [%s], reading it lazily: %s", url, zex);
+		return new LazyArchiveIndex(url, protectionDomain, file);
+	}
+
+	/**
+	 * Returns the file the passed URL refers to
+	 * @param url The URL
+	 * @return the file or null if the URL is not a file URL
+	 */
+	static File toFile(final URL url) {
+		if(!"file".equals(url.getProtocol())) return null;
+		try {
+			return new File(url.toURI());
+		} catch (Exception ex) {
+			return new File(url.getPath());
+		}
+	}
+
+	/**
+	 * Returns the URL of the indexed archive
+	 * @return the URL of the indexed archive
+	 */
+	URL getURL() {
+		return url;
+	}
+
+	/**
+	 * Returns the bytecode of the class at the passed path, ready to be defined
+	 * @param path The class entry path (e.g. <b><code>com/foo/Bar.class</code></b>)
+	 * @return the bytecode or null if the class is not in this archive
+	 * @throws IOException thrown on any error reading the class
+	 */
+	ByteBuffer getClassBytes(final String path) throws IOException {
+		final ByteBuffer bb = warmed.get(path);
+		return bb!=null ? bb : readClassBytes(path);
+	}
+
+	/**
+	 * Reads the bytecode of the class at the passed path from the archive
+	 * @param path The class entry path
+	 * @return the bytecode or null if the class is not in this archive
+	 * @throws IOException thrown on any error reading the class
+	 */
+	abstract ByteBuffer readClassBytes(String path) throws IOException;
+
+	/**
+	 * Reads the bytecode of the class at the passed path ahead of demand
+	 * @param path The class entry path
+	 * @return true if the class is in this archive, false otherwise
+	 * @throws IOException thrown on any error reading the class
+	 */
+	boolean warm(final String path) throws IOException {
+		if(warmed.containsKey(path)) return true;
+		final ByteBuffer bb = readClassBytes(path);
+		if(bb==null) return false;
+		warmed.putIfAbsent(path, bb);
+		return true;
+	}
+
+	/**
+	 * Callback when the class at the passed path has been defined, allowing the index to release its bytecode
+	 * @param path The class entry path
+	 */
+	void released(final String path) {
+		warmed.remove(path);
+	}
+
+	/**
+	 * Returns the number of class entries in this archive
+	 * @return the number of class entries
+	 */
+	abstract int classCount();
+
+	/**
+	 * Returns the number of classes defined from this archive
+	 * @return the number of defined classes
+	 */
+	int definedCount() {
+		return defined.get();
+	}
+
+	/**
+	 * Returns the number of bytes of class content held in memory by this index, waiting to be defined
+	 * @return the number of held bytes
+	 */
+	long heldBytes() {
+		return bytes(warmed);
+	}
+
+	/**
+	 * Returns the size of the memory mapped region this index reads from
+	 * @return the number of mapped bytes, or zero if the archive is not mapped
+	 */
+	long mappedBytes() {
+		return 0L;
+	}
+
+	/**
+	 * Releases all held class content. Classes that have not been defined yet will be read from the archive again when requested.
+	 * @return the number of bytes released
+	 */
+	long evict() {
+		final long released = bytes(warmed);
+		warmed.clear();
+		return released;
+	}
+
+	/**
+	 * Releases the resources held by this index when its class loader is closed. By default the held class content is dropped,
+	 * while a memory mapped region is only unmapped when the index is collected.
+	 */
+	void close() {
+		evict();
+	}
+
+	/**
+	 * Sums the capacity of the buffers in the passed map
+	 * @param buffers The map of buffers
+	 * @return the total capacity
+	 */
+	static long bytes(final ConcurrentHashMap<String, ByteBuffer> buffers) {
+		long total = 0;
+		for(ByteBuffer bb: buffers.values()) total += bb.capacity();
+		return total;
+	}
+
+	/**
+	 * Returns the names of the packages of the classes in this archive
+	 * @return the package names, with the default package as an empty string
+	 */
+	abstract Set<String> packages();
+
+	/**
+	 * Returns the package name of the class at the passed entry path
+	 * @param path The class entry path (e.g. <b><code>com/foo/Bar.class</code></b>)
+	 * @return the package name (e.g. <b><code>com.foo</code></b>)
+	 */
+	static String packageOf(final String path) {
+		final int index = path.lastIndexOf('/');
+		return index==-1 ? "" : path.substring(0, index).replace('/', '.');
+	}
+
+	/**
+	 * Finds the named resource in this archive
+	 * @param name The resource name
+	 * @return the resource URL or null if the resource is not in this archive
+	 */
+	abstract URL findResource(String name);
+
+	/**
+	 * Opens the named resource from this archive's indexed content
+	 * @param name The resource name
+	 * @return an input stream on the resource or null if the resource is not in this archive
+	 * @throws IOException thrown on any error reading the resource
+	 */
+	abstract InputStream openResource(String name) throws IOException;
+
+	/**
+	 * Builds a jar URL for the named entry in this archive
+	 * @param name The entry name
+	 * @return the jar URL
+	 */
+	protected URL entryURL(final String name) {
+		try {
+			return new URL("jar:" + url + "!/" + name);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+}
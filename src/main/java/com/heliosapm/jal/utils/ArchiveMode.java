@@ -0,0 +1,72 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+/**
+ * <p>Title: ArchiveMode</p>
+ * <p>Description: Enumerates the strategies an {@link IsolatedClassLoader} can use to index and read the archives in its classpath</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.ArchiveMode</code></p>
+ */
+
+public enum ArchiveMode {
+	/** Every class in the archive is read and copied into its own direct buffer when the class loader is created */
+	EAGER,
+	/** The archive file is memory mapped and indexed from its central directory. Classes are defined straight from the mapped region. */
+	MAPPED,
+	/** Only the archive's entry names are indexed. Classes are read and inflated the first time they are requested. */
+	LAZY,
+	/** The archive is copied once into a persistent, pre-inflated cache keyed by its content hash, which is memory mapped by later loaders. See {@link ArchiveCache}. */
+	CACHED;
+
+	/** The system property defining the default archive mode */
+	public static final String MODE_PROP = "com.heliosapm.jal.classloader.mode";
+	/** The archive mode used when none is specified */
+	public static final ArchiveMode DEFAULT_MODE = EAGER;
+
+	/**
+	 * Decodes the passed string to an ArchiveMode
+	 * @param code The code to decode
+	 * @return The decoded ArchiveMode
+	 */
+	public static ArchiveMode decode(final String code) {
+		if(code==null || code.trim().isEmpty()) throw new IllegalArgumentException("The passed code was null");
+		try {
+			return valueOf(code.trim().toUpperCase());
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Invalid ArchiveMode [" + code + "]");
+		}
+	}
+
+	/**
+	 * Returns the configured default archive mode, read from the {@link #MODE_PROP} system property
+	 * @return the configured default archive mode
+	 */
+	public static ArchiveMode getDefault() {
+		final String code = System.getProperty(MODE_PROP);
+		if(code==null || code.trim().isEmpty()) return DEFAULT_MODE;
+		try {
+			return decode(code);
+		} catch (Exception ex) {
+			IsolatedClassLoader.loge("Invalid archive mode [%s], using [%s]", code, DEFAULT_MODE);
+			return DEFAULT_MODE;
+		}
+	}
+}
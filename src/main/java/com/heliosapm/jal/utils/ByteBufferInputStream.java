@@ -0,0 +1,88 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Title: ByteBufferInputStream</p>
+ * <p>Description: An input stream reading the remaining content of a byte buffer, such as a slice of a memory mapped archive</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.ByteBufferInputStream</code></p>
+ */
+
+class ByteBufferInputStream extends InputStream {
+	/** The buffer being read */
+	private final ByteBuffer buffer;
+	/** The marked position */
+	private int mark;
+
+	/**
+	 * Creates a new ByteBufferInputStream
+	 * @param buffer The buffer to read. Its position is advanced as the stream is read.
+	 */
+	ByteBufferInputStream(final ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.mark = buffer.position();
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) {
+		if(len==0) return 0;
+		if(!buffer.hasRemaining()) return -1;
+		final int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) {
+		if(n <= 0) return 0;
+		final int skipped = (int)Math.min(n, buffer.remaining());
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(final int readlimit) {
+		mark = buffer.position();
+	}
+
+	@Override
+	public synchronized void reset() {
+		buffer.position(mark);
+	}
+}
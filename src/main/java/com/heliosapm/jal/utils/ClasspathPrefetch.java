@@ -0,0 +1,445 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: ClasspathPrefetch</p>
+ * <p>Description: Stages the agents' additional classpath URLs in a persistent, per user, content addressed cache before
+ * the agents are booted, so the isolated class loaders only ever read local files.</p>
+ * <p>All the URLs that miss the cache are fetched concurrently, rather than opened one at a time as the class loaders
+ * index them, so a boot against slow HTTP or network file system sources costs roughly the slowest fetch instead of
+ * the sum of them. A URL can carry the expected checksum of its content as its fragment, in the form
+ * <b><code>#&lt;algorithm&gt;=&lt;hex&gt;</code></b> (e.g. <b><code>#sha256=9f86d0...</code></b>), with the algorithm one of
+ * <b><code>md5</code></b>, <b><code>sha1</code></b>, <b><code>sha256</code></b> or <b><code>sha512</code></b>.
+ * Fetched content is verified against it and a mismatch fails the boot.</p>
+ * <p>Cached files are named by the SHA-256 digest of their content. An index in the cache directory maps the source
+ * URLs and checksums to cached files, so later boots resolve them with no network I/O at all. Since a URL without a
+ * checksum is not re-fetched once cached, changed content is only picked up by adding or changing its checksum, or
+ * by setting the system property <b><code>com.heliosapm.jal.prefetch.refresh</code></b> to true.</p>
+ * <p>Cached files are not trusted: each cache hit is hashed again and checked against its name and the URL's checksum,
+ * and fetched again on a mismatch. A cache directory not owned by the current user is refused.</p>
+ * <p>Non file URLs are always staged. File URLs are used in place, unless they carry a checksum or the system property
+ * <b><code>com.heliosapm.jal.prefetch.files</code></b> is true (e.g. for jars on a network file system).
+ * URLs streamed by the installer (see {@link StreamedArchives}) are never staged.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.ClasspathPrefetch</code></p>
+ */
+
+public final class ClasspathPrefetch {
+	/** The system property defining the prefetch cache directory */
+	public static final String PREFETCH_DIR_PROP = "com.heliosapm.jal.prefetch.dir";
+	/** The default prefetch cache directory */
+	public static final String DEFAULT_PREFETCH_DIR = System.getProperty("user.home") + File.separator + ".jal" + File.separator + "prefetch";
+	/** The system property defining the maximum number of concurrent fetches */
+	public static final String THREADS_PROP = "com.heliosapm.jal.prefetch.threads";
+	/** The default maximum number of concurrent fetches */
+	public static final int DEFAULT_THREADS = 8;
+	/** The system property defining the connect and read timeout of each fetch in ms. */
+	public static final String TIMEOUT_PROP = "com.heliosapm.jal.prefetch.timeout";
+	/** The default connect and read timeout of each fetch in ms. */
+	public static final int DEFAULT_TIMEOUT = 30000;
+	/** The system property indicating that file URLs without a checksum should be staged too */
+	public static final String FILES_PROP = "com.heliosapm.jal.prefetch.files";
+	/** The system property indicating that cached URLs without a checksum should be fetched again */
+	public static final String REFRESH_PROP = "com.heliosapm.jal.prefetch.refresh";
+	/** The name of the index file in the prefetch cache directory */
+	static final String INDEX_FILE = "index.properties";
+	/** The index key prefix of source URLs */
+	static final String URL_KEY = "url:";
+	/** The index key prefix of checksums */
+	static final String SUM_KEY = "sum:";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final AtomicInteger serial = new AtomicInteger(0);
+
+	private ClasspathPrefetch() {}
+
+	/**
+	 * Returns the configured prefetch cache directory
+	 * @return the prefetch cache directory
+	 */
+	public static File getPrefetchDir() {
+		final String dir = System.getProperty(PREFETCH_DIR_PROP);
+		return new File((dir==null || dir.trim().isEmpty()) ? DEFAULT_PREFETCH_DIR : dir.trim());
+	}
+
+	/**
+	 * Stages the passed classpath URLs in the prefetch cache
+	 * @param urls The classpath URLs (can be null)
+	 * @return the classpath URLs to load from, in the same order, with each staged URL replaced by its cached file's URL
+	 */
+	public static Set<URL> prefetch(final Collection<URL> urls) {
+		final Set<URL> classpath = new LinkedHashSet<URL>();
+		if(urls==null || urls.isEmpty()) return classpath;
+		final long start = System.nanoTime();
+		final boolean files = Boolean.getBoolean(FILES_PROP);
+		final boolean refresh = Boolean.getBoolean(REFRESH_PROP);
+		final File dir = getPrefetchDir();
+		final Properties index = new Properties();
+		final Map<URL, URL> resolved = new LinkedHashMap<URL, URL>();
+		final List<URL> misses = new ArrayList<URL>();
+		boolean indexRead = false;
+		for(URL url: urls) {
+			final String[] checksum = checksum(url);
+			if(StreamedArchives.isStreamed(url) || (checksum==null && !files && "file".equals(url.getProtocol()))) {
+				resolved.put(url, url);
+				continue;
+			}
+			if(!indexRead) {
+				if(dir.exists()) checkOwner(dir);
+				readIndex(dir, index);
+				indexRead = true;
+			}
+			final String hash = checksum!=null ? index.getProperty(SUM_KEY + checksum[0] + "=" + checksum[1])
+					: refresh ? null : index.getProperty(URL_KEY + strip(url));
+			final File cached = hash==null ? null : new File(dir, hash + ".jar");
+			if(cached!=null && cached.isFile() && verify(cached, hash, checksum)) {
+				resolved.put(url, toURL(cached));
+			} else {
+				resolved.put(url, null);
+				misses.add(url);
+			}
+		}
+		if(!misses.isEmpty()) {
+			if(!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) throw new RuntimeException("Failed to create prefetch directory [" + dir + "]");
+			final AtomicLong bytes = new AtomicLong(0L);
+			final Map<URL, String> fetched = fetch(misses, dir, bytes);
+			for(Map.Entry<URL, String> entry: fetched.entrySet()) {
+				resolved.put(entry.getKey(), toURL(new File(dir, entry.getValue() + ".jar")));
+			}
+			writeIndex(dir, fetched);
+			IsolatedClassLoader.log("Prefetched %s of %s classpath URLs (%s bytes) in %s ms", misses.size(), urls.size(), bytes.get(),
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+		classpath.addAll(resolved.values());
+		return classpath;
+	}
+
+	/**
+	 * Fetches the passed URLs concurrently into the prefetch cache
+	 * @param urls The URLs to fetch
+	 * @param dir The prefetch cache directory
+	 * @param bytes Accumulates the number of bytes fetched
+	 * @return the SHA-256 hex digest of each fetched URL's content
+	 */
+	private static Map<URL, String> fetch(final List<URL> urls, final File dir, final AtomicLong bytes) {
+		final int timeout = Integer.getInteger(TIMEOUT_PROP, DEFAULT_TIMEOUT);
+		final int threads = Math.max(1, Math.min(urls.size(), Integer.getInteger(THREADS_PROP, DEFAULT_THREADS)));
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "JALClasspathPrefetch#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			final Map<URL, Future<String>> futures = new LinkedHashMap<URL, Future<String>>();
+			for(final URL url: urls) {
+				futures.put(url, executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return fetch(url, dir, timeout, bytes);
+					}
+				}));
+			}
+			final Map<URL, String> fetched = new LinkedHashMap<URL, String>();
+			final StringBuilder failures = new StringBuilder();
+			for(Map.Entry<URL, Future<String>> entry: futures.entrySet()) {
+				try {
+					fetched.put(entry.getKey(), entry.getValue().get());
+				} catch (ExecutionException eex) {
+					failures.append("\n\t[").append(entry.getKey()).append("]: ").append(eex.getCause());
+				} catch (InterruptedException iex) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while prefetching classpath URLs", iex);
+				}
+			}
+			if(failures.length() > 0) {
+				// keep what was fetched so a retry only fetches the failed URLs
+				writeIndex(dir, fetched);
+				throw new RuntimeException("Failed to prefetch classpath URLs:" + failures);
+			}
+			return fetched;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fetches the passed URL into the prefetch cache, verifying its checksum if it has one
+	 * @param url The URL to fetch
+	 * @param dir The prefetch cache directory
+	 * @param timeout The connect and read timeout in ms.
+	 * @param bytes Accumulates the number of bytes fetched
+	 * @return the SHA-256 hex digest of the URL's content
+	 * @throws Exception thrown on any error fetching the URL, or if its content does not match its checksum
+	 */
+	static String fetch(final URL url, final File dir, final int timeout, final AtomicLong bytes) throws Exception {
+		final String[] checksum = checksum(url);
+		final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+		final MessageDigest expected = (checksum==null || "SHA-256".equals(checksum[0])) ? null : MessageDigest.getInstance(checksum[0]);
+		final File tmp = File.createTempFile("prefetch", ".tmp", dir);
+		InputStream is = null;
+		FileOutputStream fos = null;
+		try {
+			final URLConnection conn = strip(url).openConnection();
+			conn.setConnectTimeout(timeout);
+			conn.setReadTimeout(timeout);
+			conn.setUseCaches(false);
+			is = conn.getInputStream();
+			fos = new FileOutputStream(tmp);
+			final byte[] buff = new byte[65536];
+			int bytesRead = -1;
+			long total = 0;
+			while((bytesRead = is.read(buff))!=-1) {
+				sha256.update(buff, 0, bytesRead);
+				if(expected!=null) expected.update(buff, 0, bytesRead);
+				fos.write(buff, 0, bytesRead);
+				total += bytesRead;
+			}
+			fos.close();
+			fos = null;
+			bytes.addAndGet(total);
+			final String hash = hex(sha256.digest());
+			if(checksum!=null) {
+				final String actual = expected==null ? hash : hex(expected.digest());
+				if(!actual.equals(checksum[1])) throw new IOException(checksum[0] + " checksum mismatch, expected [" + checksum[1] + "] but was [" + actual + "]");
+			}
+			final File cacheFile = new File(dir, hash + ".jar");
+			// a file already there (fetched by another JVM or from another URL) is only kept if it is intact
+			if(!tmp.renameTo(cacheFile) && !(cacheFile.isFile() && verify(cacheFile, hash, null))) {
+				throw new IOException("Failed to rename [" + tmp + "] to [" + cacheFile + "]");
+			}
+			return hash;
+		} finally {
+			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}
+			if(fos != null) try { fos.close(); } catch (Exception x) {/* No Op */}
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Verifies that the content of the passed cached file still matches its SHA-256 name and the checksum of the URL it was fetched from.
+	 * A cached file that does not match is deleted.
+	 * @param file The cached file
+	 * @param hash The SHA-256 hex digest the file is named by
+	 * @param checksum The checksum of the URL, or null if it has none
+	 * @return true if the file is intact, false otherwise
+	 */
+	static boolean verify(final File file, final String hash, final String[] checksum) {
+		FileInputStream fis = null;
+		try {
+			final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			final MessageDigest expected = (checksum==null || "SHA-256".equals(checksum[0])) ? null : MessageDigest.getInstance(checksum[0]);
+			fis = new FileInputStream(file);
+			final byte[] buff = new byte[65536];
+			int bytesRead = -1;
+			while((bytesRead = fis.read(buff))!=-1) {
+				sha256.update(buff, 0, bytesRead);
+				if(expected!=null) expected.update(buff, 0, bytesRead);
+			}
+			fis.close();
+			fis = null;
+			final String actual = hex(sha256.digest());
+			if(actual.equals(hash) && (checksum==null || checksum[1].equals(expected==null ? actual : hex(expected.digest())))) return true;
+			IsolatedClassLoader.loge("Discarding corrupt prefetched file [%s]", file);
+			file.delete();
+		} catch (Exception ex) {
+			IsolatedClassLoader.loge("Failed to verify prefetched file [%s]: %s", file, ex);
+		} finally {
+			if(fis != null) try { fis.close(); } catch (Exception x) {/* No Op */}
+		}
+		return false;
+	}
+
+	/**
+	 * Refuses a cache directory or file that is not owned by the current user, since its content would be loaded into the agents.
+	 * The owner can only be determined on Java 7 and later, so the check is skipped on older versions.
+	 * @param file The cache directory or file
+	 */
+	static void checkOwner(final File file) {
+		final String owner;
+		try {
+			final Class<?> linkOptionClass = Class.forName("java.nio.file.LinkOption");
+			final Object path = File.class.getMethod("toPath").invoke(file);
+			final Object linkOptions = Array.newInstance(linkOptionClass, 0);
+			final Object principal = Class.forName("java.nio.file.Files")
+					.getMethod("getOwner", Class.forName("java.nio.file.Path"), linkOptions.getClass())
+					.invoke(null, path, linkOptions);
+			owner = ((Principal)principal).getName();
+		} catch (ClassNotFoundException cnfe) {
+			return;
+		} catch (NoSuchMethodException nsme) {
+			return;
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to determine the owner of [" + file + "]", ex);
+		}
+		final String user = System.getProperty("user.name");
+		// windows owners are qualified by their domain
+		if(!owner.equals(user) && !owner.endsWith("\\" + user)) {
+			throw new RuntimeException("[" + file + "] is owned by [" + owner + "], not by the current user [" + user + "]");
+		}
+	}
+
+	/**
+	 * Returns the checksum carried by the passed URL's fragment
+	 * @param url The URL
+	 * @return a two element array of the {@link MessageDigest} algorithm name and the lower case hex checksum, or null if the URL has no checksum
+	 */
+	public static String[] checksum(final URL url) {
+		final String ref = url.getRef();
+		if(ref==null) return null;
+		final int index = ref.indexOf('=');
+		if(index < 1) throw new IllegalArgumentException("Invalid classpath URL checksum [" + ref + "], expected <algorithm>=<hex>");
+		String algorithm = ref.substring(0, index).trim().toUpperCase();
+		if(algorithm.startsWith("SHA") && algorithm.length() > 3 && algorithm.charAt(3)!='-') algorithm = "SHA-" + algorithm.substring(3);
+		if(!"MD5".equals(algorithm) && !"SHA-1".equals(algorithm) && !"SHA-256".equals(algorithm) && !"SHA-512".equals(algorithm)) {
+			throw new IllegalArgumentException("Unsupported classpath URL checksum algorithm [" + ref.substring(0, index) + "]");
+		}
+		return new String[]{algorithm, ref.substring(index + 1).trim().toLowerCase()};
+	}
+
+	/**
+	 * Returns the passed URL without its fragment
+	 * @param url The URL
+	 * @return the URL without its fragment
+	 */
+	static URL strip(final URL url) {
+		if(url.getRef()==null) return url;
+		final String s = url.toString();
+		try {
+			return new URL(s.substring(0, s.indexOf('#')));
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Invalid classpath URL [" + url + "]", ex);
+		}
+	}
+
+	/**
+	 * Reads the prefetch cache index
+	 * @param dir The prefetch cache directory
+	 * @param index The properties to read the index into
+	 */
+	private static void readIndex(final File dir, final Properties index) {
+		final File file = new File(dir, INDEX_FILE);
+		if(!file.isFile()) return;
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(file);
+			index.load(fis);
+		} catch (Exception ex) {
+			IsolatedClassLoader.loge("Failed to read prefetch index [%s]: %s", file, ex);
+		} finally {
+			if(fis != null) try { fis.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Adds the passed fetched URLs to the prefetch cache index, holding a file lock on it so several JVMs
+	 * on the same host can safely update the same index
+	 * @param dir The prefetch cache directory
+	 * @param fetched The SHA-256 hex digest of each fetched URL's content
+	 */
+	private static void writeIndex(final File dir, final Map<URL, String> fetched) {
+		if(fetched.isEmpty()) return;
+		final File file = new File(dir, INDEX_FILE);
+		synchronized(ClasspathPrefetch.class) {
+			RandomAccessFile lockFile = null;
+			FileLock lock = null;
+			FileOutputStream fos = null;
+			File tmp = null;
+			try {
+				lockFile = new RandomAccessFile(new File(dir, INDEX_FILE + ".lock"), "rw");
+				lock = lockFile.getChannel().lock();
+				final Properties index = new Properties();
+				readIndex(dir, index);
+				for(Map.Entry<URL, String> entry: fetched.entrySet()) {
+					final URL url = entry.getKey();
+					final String[] checksum = checksum(url);
+					index.setProperty(URL_KEY + strip(url), entry.getValue());
+					if(checksum!=null) index.setProperty(SUM_KEY + checksum[0] + "=" + checksum[1], entry.getValue());
+				}
+				tmp = File.createTempFile(INDEX_FILE, ".tmp", dir);
+				fos = new FileOutputStream(tmp);
+				index.store(fos, "JavaAgentLoader classpath prefetch index");
+				fos.close();
+				fos = null;
+				if(!tmp.renameTo(file)) {
+					file.delete();
+					if(!tmp.renameTo(file)) throw new IOException("Failed to rename [" + tmp + "] to [" + file + "]");
+				}
+			} catch (Exception ex) {
+				IsolatedClassLoader.loge("Failed to write prefetch index [%s]: %s", file, ex);
+			} finally {
+				if(fos != null) try { fos.close(); } catch (Exception x) {/* No Op */}
+				if(tmp != null) tmp.delete();
+				if(lock != null) try { lock.release(); } catch (Exception x) {/* No Op */}
+				if(lockFile != null) try { lockFile.close(); } catch (Exception x) {/* No Op */}
+			}
+		}
+	}
+
+	private static URL toURL(final File file) {
+		try {
+			return file.toURI().toURL();
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to convert [" + file + "] to a URL", ex);
+		}
+	}
+
+	private static String hex(final byte[] hash) {
+		final char[] chars = new char[hash.length * 2];
+		for(int i = 0; i < hash.length; i++) {
+			chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
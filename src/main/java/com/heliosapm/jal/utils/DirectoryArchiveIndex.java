@@ -0,0 +1,178 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>Title: DirectoryArchiveIndex</p>
+ * <p>Description: Archive index of an exploded class directory. The directory tree is walked once when the index is created
+ * to collect its packages, and classes and resources are read from their files on demand.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.DirectoryArchiveIndex</code></p>
+ */
+
+class DirectoryArchiveIndex extends ArchiveIndex {
+	/** The root directory */
+	protected final File root;
+	/** The canonical path of the root directory, with a trailing separator */
+	private final String canonicalRoot;
+	/** The packages of the classes in the directory */
+	private final Set<String> packages = new HashSet<String>();
+	/** The number of class files in the directory */
+	private final int classCount;
+
+	/**
+	 * Creates a new DirectoryArchiveIndex
+	 * @param url The URL of the directory
+	 * @param protectionDomain The protection domain classes from this directory are defined in
+	 * @param root The directory
+	 */
+	DirectoryArchiveIndex(final URL url, final ProtectionDomain protectionDomain, final File root) {
+		super(url, protectionDomain);
+		this.root = root;
+		canonicalRoot = canonicalPath(root) + File.separator;
+		classCount = walk(root, "");
+	}
+
+	/**
+	 * Collects the packages of the class files under the passed directory
+	 * @param dir The directory to walk
+	 * @param pkg The package name of the directory
+	 * @return the number of class files found
+	 */
+	private int walk(final File dir, final String pkg) {
+		final File[] files = dir.listFiles();
+		if(files==null) return 0;
+		int count = 0;
+		for(final File f: files) {
+			final String name = f.getName();
+			if(f.isDirectory()) {
+				count += walk(f, pkg.isEmpty() ? name : pkg + "." + name);
+			} else if(name.endsWith(".class")) {
+				packages.add(pkg);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the canonical path of the passed file, or its absolute path if it cannot be canonicalized
+	 * @param f The file
+	 * @return the canonical path
+	 */
+	private static String canonicalPath(final File f) {
+		try {
+			return f.getCanonicalPath();
+		} catch (IOException iex) {
+			return f.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * Returns the file of the named entry. Names which resolve outside the root directory, through <b><code>..</code></b>
+	 * segments or otherwise, are rejected.
+	 * @param name The entry name
+	 * @return the file or null if the entry is not in this directory
+	 */
+	protected File file(final String name) {
+		if(name.isEmpty() || name.endsWith("/")) return null;
+		final File f = new File(root, name);
+		if(name.contains("..") || name.indexOf(':')!=-1 || name.indexOf('\\')!=-1) {
+			try {
+				if(!f.getCanonicalPath().startsWith(canonicalRoot)) return null;
+			} catch (IOException iex) {
+				return null;
+			}
+		}
+		return f.isFile() ? f : null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#readClassBytes(java.lang.String)
+	 */
+	@Override
+	ByteBuffer readClassBytes(final String path) throws IOException {
+		final File f = file(path);
+		if(f==null) return null;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(f, "r");
+			final byte[] bytes = new byte[(int)raf.length()];
+			raf.readFully(bytes);
+			return ByteBuffer.wrap(bytes);
+		} finally {
+			if(raf != null) try { raf.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#findResource(java.lang.String)
+	 */
+	@Override
+	URL findResource(final String name) {
+		final File f = file(name);
+		try {
+			return f==null ? null : f.toURI().toURL();
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#openResource(java.lang.String)
+	 */
+	@Override
+	InputStream openResource(final String name) throws IOException {
+		final File f = file(name);
+		return f==null ? null : new FileInputStream(f);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#classCount()
+	 */
+	@Override
+	int classCount() {
+		return classCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#packages()
+	 */
+	@Override
+	Set<String> packages() {
+		return packages;
+	}
+}
@@ -0,0 +1,209 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+
+/**
+ * <p>Title: EagerArchiveIndex</p>
+ * <p>Description: {@link ArchiveMode#EAGER} archive index which streams the whole archive when created,
+ * copying every class into its own direct buffer</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.EagerArchiveIndex</code></p>
+ */
+
+class EagerArchiveIndex extends ArchiveIndex {
+	/** A map of the class contents of the archive */
+	private final ConcurrentHashMap<String, ByteBuffer> jarItems = new ConcurrentHashMap<String, ByteBuffer>();
+	/** The names of all the file entries of the archive. Resource URLs are built on demand. */
+	private final Set<String> entries = new HashSet<String>();
+	/** The number of class entries */
+	private final int classCount;
+
+	/**
+	 * Creates a new EagerArchiveIndex
+	 * @param url The URL of the archive
+	 * @param protectionDomain The protection domain classes from this archive are defined in
+	 * @throws Exception thrown on any error reading the archive
+	 */
+	EagerArchiveIndex(final URL url, final ProtectionDomain protectionDomain) throws Exception {
+		super(url, protectionDomain);
+		InputStream is = null;
+		JarInputStream jis = null;
+		try {
+			is = url.openStream();
+			jis = new JarInputStream(is);
+			// the manifest is consumed by the JarInputStream and never returned as an entry
+			if(jis.getManifest()!=null) entries.add(JarFile.MANIFEST_NAME);
+			JarEntry je = null;
+			while((je = jis.getNextJarEntry())!=null) {
+				try {
+					if(je.isDirectory()) continue;
+					final String rezName = je.getName();
+					if(!entries.add(rezName)) continue;
+					if(!rezName.endsWith(".class")) continue;
+					byte[] byteCode = load(jis);
+					final ByteBuffer bb = ByteBuffer.allocateDirect(byteCode.length);
+					bb.put(byteCode);
+					bb.flip();
+					byteCode = null;
+					jarItems.put(rezName, bb);
+				} finally {
+					try { jis.closeEntry(); } catch (Exception x) {/* No Op */}
+				}
+			}
+			classCount = jarItems.size();
+		} finally {
+			if(jis != null) try { jis.close(); } catch (Exception x) {/* No Op */}
+			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	private static byte[] load(final InputStream jis) throws IOException {
+		ByteArrayOutputStream baos = null;
+		try {
+			baos = new ByteArrayOutputStream(1024);
+			byte[] buff = new byte[1024];
+			int bytesRead = 0;
+			while((bytesRead = jis.read(buff))!=-1) {
+				baos.write(buff, 0, bytesRead);
+			}
+			return baos.toByteArray();
+		} finally {
+			if(baos != null) try { baos.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#readClassBytes(java.lang.String)
+	 */
+	@Override
+	ByteBuffer readClassBytes(final String path) throws IOException {
+		final ByteBuffer bb = jarItems.get(path);
+		if(bb!=null || !entries.contains(path)) return bb;
+		// released or evicted, so read it again
+		InputStream is = null;
+		try {
+			is = entryURL(path).openStream();
+			return ByteBuffer.wrap(load(is));
+		} finally {
+			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#classCount()
+	 */
+	@Override
+	int classCount() {
+		return classCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#heldBytes()
+	 */
+	@Override
+	long heldBytes() {
+		return super.heldBytes() + bytes(jarItems);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The eagerly read direct buffers are dropped and reclaimed by the next garbage collection.</p>
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#evict()
+	 */
+	@Override
+	long evict() {
+		long released = super.evict();
+		for(String path: jarItems.keySet()) {
+			final ByteBuffer bb = jarItems.remove(path);
+			if(bb!=null) released += bb.capacity();
+		}
+		return released;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Eagerly read classes are already in memory.</p>
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#warm(java.lang.String)
+	 */
+	@Override
+	boolean warm(final String path) throws IOException {
+		return jarItems.containsKey(path) || super.warm(path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#released(java.lang.String)
+	 */
+	@Override
+	void released(final String path) {
+		super.released(path);
+		jarItems.remove(path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#packages()
+	 */
+	@Override
+	Set<String> packages() {
+		final Set<String> packages = new HashSet<String>();
+		for(String path: jarItems.keySet()) {
+			packages.add(packageOf(path));
+		}
+		return packages;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#findResource(java.lang.String)
+	 */
+	@Override
+	URL findResource(final String name) {
+		return entries.contains(name) ? entryURL(name) : null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Only class content is held in memory, so other resources are read through their jar URL.</p>
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#openResource(java.lang.String)
+	 */
+	@Override
+	InputStream openResource(final String name) throws IOException {
+		final ByteBuffer bb = jarItems.get(name);
+		if(bb!=null) return new ByteBufferInputStream(bb.duplicate());
+		return entries.contains(name) ? entryURL(name).openStream() : null;
+	}
+}
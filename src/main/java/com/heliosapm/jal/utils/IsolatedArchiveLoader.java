@@ -18,19 +18,41 @@ under the License.
  */
 package com.heliosapm.jal.utils;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 
 
 /**
  * <p>Title: IsolatedArchiveLoader</p>
  * <p>Description: Isolating classloader that restricts the classes it loads to those available from the passed URLs and the root system classloader.</p> 
+ * <p>The URLs may be jars or exploded class directories, and {@link #forRoots(String...)} also accepts file name globs
+ * such as <b><code>/opt/agent/lib/*.jar</code></b>. Every root is indexed, in parallel, when the loader is created
+ * and lookups are routed by package to the roots that contain the package, falling back to the root system classloader.</p>
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.utils.classload.IsolatedArchiveLoader</code></p>
@@ -45,12 +67,36 @@ public class IsolatedArchiveLoader extends URLClassLoader {
 	/** The legacy debug agent library */
 	public static final String LEGACY_AGENT_LIB = "-Xrunjdwp:";
 	
+	/** Indicates if this JVM is running with the debug agent enabled. The input arguments cannot change, so they are only scanned once. */
+	private static final boolean DEBUG_AGENT_LOADED = scanInputArguments();
+	/** Serial number factory for indexing thread names */
+	private static final AtomicInteger indexSerial = new AtomicInteger(0);
+	
+	static {
+		if(IsolatedClassLoader.REGISTER_PARALLEL!=null) try { IsolatedClassLoader.REGISTER_PARALLEL.invoke(null); } catch (Throwable t) {/* No Op */}
+	}
+	
+	/** The indexed roots, in classpath order */
+	private final List<ArchiveIndex> archives = new CopyOnWriteArrayList<ArchiveIndex>();
+	/** The roots containing classes of each package, in classpath order, keyed by package name */
+	private final ConcurrentHashMap<String, ArchiveIndex[]> packageIndex = new ConcurrentHashMap<String, ArchiveIndex[]>();
+	/** Per class name locks serializing the definition of each class */
+	private final ConcurrentHashMap<String, Object> classLoadingLocks = new ConcurrentHashMap<String, Object>();
+	
 	
 	/**
 	 * Determines if this JVM is running with the debug agent enabled
 	 * @return true if this JVM is running with the debug agent enabled, false otherwise
 	 */
 	public static boolean isDebugAgentLoaded() {
+		return DEBUG_AGENT_LOADED;
+	}
+	
+	/**
+	 * Scans this JVM's input arguments for the debug agent
+	 * @return true if this JVM is running with the debug agent enabled, false otherwise
+	 */
+	static boolean scanInputArguments() {
 		List<String> inputArguments = ManagementFactory.getRuntimeMXBean().getInputArguments();
 		for(String s: inputArguments) {
 			if(s.trim().startsWith(AGENT_LIB) || s.trim().startsWith(LEGACY_AGENT_LIB)) return true;
@@ -58,20 +104,92 @@ public class IsolatedArchiveLoader extends URLClassLoader {
 		return false;
 	}
 	
+	/**
+	 * Creates a new IsolatedArchiveLoader for the passed roots
+	 * @param roots Jar files, class directories, URLs or globs, where the last path segment of a glob
+	 * may contain <b><code>*</code></b> and <b><code>?</code></b> wildcards. A glob only matches jars, zips and directories.
+	 * @return the IsolatedArchiveLoader
+	 */
+	public static IsolatedArchiveLoader forRoots(final String...roots) {
+		return new IsolatedArchiveLoader(expand(roots));
+	}
+	
+	/**
+	 * Expands the passed roots to URLs
+	 * @param roots Jar files, class directories, URLs or globs
+	 * @return the expanded URLs, with the matches of each glob in name order
+	 */
+	public static URL[] expand(final String...roots) {
+		if(roots==null) return new URL[0];
+		final List<URL> urls = new ArrayList<URL>();
+		try {
+			for(String root: roots) {
+				if(root==null || root.trim().isEmpty()) continue;
+				final String r = root.trim();
+				if(r.startsWith("file:") || r.startsWith("jar:") || r.startsWith("http:") || r.startsWith("https:")) {
+					urls.add(NestedArchiveIndex.toURL(r));
+					continue;
+				}
+				final File f = new File(r);
+				final String name = f.getName();
+				if(name.indexOf('*')==-1 && name.indexOf('?')==-1) {
+					urls.add(f.getAbsoluteFile().toURI().toURL());
+					continue;
+				}
+				final File dir = f.getAbsoluteFile().getParentFile();
+				final Pattern glob = globPattern(name);
+				final File[] matches = dir==null ? null : dir.listFiles();
+				if(matches==null) continue;
+				Arrays.sort(matches);
+				for(File match: matches) {
+					final String matchName = match.getName().toLowerCase();
+					if(!glob.matcher(match.getName()).matches()) continue;
+					if(match.isDirectory() || matchName.endsWith(".jar") || matchName.endsWith(".zip")) {
+						urls.add(match.toURI().toURL());
+					}
+				}
+			}
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Invalid root in " + Arrays.toString(roots), ex);
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+
+	/**
+	 * Converts a file name glob to a regular expression
+	 * @param glob The glob, where <b><code>*</code></b> matches any characters and <b><code>?</code></b> matches one character
+	 * @return the pattern
+	 */
+	private static Pattern globPattern(final String glob) {
+		final StringBuilder b = new StringBuilder();
+		int literal = 0;
+		for(int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt(i);
+			if(c=='*' || c=='?') {
+				if(i > literal) b.append(Pattern.quote(glob.substring(literal, i)));
+				b.append(c=='*' ? ".*" : ".");
+				literal = i + 1;
+			}
+		}
+		if(literal < glob.length()) b.append(Pattern.quote(glob.substring(literal)));
+		return Pattern.compile(b.toString());
+	}
 
 	/**
 	 * Creates a new IsolatedArchiveLoader that restricts its classloading to the passed URLs. 
 	 * @param urls The URLs this classloader will load from
 	 */
 	public IsolatedArchiveLoader(URL...urls)  {
-		super(urls, getNullClassLoader());		
+		super(urls==null ? new URL[0] : urls, getNullClassLoader());		
+		final long start = System.nanoTime();
 		StringBuilder b = new StringBuilder();
 		if(urls!=null) {
 			for(URL url: urls) {
 				b.append("\n\t").append(url);
 			}
+			index(urls);
 		}
-		System.out.println("Isolated Class Loader for URLs: [" + b + "]");
+		System.out.println("Isolated Class Loader for URLs: [" + b + "] indexed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
 	}
 	
 	/**
@@ -83,6 +201,96 @@ public class IsolatedArchiveLoader extends URLClassLoader {
 		return ncl;
 	}
 	
+	/**
+	 * Indexes the passed URLs in parallel and appends them to the indexed roots in order
+	 * @param urls The URLs to index
+	 */
+	private void index(final URL[] urls) {
+		if(urls.length < 2) {
+			for(URL url: urls) add(index(url));
+			return;
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(urls.length, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "IsolatedArchiveLoaderIndexer#" + indexSerial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			final List<Future<ArchiveIndex>> futures = new ArrayList<Future<ArchiveIndex>>(urls.length);
+			for(final URL url: urls) {
+				futures.add(executor.submit(new Callable<ArchiveIndex>() {
+					@Override
+					public ArchiveIndex call() {
+						return index(url);
+					}
+				}));
+			}
+			for(Future<ArchiveIndex> future: futures) {
+				try {
+					add(future.get());
+				} catch (InterruptedException iex) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while indexing", iex);
+				} catch (ExecutionException eex) {
+					throw new RuntimeException("Failed to index", eex.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Indexes the passed URL
+	 * @param url The URL to index
+	 * @return the index or null if the URL could not be indexed
+	 */
+	private ArchiveIndex index(final URL url) {
+		final CodeSource cs = new CodeSource(url, (Certificate[])null);
+		final ProtectionDomain pd = new ProtectionDomain(cs, getPermissions(cs), this, null);
+		try {
+			return ArchiveIndex.index(url, pd, ArchiveMode.getDefault());
+		} catch (Exception ex) {
+			System.err.println("IsolatedArchiveLoader failed to index [" + url + "]: " + ex);
+			return null;
+		}
+	}
+	
+	/**
+	 * Appends the passed index to the indexed roots
+	 * @param archive The index to append, ignored if null
+	 */
+	private void add(final ArchiveIndex archive) {
+		if(archive==null) return;
+		synchronized(packageIndex) {
+			archives.add(archive);
+			for(final String pkg: archive.packages()) {
+				final ArchiveIndex[] sources = packageIndex.get(pkg);
+				if(sources==null) {
+					packageIndex.put(pkg, new ArchiveIndex[]{archive});
+				} else {
+					final ArchiveIndex[] appended = new ArchiveIndex[sources.length + 1];
+					System.arraycopy(sources, 0, appended, 0, sources.length);
+					appended[sources.length] = archive;
+					packageIndex.put(pkg, appended);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.net.URLClassLoader#addURL(java.net.URL)
+	 */
+	@Override
+	protected void addURL(final URL url) {
+		super.addURL(url);
+		add(index(url));
+	}
+	
 	
 	/**
 	 * Attempts to load the named the class from the configured URLs and if not found, delegates to the parent.
@@ -91,24 +299,106 @@ public class IsolatedArchiveLoader extends URLClassLoader {
 	 * @throws ClassNotFoundException
 	 */
 	private Class<?> loadSystemClass(String name) throws ClassNotFoundException {
-		try {
-			Class<?> clazz = super.findClass(name);
-			if(isDebugAgentLoaded()) {
-				System.out.println("IsolatedArchiveLoader [" + name + "]");
-			}			
-			return clazz;
-		} catch (ClassNotFoundException cle) {
-			return ncl.forReal(name);
+		Class<?> clazz = findLoadedClass(name);
+		if(clazz==null) {
+			final int index = name.lastIndexOf('.');
+			final String pkg = index==-1 ? "" : name.substring(0, index);
+			final ArchiveIndex[] sources = packageIndex.get(pkg);
+			if(sources!=null) {
+				synchronized(classLoadingLock(name)) {
+					clazz = findLoadedClass(name);
+					if(clazz==null) {
+						clazz = defineArchived(name, pkg, sources);
+						if(clazz!=null && DEBUG_AGENT_LOADED) {
+							System.out.println("IsolatedArchiveLoader [" + name + "]");
+						}
+					}
+				}
+			}
+		}
+		return clazz!=null ? clazz : ncl.forReal(name);
+	}
+	
+	/**
+	 * Defines the named class from the first of the passed roots that contains it
+	 * @param name The class name
+	 * @param pkg The class package name
+	 * @param sources The roots containing classes of the package
+	 * @return the defined class or null if none of the roots contain it
+	 */
+	private Class<?> defineArchived(final String name, final String pkg, final ArchiveIndex[] sources) {
+		final String path = name.replace('.', '/').concat(".class");
+		for(final ArchiveIndex archive: sources) {
+			final ByteBuffer bb;
+			try {
+				bb = archive.getClassBytes(path);
+			} catch (Exception ex) {
+				System.err.println("IsolatedArchiveLoader failed to read [" + name + "] from [" + archive.getURL() + "]: " + ex);
+				continue;
+			}
+			if(bb==null) continue;
+			if(!pkg.isEmpty() && getPackage(pkg)==null) {
+				try {
+					definePackage(pkg, null, null, null, null, null, null, null);
+				} catch (IllegalArgumentException iae) {
+					/* No Op, defined concurrently */
+				}
+			}
+			try {
+				final Class<?> clazz = defineClass(name, bb, archive.protectionDomain);
+				archive.defined.incrementAndGet();
+				return clazz;
+			} finally {
+				archive.released(path);
+			}
 		}
+		return null;
 	}
 	
+	/**
+	 * Returns the lock object serializing the definition of the named class
+	 * @param name The class name
+	 * @return the lock object
+	 */
+	private Object classLoadingLock(final String name) {
+		final Object lock = new Object();
+		final Object existing = classLoadingLocks.putIfAbsent(name, lock);
+		return existing==null ? lock : existing;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.net.URLClassLoader#findResource(java.lang.String)
+	 */
+	@Override
+	public URL findResource(final String name) {
+		for(final ArchiveIndex archive: archives) {
+			final URL url = archive.findResource(name);
+			if(url!=null) return url;
+		}
+		return null;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.net.URLClassLoader#findResources(java.lang.String)
+	 */
+	@Override
+	public Enumeration<URL> findResources(final String name) {
+		final List<URL> urls = new ArrayList<URL>();
+		for(final ArchiveIndex archive: archives) {
+			final URL url = archive.findResource(name);
+			if(url!=null) urls.add(url);
+		}
+		return Collections.enumeration(urls);
+	}
 
 	public URL getResource(String name) {
-		URL url = super.getResource(name);
+		URL url = findResource(name);
 		if(url==null) {
 			url = ncl.getRealResource(name);
 		} else {
-			if(isDebugAgentLoaded()) {
+			if(DEBUG_AGENT_LOADED) {
 				System.out.println("IsolatedArchiveLoader [" + name + "]");
 			}						
 		}
@@ -116,27 +406,30 @@ public class IsolatedArchiveLoader extends URLClassLoader {
 	}
 	
 	public Enumeration<URL> getResources(String name) throws IOException {
-		Enumeration<URL> en = super.getResources(name);
-		if(en==null) {
-			en = ncl.getRealResources(name);
-		} else {
-			if(isDebugAgentLoaded()) {
-				System.out.println("IsolatedArchiveLoader [" + name + "]");
-			}			
+		final List<URL> urls = Collections.list(findResources(name));
+		if(!urls.isEmpty() && DEBUG_AGENT_LOADED) {
+			System.out.println("IsolatedArchiveLoader [" + name + "]");
 		}
-		return en;
+		final Enumeration<URL> en = ncl.getRealResources(name);
+		if(en!=null) urls.addAll(Collections.list(en));
+		return Collections.enumeration(urls);
 	}
 	
 	public InputStream getResourceAsStream(String name) {
-		InputStream is = super.getResourceAsStream(name);
-		if(is==null) {
-			is = ncl.getRealResourceAsStream(name);
-		} else {
-			if(isDebugAgentLoaded()) {
-				System.out.println("IsolatedArchiveLoader [" + name + "]");
-			}			
+		for(final ArchiveIndex archive: archives) {
+			try {
+				final InputStream is = archive.openResource(name);
+				if(is!=null) {
+					if(DEBUG_AGENT_LOADED) {
+						System.out.println("IsolatedArchiveLoader [" + name + "]");
+					}
+					return is;
+				}
+			} catch (Exception ex) {
+				System.err.println("IsolatedArchiveLoader failed to read [" + name + "] from [" + archive.getURL() + "]: " + ex);
+			}
 		}
-		return is;
+		return ncl.getRealResourceAsStream(name);
 	}
 
 	/**
@@ -147,7 +440,9 @@ public class IsolatedArchiveLoader extends URLClassLoader {
 	 * @throws ClassNotFoundException
 	 */	
 	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-		return loadSystemClass(name);
+		final Class<?> clazz = loadSystemClass(name);
+		if(resolve) resolveClass(clazz);
+		return clazz;
 	}
 	
 	/**
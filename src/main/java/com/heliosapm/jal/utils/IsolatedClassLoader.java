@@ -18,12 +18,11 @@ under the License.
  */
 package com.heliosapm.jal.utils;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.ByteBuffer;
@@ -34,10 +33,22 @@ import java.security.CodeSource;
 import java.security.Permissions;
 import java.security.ProtectionDomain;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 import javax.management.MBeanServer;
@@ -54,6 +65,29 @@ import javax.management.ObjectName;
  */
 
 public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoaderMBean {
+	/** The system property defining a comma separated list of class names to read ahead of demand when a loader is created */
+	public static final String HOT_LIST_PROP = "com.heliosapm.jal.classloader.hotlist";
+	/** The system property defining the maximum number of class names known to be absent that each loader remembers */
+	public static final String NEGATIVE_CACHE_SIZE_PROP = "com.heliosapm.jal.classloader.negativecache";
+	/** The default maximum number of class names known to be absent that each loader remembers */
+	public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 4096;
+	/** The system property defining the archive cache directory used by {@link ArchiveMode#CACHED} */
+	public static final String CACHE_DIR_PROP = ArchiveCache.CACHE_DIR_PROP;
+	/** The upper bounds, in nanos, of the define time histogram buckets, the last bucket being unbounded */
+	static final long[] DEFINE_TIME_BOUNDS = {10000L, 100000L, 1000000L, 10000000L, 100000000L};
+	/** The labels of the define time histogram buckets */
+	static final String[] DEFINE_TIME_BUCKETS = {"<10us", "<100us", "<1ms", "<10ms", "<100ms", ">=100ms"};
+	/** Serial number factory for warm-up thread names */
+	private static final AtomicInteger warmUpSerial = new AtomicInteger(0);
+	/** Incremented whenever the system or bootstrap class loader search is appended to, invalidating every loader's absent class names */
+	static final AtomicInteger parentSearchGeneration = new AtomicInteger(0);
+	/** The Java 7+ <b><code>ClassLoader.registerAsParallelCapable</code></b> method, or null on Java 6 */
+	static final Method REGISTER_PARALLEL = getRegisterAsParallelCapable();
+	
+	static {
+		// caller sensitive, so each loader class must invoke it from its own static initializer
+		if(REGISTER_PARALLEL!=null) try { REGISTER_PARALLEL.invoke(null); } catch (Throwable t) {/* No Op */}
+	}
 	/** The child class loader */
 	protected final ChildURLClassLoader childClassLoader;
 	/** The JMX ObjectName to register the class loader under */
@@ -61,64 +95,49 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
 	
 	
 	/**
-	 * Returns an IsolatedClassLoader scoped to one jar embedded inside another jar
+	 * Returns an IsolatedClassLoader scoped to one jar embedded inside another jar.
+	 * The embedded jar is indexed straight from the outer jar's content, without extracting it.
 	 * @param url The URL of the outer jar
-	 * @param manifestKey The key in the outer JAR's manifest that identifies the embedded jar's full path
+	 * @param manifestKey The key in the outer JAR's manifest that identifies the embedded jar's full path.
+	 * Jars embedded at deeper levels are identified by a <b><code>!/</code></b> separated path, e.g. <b><code>lib/a.jar!/lib/b.jar</code></b>.
 	 * @param objectName An optional object name if the classloader's MBean should be published
 	 * @return the IsolatedClassLoader
 	 */
 	public static IsolatedClassLoader embeddedJarClassLoader(final URL url, final String manifestKey, final ObjectName objectName) {
 		InputStream is = null;
-		JarInputStream jis = null;  
-		FileOutputStream fos = null;
-		BufferedOutputStream bos = null;
 		try {
-			is = url.openStream();
-			jis = new JarInputStream(is, true);
-			final Manifest manifest = jis.getManifest();
-			final String resourceName = manifest.getMainAttributes().getValue(manifestKey);
+			final MappedArchiveIndex outer = new MappedArchiveIndex(url, null, NestedArchiveIndex.content(url));
+			is = outer.openResource(JarFile.MANIFEST_NAME);
+			final Manifest manifest = is==null ? null : new Manifest(is);
+			final String resourceName = manifest==null ? null : manifest.getMainAttributes().getValue(manifestKey);
 			if(resourceName==null || resourceName.trim().isEmpty()) {
 				throw new Exception("Embedded JAR path [" + manifestKey + "] not found in class path [" + url + "]");
 			}
-			JarEntry je = null;
-			while((je = jis.getNextJarEntry())!=null) {
-				if(resourceName.equals(je.getName())) {
-					break;
-				}
-			}
-			if(je==null) {
+			final String entry = resourceName.trim();
+			final int bang = entry.indexOf(NestedArchiveIndex.SEPARATOR);
+			if(!outer.contains(bang==-1 ? entry : entry.substring(0, bang))) {
 				throw new Exception("Resource [" + resourceName + "] was not found in class path [" + url + "]");
 			}
-			final File jarFile = File.createTempFile(manifestKey + "-stub", ".jar");
-			jarFile.deleteOnExit();
-			final URL jarFileURL = jarFile.toURI().toURL();
-			fos = new FileOutputStream(jarFile);
-			bos = new BufferedOutputStream(fos, 8192 * 4);
-			int bytesRead = 0;
-			byte[] buff = new byte[8192 * 4];
-			while((bytesRead = jis.read(buff))!=-1) {
-				bos.write(buff, 0, bytesRead);
+			URL jarURL = url;
+			for(String level: entry.split(NestedArchiveIndex.SEPARATOR)) {
+				jarURL = NestedArchiveIndex.nestedURL(jarURL, level);
 			}
-			bos.flush();
-			fos.flush();
-			fos.close();
-			if(objectName!=null) {
-				return new IsolatedClassLoader(objectName, new URL[]{jarFileURL});
-			}
-			return new IsolatedClassLoader(new URL[]{jarFileURL});
+			return new IsolatedClassLoader(objectName, new URL[]{jarURL});
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
 		} finally {
-			if(jis != null) try { jis.close(); } catch (Exception x) {/* No Op */}
-			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}			
-			if(bos != null) try { bos.flush(); } catch (Exception x) {/* No Op */}
-			if(bos != null) try { bos.close(); } catch (Exception x) {/* No Op */}
-			if(fos != null) try { fos.flush(); } catch (Exception x) {/* No Op */}
-			if(fos != null) try { fos.close(); } catch (Exception x) {/* No Op */}
-			
+			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}
 		}
 	}
 	
+	/**
+	 * Invalidates the class names every loader remembers as absent from its real parent.
+	 * To be called when the system or bootstrap class loader search is appended to, since the parent may then find them.
+	 */
+	public static void parentSearchAppended() {
+		parentSearchGeneration.incrementAndGet();
+	}
+	
 	/**
 	 * Creates a new IsolatedClassLoader
 	 * @param clazz The class to derive the source classloader URL from
@@ -132,7 +151,7 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
 		if(cs==null) throw new IllegalArgumentException("The passed class [" + clazz.getName() + "] had a null CodeSource");
 		final URL url = cs.getLocation();
 		if(url==null) throw new IllegalArgumentException("The passed class [" + clazz.getName() + "] had a null code source location");
-		childClassLoader = new ChildURLClassLoader(new URL[]{url}, new FindClassClassLoader(this.getParent()) );
+		childClassLoader = new ChildURLClassLoader(new URL[]{url}, new FindClassClassLoader(this.getParent()), ArchiveMode.getDefault());
 		ObjectName tmp = null;
 		try {
 			if(objectName!=null && !objectName.trim().isEmpty()) {
@@ -142,17 +161,28 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
 			tmp = null;
 		}
 		this.objectName = tmp;
+		warmUp(hotList());
 	}
 	
 	/**
-	 * Creates a new IsolatedClassLoader
+	 * Creates a new IsolatedClassLoader using the default {@link ArchiveMode}
 	 * @param objectName The JMX ObjectName to register the management interface with. Ignored if null.
 	 * @param urls The classpath the loader will load from
 	 */
 	public IsolatedClassLoader(final ObjectName objectName, final URL... urls) {
+		this(objectName, ArchiveMode.getDefault(), urls);
+	}
+	
+	/**
+	 * Creates a new IsolatedClassLoader
+	 * @param objectName The JMX ObjectName to register the management interface with. Ignored if null.
+	 * @param mode The archive mode used to index and read the classpath archives
+	 * @param urls The classpath the loader will load from
+	 */
+	public IsolatedClassLoader(final ObjectName objectName, final ArchiveMode mode, final URL... urls) {
 		super(Thread.currentThread().getContextClassLoader());
 		this.objectName = objectName;
-		childClassLoader = new ChildURLClassLoader( urls, new FindClassClassLoader(this.getParent()) );
+		childClassLoader = new ChildURLClassLoader( urls, new FindClassClassLoader(this.getParent()), mode==null ? ArchiveMode.getDefault() : mode );
 		try {
 			if(this.objectName!=null) {
 				final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
@@ -165,6 +195,7 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
 			System.err.println("Failed to register IsolatedClassLoader MBean [" + this.objectName + "]. Stack trace follows...");
 			ex.printStackTrace(System.err);
 		}
+		warmUp(hotList());
 	}
 	
 	/**
@@ -183,6 +214,194 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
 	public URL[] getURLs() {
 		return childClassLoader.getURLs();
 	}
+
+	/**
+	 * Returns the class loader that defines the isolated classes. It does not reference this loader,
+	 * so it is the loader to track to determine if the isolated classes can be collected.
+	 * @return the defining class loader
+	 */
+	public ClassLoader getDefiningClassLoader() {
+		return childClassLoader;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getChildHits()
+	 */
+	@Override
+	public long getChildHits() {
+		return childClassLoader.childHits.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getChildMisses()
+	 */
+	@Override
+	public long getChildMisses() {
+		return childClassLoader.childMisses.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getNegativeCacheHits()
+	 */
+	@Override
+	public long getNegativeCacheHits() {
+		return childClassLoader.negativeHits.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getNegativeCacheSize()
+	 */
+	@Override
+	public int getNegativeCacheSize() {
+		return childClassLoader.absentClasses.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getIndexedPackageCount()
+	 */
+	@Override
+	public int getIndexedPackageCount() {
+		return childClassLoader.packageIndex.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#clearNegativeCache()
+	 */
+	@Override
+	public void clearNegativeCache() {
+		childClassLoader.absentClasses.clear();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getHeldBytes()
+	 */
+	@Override
+	public long getHeldBytes() {
+		long total = 0;
+		for(ArchiveIndex archive: childClassLoader.archives) total += archive.heldBytes();
+		return total;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getArchiveHeldBytes()
+	 */
+	@Override
+	public Map<String, Long> getArchiveHeldBytes() {
+		final Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for(ArchiveIndex archive: childClassLoader.archives) map.put(archive.getURL().toString(), archive.heldBytes());
+		return map;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getMappedBytes()
+	 */
+	@Override
+	public long getMappedBytes() {
+		long total = 0;
+		for(ArchiveIndex archive: childClassLoader.archives) total += archive.mappedBytes();
+		return total;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getDefinedClassCount()
+	 */
+	@Override
+	public int getDefinedClassCount() {
+		int total = 0;
+		for(ArchiveIndex archive: childClassLoader.archives) total += archive.definedCount();
+		return total;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getPendingClassCount()
+	 */
+	@Override
+	public int getPendingClassCount() {
+		int total = 0;
+		for(ArchiveIndex archive: childClassLoader.archives) total += archive.classCount() - archive.definedCount();
+		return total;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getArchivePendingClasses()
+	 */
+	@Override
+	public Map<String, Integer> getArchivePendingClasses() {
+		final Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+		for(ArchiveIndex archive: childClassLoader.archives) map.put(archive.getURL().toString(), archive.classCount() - archive.definedCount());
+		return map;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getDefineTimeHistogram()
+	 */
+	@Override
+	public long[] getDefineTimeHistogram() {
+		final long[] counts = new long[DEFINE_TIME_BUCKETS.length];
+		for(int i = 0; i < counts.length; i++) counts[i] = childClassLoader.defineTimes.get(i);
+		return counts;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getDefineTimeBuckets()
+	 */
+	@Override
+	public String[] getDefineTimeBuckets() {
+		return DEFINE_TIME_BUCKETS.clone();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getDefineTimeNanos()
+	 */
+	@Override
+	public long getDefineTimeNanos() {
+		return childClassLoader.defineNanos.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getResourceHits()
+	 */
+	@Override
+	public long getResourceHits() {
+		return childClassLoader.resourceHits.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#getResourceMisses()
+	 */
+	@Override
+	public long getResourceMisses() {
+		return childClassLoader.resourceMisses.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.IsolatedClassLoaderMBean#evictClassBytes()
+	 */
+	@Override
+	public long evictClassBytes() {
+		long released = 0;
+		for(ArchiveIndex archive: childClassLoader.archives) released += archive.evict();
+		log("Evicted %s bytes of undefined classes", released);
+		return released;
+	}
 	
     /**
      * Appends the specified URL to the list of URLs to search for
@@ -198,6 +417,93 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
 		childClassLoader.addURL(url);
 	}
 	
+	/**
+	 * Starts a background thread that reads the bytecode of the passed classes ahead of demand,
+	 * so that their first load does not have to read or inflate them
+	 * @param classNames The names of the classes to warm up
+	 */
+	public void warmUp(final String... classNames) {
+		if(classNames==null || classNames.length==0) return;
+		final String[] names = classNames.clone();
+		final Thread t = new Thread("IsolatedClassLoaderWarmUp#" + warmUpSerial.incrementAndGet()) {
+			@Override
+			public void run() {
+				final long start = System.nanoTime();
+				final int warmed = childClassLoader.warmUp(names);
+				log("Warmed up %s of %s classes in %s ms", warmed, names.length, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	/**
+	 * Returns the Java 7+ <b><code>ClassLoader.registerAsParallelCapable</code></b> method
+	 * @return the method or null if running on Java 6
+	 */
+	private static Method getRegisterAsParallelCapable() {
+		try {
+			final Method m = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+			m.setAccessible(true);
+			return m;
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the configured hot list of class names to warm up
+	 * @return the hot list, which may be empty
+	 */
+	private static String[] hotList() {
+		final String prop = System.getProperty(HOT_LIST_PROP);
+		if(prop==null || prop.trim().isEmpty()) return new String[0];
+		final List<String> names = new ArrayList<String>();
+		for(String name: prop.split(",")) {
+			if(!name.trim().isEmpty()) names.add(name.trim());
+		}
+		return names.toArray(new String[names.size()]);
+	}
+	
+	/**
+	 * Builds the persistent pre-inflated cache of the passed archive used by {@link ArchiveMode#CACHED}
+	 * (see {@link ArchiveCache}) ahead of the first class loader indexing it
+	 * @param url The archive URL
+	 * @return true if the archive is cached, false if it is not a local archive file
+	 * @throws IOException thrown on any error reading the archive or writing the cache
+	 */
+	public static boolean precache(final URL url) throws IOException {
+		final File file = ArchiveIndex.toFile(url);
+		if(file==null || !file.isFile()) return false;
+		ArchiveCache.map(file, MappedArchiveIndex.map(file));
+		return true;
+	}
+	
+	/**
+	 * Returns the directory of the persistent archive cache used by {@link ArchiveMode#CACHED}
+	 * @return the archive cache directory
+	 */
+	public static File getCacheDir() {
+		return ArchiveCache.getCacheDir();
+	}
+	
+	/**
+	 * Unregisters this loader's management interface, releases the held content of classes that have not been defined yet
+	 * and closes the archives opened in {@link ArchiveMode#LAZY} mode.
+	 * Call when the loader is being discarded so the MBean server does not keep it reachable.
+	 */
+	public void close() {
+		if(objectName!=null) {
+			try {
+				final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				if(server.isRegistered(objectName)) server.unregisterMBean(objectName);
+			} catch (Exception ex) {
+				loge("Failed to unregister IsolatedClassLoader MBean [%s]: %s", objectName, ex);
+			}
+		}
+		for(ArchiveIndex archive: childClassLoader.archives) archive.close();
+	}
+	
 	/**
 	 * Returns the designated JMX ObjectName
 	 * @return the designated JMX ObjectName or null if one was not assigned
@@ -229,15 +535,11 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
    * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
    */
   @Override
-  protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
-      try {
-//    	  log("Loading [%s], resolve [%s]", name, resolve);
-          // first we try to find a class inside the child classloader
-          return childClassLoader.findClass(name);
-      } catch( ClassNotFoundException e ) {
-          // didn't find it, try the parent
-          return super.loadClass(name, resolve);
-      }
+  protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+      // the child classloader routes to the isolated classpath or the parent using its package index
+      final Class<?> clazz = childClassLoader.findClass(name);
+      if(resolve) resolveClass(clazz);
+      return clazz;
   }
   
   public String toString() {
@@ -277,23 +579,71 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
   public InputStream getResourceAsStream(final String name) {
   	return childClassLoader.getResourceAsStream(name);
   }
+  
+  /**
+ * {@inheritDoc}
+ * @see java.lang.ClassLoader#findResources(java.lang.String)
+ */
+@Override
+  public Enumeration<URL> findResources(final String name) throws IOException {
+  	return childClassLoader.findResources(name);
+  }
+  
+  /**
+ * {@inheritDoc}
+ * <p>Resources of the isolated classpath are enumerated first, then the parent's.</p>
+ * @see java.lang.ClassLoader#getResources(java.lang.String)
+ */
+@Override
+  public Enumeration<URL> getResources(final String name) throws IOException {
+  	final List<URL> urls = Collections.list(childClassLoader.findResources(name));
+  	final ClassLoader parent = getParent();
+  	urls.addAll(Collections.list(parent==null ? ClassLoader.getSystemResources(name) : parent.getResources(name)));
+  	return Collections.enumeration(urls);
+  }
 
   /**
    * This class delegates (child then parent) for the findClass method for a URLClassLoader.
    * We need this because findClass is protected in URLClassLoader
    */
   private static class ChildURLClassLoader extends URLClassLoader {
+	static {
+		if(REGISTER_PARALLEL!=null) try { REGISTER_PARALLEL.invoke(null); } catch (Throwable t) {/* No Op */}
+	}
       /** The real parent class loader */
     private FindClassClassLoader realParent;
     /** The context to be used when loading classes and resources */
     private final AccessControlContext acc;
-    /** A map of the class contents of the URLs */
-    private final ConcurrentHashMap<String, ByteBuffer> jarItems = new ConcurrentHashMap<String, ByteBuffer>();
-    /** A map of the resource contents of the URLs */
-    private final ConcurrentHashMap<String, URL> resourceItems = new ConcurrentHashMap<String, URL>();
-    
-    
-    private final Map<String, ProtectionDomain> protectionDomains = new ConcurrentHashMap<String, ProtectionDomain>();
+    /** The archive mode the URLs are indexed with */
+    private final ArchiveMode mode;
+    /** The indexed archives of the URLs, in classpath order */
+    final List<ArchiveIndex> archives = new CopyOnWriteArrayList<ArchiveIndex>();
+    /** Per class name locks serializing the definition of each class */
+    private final ConcurrentHashMap<String, Object> classLoadingLocks = new ConcurrentHashMap<String, Object>();
+    /** The archives containing classes of each package, in classpath order, keyed by package name */
+    final ConcurrentHashMap<String, ArchiveIndex[]> packageIndex = new ConcurrentHashMap<String, ArchiveIndex[]>();
+    /** The names of classes known to be absent from both the isolated classpath and the real parent */
+    final ConcurrentHashMap<String, Boolean> absentClasses = new ConcurrentHashMap<String, Boolean>();
+    /** The maximum number of absent class names to remember */
+    private final int negativeCacheSize = negativeCacheSize();
+    /** The parent search generation the absent class names were recorded in */
+    private volatile int absentGeneration = parentSearchGeneration.get();
+    /** The number of class loads satisfied by the isolated classpath */
+    final AtomicLong childHits = new AtomicLong(0);
+    /** The number of class loads delegated to the real parent */
+    final AtomicLong childMisses = new AtomicLong(0);
+    /** The number of class loads failed from the absent class names */
+    final AtomicLong negativeHits = new AtomicLong(0);
+    /** The define time histogram, bucketed by {@link IsolatedClassLoader#DEFINE_TIME_BOUNDS} */
+    final AtomicLongArray defineTimes = new AtomicLongArray(DEFINE_TIME_BUCKETS.length);
+    /** The total time spent defining classes in nanos */
+    final AtomicLong defineNanos = new AtomicLong(0);
+    /** The number of resource lookups satisfied by the isolated classpath */
+    final AtomicLong resourceHits = new AtomicLong(0);
+    /** The number of resource lookups not satisfied by the isolated classpath */
+    final AtomicLong resourceMisses = new AtomicLong(0);
+    /** Indicates if any URL could not be indexed as an archive, so resources must also be searched by the URLClassLoader */
+    private volatile boolean unindexed = false;
     
     private Permissions permissions = new Permissions();
 
@@ -301,130 +651,220 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
      * Creates a new ChildURLClassLoader
      * @param urls The URLs comprising the isolated classpath
      * @param realParent The real parent classloader
+     * @param mode The archive mode to index the URLs with
      */
-    public ChildURLClassLoader( URL[] urls, FindClassClassLoader realParent ) {    		
+    public ChildURLClassLoader( URL[] urls, FindClassClassLoader realParent, ArchiveMode mode ) {    		
     	super(urls, null);
     	permissions.add(new AllPermission());
-//    	log("ChildURLClassLoader Inited with [%s]", Arrays.toString(urls));
         this.realParent = realParent;
+        this.mode = mode;
         acc = AccessController.getContext();
         for(final URL url: urls) {
-        	final CodeSource cs = new CodeSource(url, (Certificate[])null);
-        	final ProtectionDomain pd = new ProtectionDomain(cs, permissions);
-    		InputStream is = null;
-    		JarInputStream jis = null;        	
-        	try {
-        		is = url.openStream();
-        		jis = new JarInputStream(is);
-        		JarEntry je = null;
-    			while((je = jis.getNextJarEntry())!=null) {
-    				try {    					
-	    				if(je.isDirectory()) continue;
-	    				final String rezName = je.getName();
-	    				if(jarItems.containsKey(rezName)) continue;
-	    				if(!rezName.endsWith(".class")) {
-	    					resourceItems.put(rezName, new URL("jar:" + url + "!/" + rezName));
-	    					continue;
-	    				}
-	    				byte[] byteCode = load(jis);
-//	    				log("Entry [%s], size: %s", rezName, byteCode.length);
-	    				final ByteBuffer bb = ByteBuffer.allocateDirect(byteCode.length);
-	    				bb.put(byteCode);
-	    				bb.flip();
-	    				byteCode = null;
-	    				jarItems.put(rezName, bb);
-	    				protectionDomains.put(rezName, pd);
-    				} finally {
-    					try { jis.closeEntry(); } catch (Exception x) {/* No Op */}
+        	index(url);
+        }
+    }
+    
+    /**
+     * Indexes the passed URL and appends it to the indexed archives
+     * @param url The URL to index
+     */
+    private void index(final URL url) {
+    	final CodeSource cs = new CodeSource(url, (Certificate[])null);
+    	final ProtectionDomain pd = new ProtectionDomain(cs, permissions);
+    	try {
+    		final ArchiveIndex archive = ArchiveIndex.index(url, pd, mode);
+    		synchronized(packageIndex) {
+    			archives.add(archive);
+    			for(final String pkg: archive.packages()) {
+    				final ArchiveIndex[] sources = packageIndex.get(pkg);
+    				if(sources==null) {
+    					packageIndex.put(pkg, new ArchiveIndex[]{archive});
+    				} else {
+    					final ArchiveIndex[] appended = new ArchiveIndex[sources.length + 1];
+    					System.arraycopy(sources, 0, appended, 0, sources.length);
+    					appended[sources.length] = archive;
+    					packageIndex.put(pkg, appended);
     				}
-    			}        		
-        	} catch (Exception ex) {
-        		loge("Failed in load of [%s]: %s", url, ex.toString());
-        	} finally {
-    			if(jis != null) try { jis.close(); } catch (Exception x) {/* No Op */}
-    			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}
+    			}
+    			absentClasses.clear();
     		}
-        }
+    	} catch (Exception ex) {
+    		unindexed = true;
+    		loge("Failed in load of [%s]: %s", url, ex.toString());
+    	}
     }
     
-    private static byte[] load(final JarInputStream jis) throws Exception {
-    	ByteArrayOutputStream baos = null;
+    /**
+     * Reads the configured negative cache size
+     * @return the maximum number of absent class names to remember
+     */
+    private static int negativeCacheSize() {
+    	final String prop = System.getProperty(NEGATIVE_CACHE_SIZE_PROP);
+    	if(prop==null || prop.trim().isEmpty()) return DEFAULT_NEGATIVE_CACHE_SIZE;
     	try {
-    		baos = new ByteArrayOutputStream(1024);
-    		byte[] buff = new byte[1024];
-    		int bytesRead = 0;
-    		while((bytesRead = jis.read(buff))!=-1) {
-    			baos.write(buff, 0, bytesRead);
+    		return Math.max(0, Integer.parseInt(prop.trim()));
+    	} catch (Exception ex) {
+    		loge("Invalid negative cache size [%s], using [%s]", prop, DEFAULT_NEGATIVE_CACHE_SIZE);
+    		return DEFAULT_NEGATIVE_CACHE_SIZE;
+    	}
+    }
+    
+    /**
+     * Reads the bytecode of the passed classes ahead of demand.
+     * Each class is warmed holding its class loading lock, so bytecode is never left behind for a class defined concurrently.
+     * @param classNames The names of the classes to warm up
+     * @return the number of classes warmed up
+     */
+    int warmUp(final String[] classNames) {
+    	int warmed = 0;
+    	for(final String name: classNames) {
+    		if(findLoadedClass(name)!=null) continue;
+    		final String path = name.replace('.', '/').concat(".class");
+    		synchronized(classLoadingLock(name)) {
+    			if(findLoadedClass(name)!=null) continue;
+    			for(final ArchiveIndex archive: archives) {
+    				try {
+    					if(archive.warm(path)) {
+    						warmed++;
+    						break;
+    					}
+    				} catch (Exception ex) {
+    					loge("Failed to warm up [%s] from [%s]: %s", name, archive.getURL(), ex.toString());
+    				}
+    			}
     		}
-    		return baos.toByteArray();
-    	} finally {
-    		if(baos != null) try { baos.close(); } catch (Exception x) {/* No Op */}
     	}
+    	return warmed;
     }
     
     /**
-     * Finds and loads the class with the specified name from the URL search
-     * path. Any URLs referring to JAR files are loaded and opened as needed
-     * until the class is found.
-     *
+     * Defines the named class from the first of the passed archives that contains it
      * @param name the name of the class
-     * @return the resulting class
-     * @exception ClassNotFoundException if the class could not be found,
-     *            or if the loader is closed.
+     * @param sources the archives containing classes of the class's package
+     * @return the defined class or null if none of the archives contain it
      */
-    protected Class<?> _findClass(final String name) throws ClassNotFoundException {
-        try {
-                        final String path = name.replace('.', '/').concat(".class");
-                        ByteBuffer bb = jarItems.get(path);
-                        ProtectionDomain pd = protectionDomains.get(path);
-                        if(bb!=null && pd!=null) {
-//                        	log("Found cached bb for [%s]", path);
-                        	jarItems.remove(path);
-                        	protectionDomains.remove(path);
-                        	return defineClass(name, bb, pd);
-                        }
-//						log("[%s] not found in cache", path);
-						throw new ClassNotFoundException(path);
-        } catch (Exception pae) {
-            throw new ClassNotFoundException(name);
-        }
-    	
-//        try {
-//            return AccessController.doPrivileged(
-//                new PrivilegedExceptionAction<Class<?>>() {
-//                    public Class<?> run() throws ClassNotFoundException {
-//                        final String path = name.replace('.', '/').concat(".class");
-//                        ByteBuffer bb = jarItems.get(path);
-//                        ProtectionDomain pd = protectionDomains.get(path);
-//                        if(bb!=null && pd!=null) {
-////                        	log("Found cached bb for [%s]", path);
-//                        	jarItems.remove(path);
-//                        	protectionDomains.remove(path);
-//                        	return defineClass(name, bb, pd);
-//                        }
-////						log("[%s] not found in cache", path);
-//						throw new ClassNotFoundException(path);
-//                    }
-//                }, acc);
-//        } catch (java.security.PrivilegedActionException pae) {
-//            throw (ClassNotFoundException) pae.getException();
-//        }
-    }    
+    protected Class<?> defineIsolated(final String name, final ArchiveIndex[] sources) {
+    	final String path = name.replace('.', '/').concat(".class");
+    	for(final ArchiveIndex archive: sources) {
+    		final ByteBuffer bb;
+    		try {
+    			bb = archive.getClassBytes(path);
+    		} catch (Exception ex) {
+    			loge("Failed to read [%s] from [%s]: %s", name, archive.getURL(), ex.toString());
+    			continue;
+    		}
+    		if(bb!=null) {
+    			final long start = System.nanoTime();
+    			try {
+    				final Class<?> clazz = defineClass(name, bb, archive.protectionDomain);
+    				archive.defined.incrementAndGet();
+    				return clazz;
+    			} finally {
+    				recordDefineTime(System.nanoTime() - start);
+    				archive.released(path);
+    			}
+    		}
+    	}
+    	return null;
+    }
+    
+    /**
+     * Records a class define time in the histogram
+     * @param elapsed The elapsed define time in nanos
+     */
+    private void recordDefineTime(final long elapsed) {
+    	defineNanos.addAndGet(elapsed);
+    	int bucket = 0;
+    	while(bucket < DEFINE_TIME_BOUNDS.length && elapsed >= DEFINE_TIME_BOUNDS[bucket]) bucket++;
+    	defineTimes.incrementAndGet(bucket);
+    }
+    
+    /**
+     * Loads the named class from the real parent, failing fast for names known to be absent
+     * @param name the name of the class
+     * @return the loaded class
+     * @throws ClassNotFoundException if the class could not be found
+     */
+    private Class<?> loadFromParent(final String name) throws ClassNotFoundException {
+    	final int generation = parentSearchGeneration.get();
+    	if(generation!=absentGeneration) {
+    		absentClasses.clear();
+    		absentGeneration = generation;
+    	}
+    	if(absentClasses.containsKey(name)) {
+    		negativeHits.incrementAndGet();
+    		throw new AbsentClassException(name);
+    	}
+    	try {
+    		return realParent.loadClass(name);
+    	} catch (ClassNotFoundException cnfe) {
+    		// not remembered if the parent search was appended to while it was being searched
+    		if(negativeCacheSize > 0 && generation==parentSearchGeneration.get()) {
+    			if(absentClasses.size() >= negativeCacheSize) {
+    				final Iterator<String> iter = absentClasses.keySet().iterator();
+    				if(iter.hasNext()) {
+    					iter.next();
+    					iter.remove();
+    				}
+    			}
+    			absentClasses.put(name, Boolean.TRUE);
+    		}
+    		throw cnfe;
+    	}
+    }
     
     @Override
     public URL findResource(final String name) {
-    	URL url = null;
-    	if(resourceItems.containsKey(name)) {
-    		url = resourceItems.get(name);
-    	} else {
-    		url = super.findResource(name);
+    	for(final ArchiveIndex archive: archives) {
+    		final URL url = archive.findResource(name);
+    		if(url!=null) {
+    			resourceHits.incrementAndGet();
+    			return url;
+    		}
     	}
+    	final URL url = unindexed ? super.findResource(name) : null;
+    	(url==null ? resourceMisses : resourceHits).incrementAndGet();
     	return url;
     }
     
+    @Override
+    public Enumeration<URL> findResources(final String name) throws IOException {
+    	final List<URL> urls = new ArrayList<URL>();
+    	for(final ArchiveIndex archive: archives) {
+    		final URL url = archive.findResource(name);
+    		if(url!=null) urls.add(url);
+    	}
+    	if(unindexed) {
+    		final Set<String> found = new HashSet<String>();
+    		for(URL url: urls) found.add(url.toString());
+    		for(Enumeration<URL> en = super.findResources(name); en.hasMoreElements();) {
+    			final URL url = en.nextElement();
+    			if(found.add(url.toString())) urls.add(url);
+    		}
+    	}
+    	return Collections.enumeration(urls);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>Indexed archives serve the resource from their own content without reopening the jar.</p>
+     * @see java.lang.ClassLoader#getResourceAsStream(java.lang.String)
+     */
     @Override
     public InputStream getResourceAsStream(final String name) {
-    	final URL url = findResource(name);    	
+    	for(final ArchiveIndex archive: archives) {
+    		try {
+    			final InputStream is = archive.openResource(name);
+    			if(is!=null) {
+    				resourceHits.incrementAndGet();
+    				return is;
+    			}
+    		} catch (Exception ex) {
+    			loge("Failed to read resource [%s] from [%s]: %s", name, archive.getURL(), ex.toString());
+    		}
+    	}
+    	final URL url = unindexed ? super.findResource(name) : null;
+    	(url==null ? resourceMisses : resourceHits).incrementAndGet();
     	try {
     		return url==null ? null : url.openStream();
     	} catch (Exception x) {
@@ -439,18 +879,38 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
      */
     @Override
       public Class<?> findClass(String name) throws ClassNotFoundException {
-//    	log("ChildURLClassLoader.findClass(%s)", name);
       	Class<?> loaded = super.findLoadedClass(name);
-        if( loaded != null ) return loaded;	        	
-          try {
-              // first try to use the URLClassLoader findClass
-              return _findClass(name);
-          }  catch( ClassNotFoundException e ) {
-              // if that fails, we ask our real parent classloader to load the class (we give up)
-              return realParent.loadClass(name);
-          }
+        if( loaded == null ) {
+        	// only packages of the isolated classpath are looked up in the archives
+        	final int index = name.lastIndexOf('.');
+        	final ArchiveIndex[] sources = packageIndex.get(index==-1 ? "" : name.substring(0, index));
+        	if( sources != null ) {
+        		synchronized(classLoadingLock(name)) {
+        			loaded = super.findLoadedClass(name);
+        			if( loaded == null ) loaded = defineIsolated(name, sources);
+        		}
+        	}
+        }
+        if( loaded != null ) {
+        	childHits.incrementAndGet();
+        	return loaded;
+        }
+        // not in the isolated classpath, so we ask our real parent classloader to load the class (outside the lock)
+        childMisses.incrementAndGet();
+        return loadFromParent(name);
       }
       
+    /**
+     * Returns the lock object serializing the definition of the named class
+     * @param name The class name
+     * @return the lock object
+     */
+    private Object classLoadingLock(final String name) {
+    	final Object lock = new Object();
+    	final Object existing = classLoadingLocks.putIfAbsent(name, lock);
+    	return existing==null ? lock : existing;
+    }
+      
     /**
      * {@inheritDoc}
      * @see java.net.URLClassLoader#addURL(java.net.URL)
@@ -458,13 +918,33 @@ public class IsolatedClassLoader extends ClassLoader implements IsolatedClassLoa
     @Override
 	public void addURL(final URL url) {
     	  super.addURL(url);
+    	  index(url);
       }
   }
   
+  /**
+   * The exception thrown for class names known to be absent. No stack trace is captured, since these are expected to be frequent.
+   */
+  private static class AbsentClassException extends ClassNotFoundException {
+	  private static final long serialVersionUID = -4553618305146298637L;
+
+	  AbsentClassException(final String name) {
+		  super(name);
+	  }
+
+	  @Override
+	  public synchronized Throwable fillInStackTrace() {
+		  return this;
+	  }
+  }
+  
   /**
    * This class allows me to call findClass on a classloader
    */
   private static class FindClassClassLoader extends ClassLoader {
+	static {
+		if(REGISTER_PARALLEL!=null) try { REGISTER_PARALLEL.invoke(null); } catch (Throwable t) {/* No Op */}
+	}
       public FindClassClassLoader(ClassLoader parent) {
           super(parent);
       }
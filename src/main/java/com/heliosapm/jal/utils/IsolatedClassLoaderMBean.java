@@ -19,6 +19,7 @@ under the License.
 package com.heliosapm.jal.utils;
 
 import java.net.URL;
+import java.util.Map;
 
 /**
  * <p>Title: IsolatedClassLoaderMBean</p>
@@ -34,4 +35,111 @@ public interface IsolatedClassLoaderMBean {
 	 * @return the URLs that comprise the classloaders isolated classpath
 	 */
 	public URL[] getURLs();
+	
+	/**
+	 * Returns the number of class loads satisfied by the isolated classpath
+	 * @return the number of class loads satisfied by the isolated classpath
+	 */
+	public long getChildHits();
+	
+	/**
+	 * Returns the number of class loads delegated to the parent classloader
+	 * @return the number of class loads delegated to the parent classloader
+	 */
+	public long getChildMisses();
+	
+	/**
+	 * Returns the number of class loads failed fast because the class is known to be absent
+	 * @return the number of negative cache hits
+	 */
+	public long getNegativeCacheHits();
+	
+	/**
+	 * Returns the number of class names currently known to be absent
+	 * @return the negative cache size
+	 */
+	public int getNegativeCacheSize();
+	
+	/**
+	 * Returns the number of packages in the isolated classpath's package index
+	 * @return the number of indexed packages
+	 */
+	public int getIndexedPackageCount();
+	
+	/**
+	 * Forgets the class names known to be absent, e.g. after classes were added to the parent classloader
+	 */
+	public void clearNegativeCache();
+	
+	/**
+	 * Returns the number of bytes of class content held in memory, waiting to be defined
+	 * @return the number of held bytes
+	 */
+	public long getHeldBytes();
+	
+	/**
+	 * Returns the number of bytes of class content held in memory per archive
+	 * @return a map of held bytes keyed by archive URL
+	 */
+	public Map<String, Long> getArchiveHeldBytes();
+	
+	/**
+	 * Returns the total size of the memory mapped archives
+	 * @return the number of mapped bytes
+	 */
+	public long getMappedBytes();
+	
+	/**
+	 * Returns the number of classes defined from the isolated classpath
+	 * @return the number of defined classes
+	 */
+	public int getDefinedClassCount();
+	
+	/**
+	 * Returns the number of classes in the isolated classpath that have not been defined
+	 * @return the number of pending classes
+	 */
+	public int getPendingClassCount();
+	
+	/**
+	 * Returns the number of classes that have not been defined per archive
+	 * @return a map of pending class counts keyed by archive URL
+	 */
+	public Map<String, Integer> getArchivePendingClasses();
+	
+	/**
+	 * Returns the class define time histogram, with the buckets described by {@link #getDefineTimeBuckets()}
+	 * @return the number of classes defined in each bucket
+	 */
+	public long[] getDefineTimeHistogram();
+	
+	/**
+	 * Returns the labels of the define time histogram buckets
+	 * @return the bucket labels
+	 */
+	public String[] getDefineTimeBuckets();
+	
+	/**
+	 * Returns the total time spent defining classes
+	 * @return the total define time in nanos
+	 */
+	public long getDefineTimeNanos();
+	
+	/**
+	 * Returns the number of resource lookups satisfied by the isolated classpath
+	 * @return the number of resource hits
+	 */
+	public long getResourceHits();
+	
+	/**
+	 * Returns the number of resource lookups not satisfied by the isolated classpath
+	 * @return the number of resource misses
+	 */
+	public long getResourceMisses();
+	
+	/**
+	 * Releases the held content of classes that have not been defined yet. They are read from their archive again if requested.
+	 * @return the number of bytes released
+	 */
+	public long evictClassBytes();
 }
@@ -0,0 +1,167 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>Title: LazyArchiveIndex</p>
+ * <p>Description: {@link ArchiveMode#LAZY} archive index. Only the archive's entry directory is read when the index is created
+ * and class bytes are read and inflated the first time they are requested.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.LazyArchiveIndex</code></p>
+ */
+
+class LazyArchiveIndex extends ArchiveIndex {
+	/** The random access archive */
+	protected final ZipFile zipFile;
+	/** The number of class entries, computed on first request */
+	private volatile int classCount = -1;
+
+	/**
+	 * Creates a new LazyArchiveIndex
+	 * @param url The URL of the archive
+	 * @param protectionDomain The protection domain classes from this archive are defined in
+	 * @param file The archive file
+	 * @throws IOException thrown if the archive cannot be opened
+	 */
+	LazyArchiveIndex(final URL url, final ProtectionDomain protectionDomain, final File file) throws IOException {
+		super(url, protectionDomain);
+		zipFile = new ZipFile(file);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#readClassBytes(java.lang.String)
+	 */
+	@Override
+	ByteBuffer readClassBytes(final String path) throws IOException {
+		final ZipEntry ze = zipFile.getEntry(path);
+		if(ze==null || ze.isDirectory()) return null;
+		return ByteBuffer.wrap(read(ze));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#findResource(java.lang.String)
+	 */
+	@Override
+	URL findResource(final String name) {
+		final ZipEntry ze = zipFile.getEntry(name);
+		return (ze==null || ze.isDirectory()) ? null : entryURL(name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#openResource(java.lang.String)
+	 */
+	@Override
+	InputStream openResource(final String name) throws IOException {
+		final ZipEntry ze = zipFile.getEntry(name);
+		return (ze==null || ze.isDirectory()) ? null : zipFile.getInputStream(ze);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#classCount()
+	 */
+	@Override
+	int classCount() {
+		if(classCount==-1) {
+			int count = 0;
+			for(Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements();) {
+				if(en.nextElement().getName().endsWith(".class")) count++;
+			}
+			classCount = count;
+		}
+		return classCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#packages()
+	 */
+	@Override
+	Set<String> packages() {
+		final Set<String> packages = new HashSet<String>();
+		for(Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements();) {
+			final String name = en.nextElement().getName();
+			if(name.endsWith(".class")) packages.add(packageOf(name));
+		}
+		return packages;
+	}
+
+	/**
+	 * Reads the full content of the passed entry
+	 * @param ze The entry to read
+	 * @return the entry content
+	 * @throws IOException thrown on any error reading the entry
+	 */
+	protected byte[] read(final ZipEntry ze) throws IOException {
+		final long size = ze.getSize();
+		if(size > Integer.MAX_VALUE) throw new ZipException("Entry [" + ze.getName() + "] too large in [" + url + "]");
+		InputStream is = null;
+		try {
+			is = zipFile.getInputStream(ze);
+			if(size >= 0) {
+				final byte[] bytes = new byte[(int)size];
+				int offset = 0;
+				while(offset < bytes.length) {
+					final int bytesRead = is.read(bytes, offset, bytes.length - offset);
+					if(bytesRead==-1) throw new ZipException("Truncated entry [" + ze.getName() + "] in [" + url + "]");
+					offset += bytesRead;
+				}
+				return bytes;
+			}
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+			final byte[] buff = new byte[8192];
+			int bytesRead = 0;
+			while((bytesRead = is.read(buff))!=-1) {
+				baos.write(buff, 0, bytesRead);
+			}
+			return baos.toByteArray();
+		} finally {
+			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The archive is closed, so it is no longer held open after its class loader is discarded.</p>
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#close()
+	 */
+	@Override
+	void close() {
+		super.close();
+		try { zipFile.close(); } catch (Exception x) {/* No Op */}
+	}
+}
@@ -0,0 +1,544 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.ProtectionDomain;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Title: MappedArchiveIndex</p>
+ * <p>Description: {@link ArchiveMode#MAPPED} archive index. The archive is read once into a (typically memory mapped) buffer
+ * and only its central directory is parsed, into a compact open addressing table of entry name hashes to
+ * central directory record offsets. No strings or buffers are allocated per entry: stored entries are served as
+ * zero-copy slices of the archive buffer and deflated entries are inflated on demand.
+ * Like {@link java.util.zip.ZipFile}, archives with data prepended to them, such as a launcher script, are supported.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.MappedArchiveIndex</code></p>
+ */
+
+class MappedArchiveIndex extends ArchiveIndex {
+	/** The archive content in little endian order. Only absolute reads are used so it can be shared across threads. */
+	protected final ByteBuffer archive;
+	/** The length of the data prepended to the archive, which the local header offsets in the central directory do not include */
+	protected final int prefix;
+	/** The offsets of the central directory record of each file entry */
+	protected final int[] records;
+	/** Open addressing table of entry index + 1, keyed by entry name hash */
+	protected final int[] table;
+	/** The table mask */
+	protected final int mask;
+	/** The number of class entries, computed on first request */
+	private volatile int classCount = -1;
+
+	/** The UTF8 character set */
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** End of central directory signature */
+	static final int EOCD_SIG = 0x06054b50;
+	/** Zip64 end of central directory locator signature */
+	static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	/** Zip64 end of central directory signature */
+	static final int ZIP64_EOCD_SIG = 0x06064b50;
+	/** Central directory file header signature */
+	static final int CEN_SIG = 0x02014b50;
+	/** Local file header signature */
+	static final int LOC_SIG = 0x04034b50;
+	/** The fixed size of a central directory file header */
+	static final int CEN_HDR = 46;
+	/** The fixed size of a local file header */
+	static final int LOC_HDR = 30;
+	/** The fixed size of the end of central directory record */
+	static final int EOCD_HDR = 22;
+	/** The fixed size of the zip64 end of central directory record */
+	static final int ZIP64_EOCD_HDR = 56;
+	/** The stored (uncompressed) entry method */
+	static final int STORED = 0;
+	/** The deflated entry method */
+	static final int DEFLATED = 8;
+
+	/**
+	 * Creates a new MappedArchiveIndex
+	 * @param url The URL of the archive
+	 * @param protectionDomain The protection domain classes from this archive are defined in
+	 * @param archive The complete archive content
+	 * @throws IOException thrown if the archive's central directory cannot be parsed
+	 */
+	MappedArchiveIndex(final URL url, final ProtectionDomain protectionDomain, final ByteBuffer archive) throws IOException {
+		super(url, protectionDomain);
+		this.archive = archive.slice().order(ByteOrder.LITTLE_ENDIAN);
+		final long[] directory = centralDirectory(this.archive, findEndOfCentralDirectory(this.archive));
+		final int count = checkedOffset(directory[0]);
+		prefix = checkedOffset(directory[2]);
+		int capacity = 16;
+		while(capacity < count * 2) capacity <<= 1;
+		table = new int[capacity];
+		mask = capacity - 1;
+		final int[] recs = new int[count];
+		int files = 0;
+		int pos = checkedOffset(directory[1]);
+		for(int i = 0; i < count; i++) {
+			if(this.archive.getInt(pos)!=CEN_SIG) throw new ZipException("Invalid central directory header at [" + pos + "] in [" + url + "]");
+			final int nameLen = u16(this.archive, pos + 28);
+			final int next = pos + CEN_HDR + nameLen + u16(this.archive, pos + 30) + u16(this.archive, pos + 32);
+			if(nameLen > 0 && this.archive.get(pos + CEN_HDR + nameLen - 1)!='/') {
+				final int hash = hashBytes(this.archive, pos + CEN_HDR, nameLen);
+				if(insert(hash, pos, nameLen, recs, files)) {
+					recs[files++] = pos;
+				}
+			}
+			pos = next;
+		}
+		if(files==count) {
+			records = recs;
+		} else {
+			records = new int[files];
+			System.arraycopy(recs, 0, records, 0, files);
+		}
+	}
+
+	/**
+	 * Memory maps the passed file
+	 * @param file The file to map
+	 * @return the read only mapped buffer
+	 * @throws IOException thrown on any error mapping the file
+	 */
+	static ByteBuffer map(final File file) throws IOException {
+		RandomAccessFile raf = null;
+		FileChannel channel = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			channel = raf.getChannel();
+			if(channel.size() > Integer.MAX_VALUE) throw new IOException("Archive too large to map [" + file + "]");
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			if(channel != null) try { channel.close(); } catch (Exception x) {/* No Op */}
+			if(raf != null) try { raf.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Returns the number of file entries in the archive
+	 * @return the number of file entries
+	 */
+	int size() {
+		return records.length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#readClassBytes(java.lang.String)
+	 */
+	@Override
+	ByteBuffer readClassBytes(final String path) throws IOException {
+		final int record = find(path);
+		return record==-1 ? null : read(record);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#findResource(java.lang.String)
+	 */
+	@Override
+	URL findResource(final String name) {
+		return find(name)==-1 ? null : entryURL(name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Stored entries are streamed straight from the archive buffer.</p>
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#openResource(java.lang.String)
+	 */
+	@Override
+	InputStream openResource(final String name) throws IOException {
+		final int record = find(name);
+		return record==-1 ? null : new ByteBufferInputStream(read(record));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Entries of the same directory are usually adjacent, so a package name is only decoded when it differs from the previous entry's.</p>
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#packages()
+	 */
+	@Override
+	Set<String> packages() {
+		final Set<String> packages = new HashSet<String>();
+		int lastOffset = -1, lastLen = -1;
+		for(final int record: records) {
+			final int offset = record + CEN_HDR;
+			final int nameLen = u16(archive, record + 28);
+			if(nameLen < 6 || !asciiEquals(offset + nameLen - 6, ".class", 6)) continue;
+			int pkgLen = nameLen - 7;
+			while(pkgLen >= 0 && archive.get(offset + pkgLen)!='/') pkgLen--;
+			if(pkgLen < 0) pkgLen = 0;
+			if(pkgLen==lastLen && regionEquals(offset, lastOffset, pkgLen)) continue;
+			lastOffset = offset;
+			lastLen = pkgLen;
+			final byte[] bytes = new byte[pkgLen];
+			final ByteBuffer dup = archive.duplicate();
+			dup.position(offset);
+			dup.get(bytes);
+			packages.add(new String(bytes, UTF8).replace('/', '.'));
+		}
+		return packages;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#classCount()
+	 */
+	@Override
+	int classCount() {
+		if(classCount==-1) {
+			int count = 0;
+			for(final int record: records) {
+				final int nameLen = u16(archive, record + 28);
+				if(nameLen >= 6 && asciiEquals(record + CEN_HDR + nameLen - 6, ".class", 6)) count++;
+			}
+			classCount = count;
+		}
+		return classCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#mappedBytes()
+	 */
+	@Override
+	long mappedBytes() {
+		return archive.capacity();
+	}
+
+	/**
+	 * Determines if the named entry is in this archive
+	 * @param name The entry name
+	 * @return true if the entry is in this archive, false otherwise
+	 */
+	boolean contains(final String name) {
+		return find(name)!=-1;
+	}
+
+	/**
+	 * Reads the content of the entry at the passed central directory record offset.
+	 * Stored entries are returned as a zero-copy slice of the archive, deflated entries are inflated into a heap buffer.
+	 * @param record The central directory record offset
+	 * @return the entry content
+	 * @throws IOException thrown on any error reading the entry
+	 */
+	ByteBuffer read(final int record) throws IOException {
+		final int method = u16(archive, record + 10);
+		final int flags = u16(archive, record + 8);
+		if((flags & 1)!=0) throw new ZipException("Encrypted entries are not supported in [" + url + "]");
+		long compressed = u32(archive, record + 20);
+		long size = u32(archive, record + 24);
+		long local = u32(archive, record + 42);
+		if(compressed==0xFFFFFFFFL || size==0xFFFFFFFFL || local==0xFFFFFFFFL) {
+			final long[] zip64 = zip64Sizes(record, size, compressed, local);
+			size = zip64[0];
+			compressed = zip64[1];
+			local = zip64[2];
+		}
+		final int loc = checkedOffset(local + prefix);
+		if(archive.getInt(loc)!=LOC_SIG) throw new ZipException("Invalid local header at [" + loc + "] in [" + url + "]");
+		final int data = loc + LOC_HDR + u16(archive, loc + 26) + u16(archive, loc + 28);
+		switch(method) {
+			case STORED:
+				return slice(data, checkedOffset(size));
+			case DEFLATED:
+				return ByteBuffer.wrap(inflate(data, checkedOffset(compressed), checkedOffset(size)));
+			default:
+				throw new ZipException("Unsupported compression method [" + method + "] in [" + url + "]");
+		}
+	}
+
+	/**
+	 * Returns a zero-copy slice of the archive
+	 * @param offset The offset of the slice
+	 * @param length The length of the slice
+	 * @return the slice
+	 */
+	protected ByteBuffer slice(final int offset, final int length) {
+		final ByteBuffer dup = archive.duplicate();
+		dup.limit(offset + length).position(offset);
+		return dup.slice();
+	}
+
+	/**
+	 * Inflates a deflated region of the archive
+	 * @param offset The offset of the compressed data
+	 * @param compressed The compressed length
+	 * @param size The uncompressed length
+	 * @return the inflated bytes
+	 * @throws IOException thrown if the data cannot be inflated
+	 */
+	protected byte[] inflate(final int offset, final int compressed, final int size) throws IOException {
+		final byte[] input = new byte[compressed];
+		final ByteBuffer dup = archive.duplicate();
+		dup.position(offset);
+		dup.get(input);
+		final byte[] output = new byte[size];
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(input);
+			int total = 0;
+			while(total < size) {
+				final int n = inflater.inflate(output, total, size - total);
+				if(n==0 && (inflater.finished() || inflater.needsDictionary() || inflater.needsInput())) break;
+				total += n;
+			}
+			if(total!=size) throw new ZipException("Inflated [" + total + "] bytes, expected [" + size + "] in [" + url + "]");
+			return output;
+		} catch (DataFormatException dfe) {
+			throw new ZipException("Corrupt deflated entry in [" + url + "]: " + dfe.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Finds the central directory record of the named entry
+	 * @param name The entry name
+	 * @return the central directory record offset or -1 if the entry is not in this archive
+	 */
+	protected int find(final String name) {
+		final int len = name.length();
+		boolean ascii = true;
+		for(int i = 0; i < len; i++) {
+			if(name.charAt(i) >= 0x80) {
+				ascii = false;
+				break;
+			}
+		}
+		if(!ascii) return find(name.getBytes(UTF8));
+		// for ASCII names the byte hash is the String hash, which the String caches
+		int slot = spread(name.hashCode()) & mask;
+		while(true) {
+			final int idx = table[slot];
+			if(idx==0) return -1;
+			final int record = records[idx - 1];
+			if(u16(archive, record + 28)==len && asciiEquals(record + CEN_HDR, name, len)) return record;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Finds the central directory record of the entry with the passed encoded name
+	 * @param name The UTF8 encoded entry name
+	 * @return the central directory record offset or -1 if the entry is not in this archive
+	 */
+	protected int find(final byte[] name) {
+		int hash = 0;
+		for(int i = 0; i < name.length; i++) hash = 31 * hash + (name[i] & 0xFF);
+		int slot = spread(hash) & mask;
+		while(true) {
+			final int idx = table[slot];
+			if(idx==0) return -1;
+			final int record = records[idx - 1];
+			if(u16(archive, record + 28)==name.length && bytesEqual(record + CEN_HDR, name)) return record;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns the name of the entry at the passed central directory record offset
+	 * @param record The central directory record offset
+	 * @return the entry name
+	 */
+	String name(final int record) {
+		final int len = u16(archive, record + 28);
+		final byte[] bytes = new byte[len];
+		final ByteBuffer dup = archive.duplicate();
+		dup.position(record + CEN_HDR);
+		dup.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Inserts a file entry into the table, ignoring duplicate names (the first entry wins)
+	 * @param hash The entry name hash
+	 * @param record The central directory record offset
+	 * @param nameLen The entry name length
+	 * @param recs The records indexed so far
+	 * @param files The number of records indexed so far
+	 * @return true if inserted, false if the name is a duplicate
+	 */
+	private boolean insert(final int hash, final int record, final int nameLen, final int[] recs, final int files) {
+		int slot = spread(hash) & mask;
+		while(true) {
+			final int idx = table[slot];
+			if(idx==0) {
+				table[slot] = files + 1;
+				return true;
+			}
+			final int other = recs[idx - 1];
+			if(u16(archive, other + 28)==nameLen && regionEquals(other + CEN_HDR, record + CEN_HDR, nameLen)) return false;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean regionEquals(final int offset1, final int offset2, final int len) {
+		for(int i = 0; i < len; i++) {
+			if(archive.get(offset1 + i)!=archive.get(offset2 + i)) return false;
+		}
+		return true;
+	}
+
+	private boolean asciiEquals(final int offset, final String name, final int len) {
+		for(int i = 0; i < len; i++) {
+			if(archive.get(offset + i)!=(byte)name.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private boolean bytesEqual(final int offset, final byte[] name) {
+		for(int i = 0; i < name.length; i++) {
+			if(archive.get(offset + i)!=name[i]) return false;
+		}
+		return true;
+	}
+
+	private long[] zip64Sizes(final int record, final long size, final long compressed, final long local) throws ZipException {
+		final int nameLen = u16(archive, record + 28);
+		final int extraLen = u16(archive, record + 30);
+		int pos = record + CEN_HDR + nameLen;
+		final int end = pos + extraLen;
+		while(pos + 4 <= end) {
+			final int id = u16(archive, pos);
+			final int len = u16(archive, pos + 2);
+			if(id==0x0001) {
+				int field = pos + 4;
+				final long[] result = new long[]{size, compressed, local};
+				if(size==0xFFFFFFFFL) { result[0] = archive.getLong(field); field += 8; }
+				if(compressed==0xFFFFFFFFL) { result[1] = archive.getLong(field); field += 8; }
+				if(local==0xFFFFFFFFL) { result[2] = archive.getLong(field); }
+				return result;
+			}
+			pos += 4 + len;
+		}
+		throw new ZipException("Missing zip64 extra field in [" + url + "]");
+	}
+
+	/**
+	 * Locates the end of central directory record. As in {@link java.util.zip.ZipFile}, a record whose comment length
+	 * does not match the end of the archive is accepted if the central directory it describes checks out.
+	 * @param archive The archive buffer
+	 * @return the offset of the end of central directory record
+	 * @throws ZipException thrown if the record cannot be found
+	 */
+	static int findEndOfCentralDirectory(final ByteBuffer archive) throws ZipException {
+		final int limit = Math.max(0, archive.limit() - EOCD_HDR - 0xFFFF);
+		for(int pos = archive.limit() - EOCD_HDR; pos >= limit; pos--) {
+			if(archive.getInt(pos)!=EOCD_SIG) continue;
+			if(pos + EOCD_HDR + u16(archive, pos + 20)==archive.limit() || centralDirectoryAt(archive, pos)) {
+				return pos;
+			}
+		}
+		throw new ZipException("End of central directory not found");
+	}
+
+	/**
+	 * Determines if the central directory described by the passed candidate end of central directory record is where the record says
+	 * @param archive The archive buffer
+	 * @param eocd The offset of the candidate end of central directory record
+	 * @return true if the central directory, or the zip64 end of central directory locator, is found
+	 */
+	private static boolean centralDirectoryAt(final ByteBuffer archive, final int eocd) {
+		final long cenLen = u32(archive, eocd + 12);
+		if(cenLen==0xFFFFFFFFL) return eocd >= 20 && archive.getInt(eocd - 20)==ZIP64_LOCATOR_SIG;
+		if(cenLen==0) return u16(archive, eocd + 10)==0;
+		final long cen = eocd - cenLen;
+		return cen >= 0 && archive.getInt((int)cen)==CEN_SIG;
+	}
+
+	/**
+	 * Reads the entry count, position and prefix length of the central directory, from the zip64 end of central directory record when present.
+	 * The central directory position is computed back from the end record, as in {@link java.util.zip.ZipFile}, and the prefix length is
+	 * the difference between it and the recorded central directory offset, so archives with data prepended to them can be read.
+	 * @param archive The archive buffer
+	 * @param eocd The offset of the end of central directory record
+	 * @return an array of the entry count, the central directory position and the length of the data prepended to the archive
+	 * @throws ZipException thrown if the zip64 end of central directory record or the central directory position is invalid
+	 */
+	static long[] centralDirectory(final ByteBuffer archive, final int eocd) throws ZipException {
+		long entryCount = u16(archive, eocd + 10);
+		long cenLen = u32(archive, eocd + 12);
+		long cenOffset = u32(archive, eocd + 16);
+		long end = eocd;
+		if(entryCount==0xFFFF || cenLen==0xFFFFFFFFL || cenOffset==0xFFFFFFFFL) {
+			final int locator = eocd - 20;
+			if(locator >= 0 && archive.getInt(locator)==ZIP64_LOCATOR_SIG) {
+				// the recorded offset does not include any prepended data, so the record is also looked for just before the locator
+				int zip64 = checkedOffset(archive.getLong(locator + 8));
+				if(zip64 > locator - ZIP64_EOCD_HDR || archive.getInt(zip64)!=ZIP64_EOCD_SIG) zip64 = locator - ZIP64_EOCD_HDR;
+				if(zip64 < 0 || archive.getInt(zip64)!=ZIP64_EOCD_SIG) throw new ZipException("Invalid zip64 end of central directory");
+				entryCount = archive.getLong(zip64 + 32);
+				cenLen = archive.getLong(zip64 + 40);
+				cenOffset = archive.getLong(zip64 + 48);
+				end = zip64;
+			}
+		}
+		final long cenPosition = end - cenLen;
+		final long prefix = cenPosition - cenOffset;
+		if(cenLen < 0 || cenPosition < 0 || prefix < 0) throw new ZipException("Invalid central directory position [" + cenPosition + "]");
+		return new long[]{entryCount, cenPosition, prefix};
+	}
+
+	/**
+	 * Computes the hash of the name bytes at the passed offset, matching {@link String#hashCode()} for ASCII names
+	 * @param buff The buffer to read from
+	 * @param offset The offset of the name
+	 * @param len The length of the name
+	 * @return the hash
+	 */
+	static int hashBytes(final ByteBuffer buff, final int offset, final int len) {
+		int hash = 0;
+		for(int i = 0; i < len; i++) hash = 31 * hash + (buff.get(offset + i) & 0xFF);
+		return hash;
+	}
+
+	static int spread(final int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	static int u16(final ByteBuffer buff, final int offset) {
+		return buff.getShort(offset) & 0xFFFF;
+	}
+
+	static long u32(final ByteBuffer buff, final int offset) {
+		return buff.getInt(offset) & 0xFFFFFFFFL;
+	}
+
+	static int checkedOffset(final long value) throws ZipException {
+		if(value < 0 || value > Integer.MAX_VALUE) throw new ZipException("Archive offset out of range [" + value + "]");
+		return (int)value;
+	}
+}
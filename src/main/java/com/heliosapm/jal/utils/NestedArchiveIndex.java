@@ -0,0 +1,194 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+
+/**
+ * <p>Title: NestedArchiveIndex</p>
+ * <p>Description: Archive index of a jar embedded in another jar, identified by a URL of the form
+ * <b><code>jar:&lt;outer archive URL&gt;!/&lt;inner jar entry&gt;</code></b>. Outer archives may themselves be nested,
+ * e.g. <b><code>jar:jar:file:/agent.jar!/lib/a.jar!/lib/b.jar</code></b>. Archives streamed into this JVM (see {@link StreamedArchives})
+ * are indexed the same way, from their received content.</p>
+ * <p>The outermost archive is memory mapped (or read into memory if it is not a file) and each level is indexed from
+ * its parent's content: an inner jar stored uncompressed is indexed in place as a slice of its parent, a deflated
+ * inner jar is inflated into memory. Nothing is extracted to a temp file. The resource URLs of nested archives
+ * are served from the index by their own {@link URLStreamHandler}, since the JDK does not support nested jar URLs.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.NestedArchiveIndex</code></p>
+ */
+
+class NestedArchiveIndex extends MappedArchiveIndex {
+	/** The URL handler for nested URLs that are not bound to an index */
+	static final NestedURLHandler HANDLER = new NestedURLHandler(null);
+	/** The entry separator of jar URLs */
+	static final String SEPARATOR = "!/";
+
+	/** The URL handler of this archive's resource URLs */
+	private final NestedURLHandler handler = new NestedURLHandler(this);
+
+	/**
+	 * Creates a new NestedArchiveIndex
+	 * @param url The nested URL of the archive
+	 * @param protectionDomain The protection domain classes from this archive are defined in
+	 * @throws IOException thrown if the archive cannot be read from its outer archive
+	 */
+	NestedArchiveIndex(final URL url, final ProtectionDomain protectionDomain) throws IOException {
+		super(url, protectionDomain, content(url));
+	}
+
+	/**
+	 * Determines if the passed URL refers to an archive entry of another archive
+	 * @param url The URL to test
+	 * @return true if the URL is a nested archive URL, false otherwise
+	 */
+	static boolean isNested(final URL url) {
+		if(!"jar".equals(url.getProtocol())) return false;
+		final String spec = url.toString();
+		final int bang = spec.lastIndexOf(SEPARATOR);
+		return bang!=-1 && !spec.endsWith("/");
+	}
+
+	/**
+	 * Builds the URL of an entry in the passed archive
+	 * @param archive The archive URL
+	 * @param entry The entry name, which may itself be a <b><code>!/</code></b> separated path of nested entries
+	 * @return the entry URL
+	 * @throws MalformedURLException thrown if the URL cannot be built
+	 */
+	static URL nestedURL(final URL archive, final String entry) throws MalformedURLException {
+		return toURL("jar:" + archive + SEPARATOR + entry);
+	}
+
+	/**
+	 * Parses a URL, using {@link #HANDLER} for nested jar URLs
+	 * @param spec The URL spec
+	 * @return the URL
+	 * @throws MalformedURLException thrown if the spec cannot be parsed
+	 */
+	static URL toURL(final String spec) throws MalformedURLException {
+		if(spec.startsWith("jar:jar:")) return new URL(null, spec, HANDLER);
+		return new URL(spec);
+	}
+
+	/**
+	 * Returns the content of the archive at the passed URL
+	 * @param url The archive URL
+	 * @return the archive content
+	 * @throws IOException thrown if the archive cannot be read
+	 */
+	static ByteBuffer content(final URL url) throws IOException {
+		final ByteBuffer streamed = StreamedArchives.get(url);
+		if(streamed!=null) return streamed;
+		final File file = toFile(url);
+		if(file!=null) return map(file);
+		if(isNested(url)) {
+			final String spec = url.toString();
+			final int bang = spec.lastIndexOf(SEPARATOR);
+			final URL outerURL = toURL(spec.substring(4, bang));
+			final String entry = spec.substring(bang + SEPARATOR.length());
+			final MappedArchiveIndex outer = new MappedArchiveIndex(outerURL, null, content(outerURL));
+			final int record = outer.find(entry);
+			if(record==-1) throw new FileNotFoundException("Entry [" + entry + "] not found in [" + outerURL + "]");
+			return outer.read(record);
+		}
+		InputStream is = null;
+		try {
+			is = url.openStream();
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192 * 4);
+			final byte[] buff = new byte[8192 * 4];
+			int bytesRead = 0;
+			while((bytesRead = is.read(buff))!=-1) {
+				baos.write(buff, 0, bytesRead);
+			}
+			return ByteBuffer.wrap(baos.toByteArray());
+		} finally {
+			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jal.utils.ArchiveIndex#entryURL(java.lang.String)
+	 */
+	@Override
+	protected URL entryURL(final String name) {
+		try {
+			return new URL(null, "jar:" + url + SEPARATOR + name, handler);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * <p>Title: NestedURLHandler</p>
+	 * <p>Description: URL handler serving nested jar URLs from an archive index</p>
+	 */
+	static class NestedURLHandler extends URLStreamHandler {
+		/** The index the handled URLs refer to, or null to resolve the archive from each URL */
+		private final ArchiveIndex index;
+
+		/**
+		 * Creates a new NestedURLHandler
+		 * @param index The index the handled URLs refer to, or null to resolve the archive from each URL
+		 */
+		NestedURLHandler(final ArchiveIndex index) {
+			this.index = index;
+		}
+
+		@Override
+		protected URLConnection openConnection(final URL u) throws IOException {
+			final String spec = u.toString();
+			final int bang = spec.lastIndexOf(SEPARATOR);
+			if(!spec.startsWith("jar:") || bang==-1) throw new MalformedURLException("Not a jar URL [" + spec + "]");
+			final String entry = spec.substring(bang + SEPARATOR.length());
+			return new URLConnection(u) {
+				@Override
+				public void connect() {
+					connected = true;
+				}
+
+				@Override
+				public InputStream getInputStream() throws IOException {
+					final ArchiveIndex archive;
+					if(index!=null) {
+						archive = index;
+					} else {
+						final URL outerURL = toURL(spec.substring(4, bang));
+						archive = new MappedArchiveIndex(outerURL, null, content(outerURL));
+					}
+					final InputStream is = archive.openResource(entry);
+					if(is==null) throw new FileNotFoundException("Entry [" + entry + "] not found in [" + archive.getURL() + "]");
+					return is;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: StreamedArchives</p>
+ * <p>Description: The archives of an agent payload streamed into this JVM by the installer, keyed by the URL the installer
+ * read them from. An {@link IsolatedClassLoader} given one of these URLs indexes the archive from the received buffer,
+ * so the archive never needs to exist on this JVM's filesystem.</p>
+ * <p>The payload is received over a loopback connection to the installer. The client sends {@link #MAGIC} and the
+ * installer's one-time token, then the installer sends the archive count, and per archive, its URL, length and content.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.StreamedArchives</code></p>
+ */
+
+public final class StreamedArchives {
+	/** The system property defining the payload connect and read timeout in ms. */
+	public static final String TIMEOUT_PROP = "com.heliosapm.jal.stream.timeout";
+	/** The default payload connect and read timeout in ms. */
+	public static final int DEFAULT_TIMEOUT = 30000;
+	/** The payload protocol magic number */
+	public static final int MAGIC = 0x4A414C53;
+	/** The separator of the port and token in a payload spec */
+	public static final char SPEC_SEPARATOR = '/';
+
+	/** The received archives keyed by URL spec */
+	private static final Map<String, ByteBuffer> archives = new ConcurrentHashMap<String, ByteBuffer>();
+
+	private StreamedArchives() {}
+
+	/**
+	 * Builds the payload spec passed to the target
+	 * @param port The loopback port the payload is served on
+	 * @param token The one-time token the target must present
+	 * @return the payload spec
+	 */
+	public static String spec(final int port, final String token) {
+		return port + String.valueOf(SPEC_SEPARATOR) + token;
+	}
+
+	/**
+	 * Validates a payload spec
+	 * @param spec The payload spec
+	 * @return the validated spec
+	 */
+	public static String checkSpec(final String spec) {
+		final int index = spec==null ? -1 : spec.indexOf(SPEC_SEPARATOR);
+		if(index < 1 || index==spec.length()-1) throw new IllegalArgumentException("Invalid payload spec: [" + spec + "]");
+		try {
+			final int port = Integer.parseInt(spec.substring(0, index));
+			if(port < 1 || port > 65535) throw new Exception();
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Invalid payload port: [" + spec + "]");
+		}
+		return spec;
+	}
+
+	/**
+	 * Connects to the installer's payload server and registers every archive it sends
+	 * @param spec The payload spec (see {@link #spec(int, String)})
+	 * @return the number of archives received
+	 * @throws IOException thrown on any error receiving the payload
+	 */
+	public static int receive(final String spec) throws IOException {
+		checkSpec(spec);
+		final int index = spec.indexOf(SPEC_SEPARATOR);
+		final int port = Integer.parseInt(spec.substring(0, index));
+		final String token = spec.substring(index + 1);
+		final int timeout = timeout();
+		final long start = System.nanoTime();
+		final Socket socket = new Socket();
+		try {
+			socket.setSoTimeout(timeout);
+			socket.connect(new InetSocketAddress(InetAddress.getByName(null), port), timeout);
+			final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(MAGIC);
+			out.writeUTF(token);
+			out.flush();
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+			final int count = in.readInt();
+			long total = 0;
+			for(int i = 0; i < count; i++) {
+				final String url = in.readUTF();
+				final int length = in.readInt();
+				if(length < 0) throw new IOException("Invalid payload length [" + length + "] for [" + url + "]");
+				// read straight into the buffer the archive index will serve from
+				final byte[] content = new byte[length];
+				in.readFully(content);
+				archives.put(url, ByteBuffer.wrap(content).asReadOnlyBuffer());
+				total += length;
+			}
+			IsolatedClassLoader.log("Received %s streamed archives (%s bytes) in %s ms", count, total, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			return count;
+		} finally {
+			try { socket.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Registers the content of an archive
+	 * @param url The archive URL
+	 * @param content The archive content
+	 */
+	public static void register(final URL url, final ByteBuffer content) {
+		if(url==null) throw new IllegalArgumentException("The passed URL was null");
+		if(content==null) throw new IllegalArgumentException("The passed content was null");
+		archives.put(url.toString(), content.asReadOnlyBuffer());
+	}
+
+	/**
+	 * Determines if the archive at the passed URL was streamed into this JVM
+	 * @param url The archive URL
+	 * @return true if the archive was streamed, false otherwise
+	 */
+	public static boolean isStreamed(final URL url) {
+		return url!=null && archives.containsKey(url.toString());
+	}
+
+	/**
+	 * Returns the content of a streamed archive
+	 * @param url The archive URL
+	 * @return a buffer over the archive content or null if the archive was not streamed
+	 */
+	public static ByteBuffer get(final URL url) {
+		final ByteBuffer content = url==null ? null : archives.get(url.toString());
+		return content==null ? null : content.duplicate();
+	}
+
+	/**
+	 * Opens a stream on the archive at the passed URL, reading from its streamed content if it was streamed
+	 * @param url The archive URL
+	 * @return the input stream
+	 * @throws IOException thrown if the archive cannot be opened
+	 */
+	public static InputStream openStream(final URL url) throws IOException {
+		final ByteBuffer content = get(url);
+		return content==null ? url.openStream() : new ByteBufferInputStream(content);
+	}
+
+	/**
+	 * Removes a streamed archive. Class loaders that already indexed it keep serving from its content.
+	 * @param url The archive URL
+	 * @return true if the archive was removed, false if it was not streamed
+	 */
+	public static boolean remove(final URL url) {
+		return url!=null && archives.remove(url.toString())!=null;
+	}
+
+	private static int timeout() {
+		try {
+			final String s = System.getProperty(TIMEOUT_PROP);
+			if(s!=null) return Math.max(1, Integer.parseInt(s.trim()));
+		} catch (Exception ex) {
+			/* No Op */
+		}
+		return DEFAULT_TIMEOUT;
+	}
+}
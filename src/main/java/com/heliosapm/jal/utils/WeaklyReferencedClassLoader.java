@@ -41,6 +41,14 @@ public class WeaklyReferencedClassLoader extends ClassLoader {
 		delegateClassLoader = new WeakReference<ClassLoader>(delegate);
 	}
 	
+	/**
+	 * Returns the weakly referenced delegate classloader
+	 * @return the delegate classloader or null if it has been cleared
+	 */
+	public ClassLoader getDelegate() {
+		return delegateClassLoader.get();
+	}
+
 	private ClassLoader delegate() {
 		final ClassLoader cl = delegateClassLoader.get(); 
 		if(cl==null) throw new IllegalStateException("The weakly referenced classloader has been cleared");
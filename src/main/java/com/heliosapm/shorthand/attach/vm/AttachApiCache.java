@@ -0,0 +1,141 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * <p>Title: AttachApiCache</p>
+ * <p>Description: A small per-user file recording where the Attach API jar of each JDK was found, keyed by <b><code>java.home</code></b>
+ * and <b><code>java.version</code></b>, so {@link VirtualMachineBootstrap} can load the jar directly instead of probing for it.
+ * Each entry records the jar's length and last modified time, and is only used while they still match.</p>
+ * <p>The cache file is <b><code>~/.jal/attach-api.properties</code></b> unless overridden by the system property
+ * <b><code>com.heliosapm.jal.attach.cache</code></b>. Failures to read or write the cache are ignored.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.AttachApiCache</code></p>
+ */
+final class AttachApiCache {
+	/** The system property defining the cache file */
+	public static final String CACHE_FILE_PROP = "com.heliosapm.jal.attach.cache";
+	/** The default cache file */
+	public static final String DEFAULT_CACHE_FILE = System.getProperty("user.home") + File.separator + ".jal" + File.separator + "attach-api.properties";
+	/** The separator of the fields of an entry */
+	private static final String SEP = "|";
+	
+	private AttachApiCache() {}
+	
+	/**
+	 * Returns the cache file
+	 * @return the cache file
+	 */
+	static File getCacheFile() {
+		final String file = System.getProperty(CACHE_FILE_PROP);
+		return new File((file==null || file.trim().isEmpty()) ? DEFAULT_CACHE_FILE : file.trim());
+	}
+	
+	/**
+	 * Returns the cache key of the running JDK
+	 * @return the cache key
+	 */
+	static String key() {
+		return System.getProperty("java.home") + SEP + System.getProperty("java.version");
+	}
+	
+	/**
+	 * Returns the cached Attach API jar of the running JDK if it is unchanged
+	 * @return the cached jar or null if there is no valid entry
+	 */
+	static File lookup() {
+		final String entry = load().getProperty(key());
+		if(entry==null) return null;
+		final String[] fields = entry.split("\\" + SEP);
+		if(fields.length!=3) return null;
+		try {
+			final File jar = new File(fields[0]);
+			if(jar.length()==Long.parseLong(fields[1]) && jar.lastModified()==Long.parseLong(fields[2]) && jar.isFile()) return jar;
+		} catch (Exception ex) {
+			/* No Op */
+		}
+		return null;
+	}
+	
+	/**
+	 * Records the Attach API jar of the running JDK
+	 * @param jar The Attach API jar
+	 */
+	static void store(final File jar) {
+		final File file = getCacheFile();
+		final Properties p = load();
+		final String entry = jar.getAbsolutePath() + SEP + jar.length() + SEP + jar.lastModified();
+		if(entry.equals(p.getProperty(key()))) return;
+		p.setProperty(key(), entry);
+		OutputStream os = null;
+		File tmp = null;
+		try {
+			final File dir = file.getAbsoluteFile().getParentFile();
+			if(!dir.isDirectory() && !dir.mkdirs()) return;
+			tmp = File.createTempFile(file.getName(), ".tmp", dir);
+			os = new FileOutputStream(tmp);
+			p.store(os, "Attach API locations keyed by java.home|java.version");
+			os.close();
+			os = null;
+			if(!tmp.renameTo(file)) {
+				file.delete();
+				tmp.renameTo(file);
+			}
+		} catch (Exception ex) {
+			/* No Op */
+		} finally {
+			if(os != null) try { os.close(); } catch (Exception x) {/* No Op */}
+			if(tmp != null) tmp.delete();
+		}
+	}
+	
+	/**
+	 * Loads the cache file
+	 * @return the cached entries, empty if the file does not exist or cannot be read
+	 */
+	private static Properties load() {
+		final Properties p = new Properties();
+		final File file = getCacheFile();
+		if(!file.isFile()) return p;
+		InputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			p.load(is);
+		} catch (Exception ex) {
+			/* No Op */
+		} finally {
+			if(is != null) try { is.close(); } catch (Exception x) {/* No Op */}
+		}
+		return p;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+import static com.heliosapm.shorthand.attach.vm.VirtualMachineBootstrap.ATTACH_PROVIDER_CLASS;
+import static com.heliosapm.shorthand.attach.vm.VirtualMachineBootstrap.VM_CLASS;
+import static com.heliosapm.shorthand.attach.vm.VirtualMachineBootstrap.VM_DESC_CLASS;
+
+/**
+ * <p>Title: AttachMethod</p>
+ * <p>Description: Enumerates the Attach API methods invoked by the wrapper classes. Each member names the attach class
+ * and the standard method encoding (see {@link BaseWrappedClass#getMethodMapping(Class)}) of its method, which is
+ * resolved once by {@link VirtualMachineBootstrap} and dispatched by ordinal through {@link BaseWrappedClass#dispatch(Object, AttachMethod, Object...)}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.AttachMethod</code></p>
+ */
+public enum AttachMethod {
+	/** VirtualMachine.list() */
+	VM_LIST(VM_CLASS, "list"),
+	/** VirtualMachine.attach(VirtualMachineDescriptor) */
+	VM_ATTACH_V(VM_CLASS, "attachV"),
+	/** VirtualMachine.attach(String) */
+	VM_ATTACH_S(VM_CLASS, "attachS"),
+	/** VirtualMachine.provider() */
+	VM_PROVIDER(VM_CLASS, "provider"),
+	/** VirtualMachine.id() */
+	VM_ID(VM_CLASS, "id"),
+	/** VirtualMachine.detach() */
+	VM_DETACH(VM_CLASS, "detach"),
+	/** VirtualMachine.getAgentProperties() */
+	VM_GET_AGENT_PROPERTIES(VM_CLASS, "getAgentProperties"),
+	/** VirtualMachine.getSystemProperties() */
+	VM_GET_SYSTEM_PROPERTIES(VM_CLASS, "getSystemProperties"),
+	/** VirtualMachine.loadAgent(String) */
+	VM_LOAD_AGENT_S(VM_CLASS, "loadAgentS"),
+	/** VirtualMachine.loadAgent(String, String) */
+	VM_LOAD_AGENT_SS(VM_CLASS, "loadAgentSS"),
+	/** VirtualMachine.loadAgentLibrary(String) */
+	VM_LOAD_AGENT_LIBRARY_S(VM_CLASS, "loadAgentLibraryS"),
+	/** VirtualMachine.loadAgentLibrary(String, String) */
+	VM_LOAD_AGENT_LIBRARY_SS(VM_CLASS, "loadAgentLibrarySS"),
+	/** VirtualMachine.loadAgentPath(String) */
+	VM_LOAD_AGENT_PATH_S(VM_CLASS, "loadAgentPathS"),
+	/** VirtualMachine.loadAgentPath(String, String) */
+	VM_LOAD_AGENT_PATH_SS(VM_CLASS, "loadAgentPathSS"),
+	/** VirtualMachine.startLocalManagementAgent(), available from Java 8 */
+	VM_START_LOCAL_MANAGEMENT_AGENT(VM_CLASS, "startLocalManagementAgent", true),
+	/** VirtualMachineDescriptor.id() */
+	VMD_ID(VM_DESC_CLASS, "id"),
+	/** VirtualMachineDescriptor.displayName() */
+	VMD_DISPLAY_NAME(VM_DESC_CLASS, "displayName"),
+	/** VirtualMachineDescriptor.provider() */
+	VMD_PROVIDER(VM_DESC_CLASS, "provider"),
+	/** AttachProvider.providers() */
+	AP_PROVIDERS(ATTACH_PROVIDER_CLASS, "providers"),
+	/** AttachProvider.listVirtualMachines() */
+	AP_LIST_VIRTUAL_MACHINES(ATTACH_PROVIDER_CLASS, "listVirtualMachines"),
+	/** AttachProvider.attachVirtualMachine(String) */
+	AP_ATTACH_VIRTUAL_MACHINE_S(ATTACH_PROVIDER_CLASS, "attachVirtualMachineS"),
+	/** AttachProvider.attachVirtualMachine(VirtualMachineDescriptor) */
+	AP_ATTACH_VIRTUAL_MACHINE_V(ATTACH_PROVIDER_CLASS, "attachVirtualMachineV"),
+	/** AttachProvider.name() */
+	AP_NAME(ATTACH_PROVIDER_CLASS, "name"),
+	/** AttachProvider.type() */
+	AP_TYPE(ATTACH_PROVIDER_CLASS, "type");
+	
+	private AttachMethod(String className, String methodEncode) {
+		this(className, methodEncode, false);
+	}
+	
+	private AttachMethod(String className, String methodEncode, boolean optional) {
+		this.className = className;
+		this.methodEncode = methodEncode;
+		this.optional = optional;
+	}
+	
+	/** The name of the attach class declaring the method */
+	public final String className;
+	/** The standard method encoding of the method */
+	public final String methodEncode;
+	/** Indicates if the method is missing from older Attach API versions */
+	public final boolean optional;
+}
@@ -24,7 +24,6 @@
  */
 package com.heliosapm.shorthand.attach.vm;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -88,7 +87,7 @@ public class AttachProvider extends BaseWrappedClass {
 		List<VirtualMachineDescriptor> results = new ArrayList<VirtualMachineDescriptor>();
 		try {
 			pushCl();
-			List<?> vmds = (List<?>)invoke(delegate, null, "listVirtualMachines");
+			List<?> vmds = (List<?>)dispatch(delegate, AttachMethod.AP_LIST_VIRTUAL_MACHINES);
 			for(Object vmd: vmds) {
 				results.add(VirtualMachineDescriptor.getInstance(vmd));
 			}
@@ -106,7 +105,7 @@ public class AttachProvider extends BaseWrappedClass {
 	public VirtualMachine attachVirtualMachine(String id) {
 		try {
 			pushCl();
-			return VirtualMachine.getInstance(invoke(delegate, null, "attachVirtualMachineS", id));
+			return VirtualMachine.getInstance(dispatch(delegate, AttachMethod.AP_ATTACH_VIRTUAL_MACHINE_S, id));
 		} finally {
 			popCl();
 		}		
@@ -120,7 +119,7 @@ public class AttachProvider extends BaseWrappedClass {
 	public VirtualMachine attachVirtualMachine(VirtualMachineDescriptor vmd) {
 		try {
 			pushCl();
-			return VirtualMachine.getInstance(invoke(delegate, null, "attachVirtualMachineV", vmd.delegate));
+			return VirtualMachine.getInstance(dispatch(delegate, AttachMethod.AP_ATTACH_VIRTUAL_MACHINE_V, vmd.delegate));
 		} finally {
 			popCl();
 		}		
@@ -133,7 +132,7 @@ public class AttachProvider extends BaseWrappedClass {
 	public String name() {
 		try {
 			pushCl();
-			return (String)invoke(delegate, null, "name");
+			return (String)dispatch(delegate, AttachMethod.AP_NAME);
 		} finally {
 			popCl();
 		}		
@@ -146,7 +145,7 @@ public class AttachProvider extends BaseWrappedClass {
 	public String type() {
 		try {
 			pushCl();
-			return (String)invoke(delegate, null, "type");			
+			return (String)dispatch(delegate, AttachMethod.AP_TYPE);			
 		} finally {
 			popCl();
 		}
@@ -168,10 +167,7 @@ public class AttachProvider extends BaseWrappedClass {
 		try {
 			pushCl();			
 //			log.info("Loading Attach Provider with [" + Thread.currentThread().getContextClassLoader() + "]");
-			Class<?> clazz = Thread.currentThread().getContextClassLoader().loadClass(VirtualMachineBootstrap.ATTACH_PROVIDER_CLASS);
-			Method m = clazz.getDeclaredMethod("providers");
-			m.setAccessible(true);
-			List<?> aps = (List<?>)m.invoke(null);
+			List<?> aps = (List<?>)dispatch(null, AttachMethod.AP_PROVIDERS);
 			for(Object del: aps) {
 				getInstance(del);
 			}			
@@ -51,6 +51,9 @@ public abstract class BaseWrappedClass {
 	/** The reflected class methods keyed by the standard method encoding name */
 	protected static final Map<Class<?>, Map<String, Method>> methodMap = new ConcurrentHashMap<Class<?>, Map<String, Method>>();
 	
+	/** The shared empty argument array for no-argument invocations */
+	private static final Object[] NO_ARGS = {};
+	
 	/** Thread local to save (and restore) a calling thread's context classloader */
 	protected static final ThreadLocal<ClassLoader> savedState = new ThreadLocal<ClassLoader>();
 	
@@ -110,6 +113,34 @@ public abstract class BaseWrappedClass {
 		}
 	}
 	
+	/**
+	 * Dispatches a no-argument invocation of a pre-resolved attach method
+	 * @param delegate The target object to invoke against. Ignored if the method is static.
+	 * @param method The attach method to invoke
+	 * @return The return value of the method invocation
+	 */
+	protected static Object dispatch(Object delegate, AttachMethod method) {
+		return dispatch(delegate, method, NO_ARGS);
+	}
+	
+	/**
+	 * Dispatches an invocation of a pre-resolved attach method. The method was resolved once
+	 * by {@link VirtualMachineBootstrap} so no method map lookups are made.
+	 * @param delegate The target object to invoke against. Ignored if the method is static.
+	 * @param method The attach method to invoke
+	 * @param args The arguments to pass to the method invocation
+	 * @return The return value of the method invocation
+	 */
+	protected static Object dispatch(Object delegate, AttachMethod method, Object...args) {
+		final Method m = VirtualMachineBootstrap.getInstance().attachMethods[method.ordinal()];
+		if(m==null) throw new VirtualMachineInvocationException("The method [" + method.methodEncode + "] is not available in this Attach API version", new Throwable());
+		try {
+			return m.invoke(delegate, args);
+		} catch (Exception e) {
+			throw new VirtualMachineInvocationException("Failed to invoke [" + m.toGenericString() + "]", e);
+		}
+	}
+	
 	/**
 	 * Retrieves the method map for the passed class, climbing the type hierarchy if necessary
 	 * @param clazz The class to get the method map for
@@ -0,0 +1,478 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: PerfData</p>
+ * <p>Description: An attach-free reader of a local HotSpot JVM's performance data file (<b><code>hsperfdata_&lt;user&gt;/&lt;pid&gt;</code></b>),
+ * the instrumentation counters also read by <b><code>jps</code></b> and <b><code>jstat</code></b>.</p>
+ * <p>The file is memory mapped read only and its counter directory is decoded once, so reading a counter afterwards is a single
+ * read of the live mapped value. JVM facts (command, arguments, start time) and counters (GC, class loading, threads) are exposed as typed accessors,
+ * and any counter can be read by name. The Attach API is not used, so listing and sampling the JVMs of a host costs no attach handshakes.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.PerfData</code></p>
+ */
+public class PerfData {
+	/** The performance data file magic number */
+	public static final int MAGIC = 0xcafec0c0;
+	/** The supported performance data major version */
+	public static final int MAJOR_VERSION = 2;
+	
+	/** The offset of the prologue's byte order */
+	private static final int BYTE_ORDER = 4;
+	/** The offset of the prologue's major version */
+	private static final int MAJOR = 5;
+	/** The offset of the prologue's accessible flag */
+	private static final int ACCESSIBLE = 7;
+	/** The offset of the prologue's used byte count */
+	private static final int USED = 8;
+	/** The offset of the prologue's entry offset */
+	private static final int ENTRY_OFFSET = 24;
+	/** The offset of the prologue's entry count */
+	private static final int NUM_ENTRIES = 28;
+	/** The data type of long counters */
+	private static final byte TYPE_LONG = 'J';
+	/** The data type of byte vector (string) counters */
+	private static final byte TYPE_BYTE = 'B';
+	/** The data units of tick counters */
+	private static final byte UNITS_TICKS = 3;
+	
+	/** The JVM id */
+	private final String pid;
+	/** The performance data file */
+	private final File file;
+	/** The mapped performance data */
+	private final ByteBuffer buffer;
+	/** The decoded counters keyed by name */
+	private volatile Map<String, Counter> counters;
+	/** The number of entries decoded */
+	private volatile int decoded;
+	/** The high resolution tick frequency */
+	private final long frequency;
+	
+	/**
+	 * Opens the performance data file of the JVM with the passed id
+	 * @param pid The JVM id
+	 * @return the performance data or null if the JVM has no readable performance data file
+	 */
+	public static PerfData forPid(final String pid) {
+		if(pid==null) throw new IllegalArgumentException("The passed pid was null", new Throwable());
+		for(File dir: VirtualMachineRegistry.getPerfDataDirectories()) {
+			final File f = new File(dir, pid);
+			if(f.isFile()) {
+				try {
+					return new PerfData(f);
+				} catch (IOException ex) {
+					/* No Op */
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Lists the performance data of the running JVMs on this host whose performance data files are readable
+	 * @return a list of performance data
+	 */
+	public static List<PerfData> list() {
+		final List<PerfData> list = new ArrayList<PerfData>();
+		final Set<String> pids = VirtualMachineRegistry.scanPerfData();
+		if(pids==null) return list;
+		for(String pid: pids) {
+			final PerfData pd = forPid(pid);
+			if(pd!=null) list.add(pd);
+		}
+		return list;
+	}
+	
+	/**
+	 * Creates a new PerfData
+	 * @param file The performance data file, named by the JVM's pid
+	 * @throws IOException thrown if the file cannot be mapped or is not a supported performance data file
+	 */
+	public PerfData(final File file) throws IOException {
+		if(!file.isFile()) throw new FileNotFoundException("No performance data file [" + file + "]");
+		this.file = file;
+		this.pid = file.getName();
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			if(raf != null) try { raf.close(); } catch (Exception x) {/* No Op */}
+		}
+		if(buffer.limit() < 32 || buffer.getInt(0)!=MAGIC) throw new IOException("Not a performance data file [" + file + "]");
+		buffer.order(buffer.get(BYTE_ORDER)==0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		if(buffer.get(MAJOR)!=MAJOR_VERSION) throw new IOException("Unsupported performance data version [" + buffer.get(MAJOR) + "] in [" + file + "]");
+		if(buffer.get(ACCESSIBLE)==0) throw new IOException("Performance data not yet accessible [" + file + "]");
+		decode();
+		final long f = getLong("sun.os.hrt.frequency");
+		frequency = f > 0 ? f : TimeUnit.SECONDS.toNanos(1);
+	}
+	
+	/**
+	 * Decodes the counter directory
+	 */
+	private synchronized void decode() {
+		final int numEntries = buffer.getInt(NUM_ENTRIES);
+		if(counters!=null && numEntries==decoded) return;
+		final int used = Math.min(buffer.getInt(USED), buffer.limit());
+		final Map<String, Counter> map = new HashMap<String, Counter>(numEntries * 2);
+		int entry = buffer.getInt(ENTRY_OFFSET);
+		for(int i = 0; i < numEntries && entry + 20 <= used; i++) {
+			final int entryLength = buffer.getInt(entry);
+			if(entryLength <= 0 || entry + entryLength > used) break;
+			final String name = readString(entry + buffer.getInt(entry + 4), entry + entryLength);
+			final int vectorLength = buffer.getInt(entry + 8);
+			final byte type = buffer.get(entry + 12);
+			final byte units = buffer.get(entry + 14);
+			final int dataOffset = entry + buffer.getInt(entry + 16);
+			map.put(name, new Counter(name, type, units, dataOffset, vectorLength));
+			entry += entryLength;
+		}
+		counters = map;
+		decoded = numEntries;
+	}
+	
+	/**
+	 * Reads a null terminated string
+	 * @param offset The offset of the string
+	 * @param limit The maximum offset of the string
+	 * @return the string
+	 */
+	private String readString(final int offset, final int limit) {
+		int end = offset;
+		final int max = Math.min(limit, buffer.limit());
+		while(end < max && buffer.get(end)!=0) end++;
+		final byte[] bytes = new byte[end - offset];
+		for(int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(offset + i);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (Exception ex) {
+			return new String(bytes);
+		}
+	}
+	
+	/**
+	 * Returns the named counter, decoding counters created since the last decode if it is not found
+	 * @param name The counter name
+	 * @return the counter or null if the JVM has no such counter
+	 */
+	private Counter counter(final String name) {
+		Counter c = counters.get(name);
+		if(c==null && buffer.getInt(NUM_ENTRIES)!=decoded) {
+			decode();
+			c = counters.get(name);
+		}
+		return c;
+	}
+	
+	/**
+	 * Returns the names of the counters
+	 * @return the counter names
+	 */
+	public Set<String> getCounterNames() {
+		decode();
+		return Collections.unmodifiableSet(counters.keySet());
+	}
+	
+	/**
+	 * Returns the current value of the named counter
+	 * @param name The counter name
+	 * @return a Long, a String, or null if the JVM has no such counter
+	 */
+	public Object getValue(final String name) {
+		final Counter c = counter(name);
+		if(c==null) return null;
+		if(c.type==TYPE_LONG && c.vectorLength==0) return buffer.getLong(c.offset);
+		if(c.type==TYPE_BYTE) return readString(c.offset, c.offset + c.vectorLength);
+		return null;
+	}
+	
+	/**
+	 * Returns the current value of the named long counter
+	 * @param name The counter name
+	 * @return the value or -1 if the JVM has no such long counter
+	 */
+	public long getLong(final String name) {
+		final Counter c = counter(name);
+		return (c==null || c.type!=TYPE_LONG || c.vectorLength!=0) ? -1L : buffer.getLong(c.offset);
+	}
+	
+	/**
+	 * Returns the value of the named string counter
+	 * @param name The counter name
+	 * @return the value or null if the JVM has no such string counter
+	 */
+	public String getString(final String name) {
+		final Counter c = counter(name);
+		return (c==null || c.type!=TYPE_BYTE) ? null : readString(c.offset, c.offset + c.vectorLength);
+	}
+	
+	/**
+	 * Returns the value of the named tick counter in ms
+	 * @param name The counter name
+	 * @return the value in ms or -1 if the JVM has no such counter
+	 */
+	public long getMillis(final String name) {
+		final Counter c = counter(name);
+		if(c==null || c.type!=TYPE_LONG || c.vectorLength!=0) return -1L;
+		final long value = buffer.getLong(c.offset);
+		return c.units==UNITS_TICKS ? value * 1000 / frequency : value;
+	}
+	
+	/**
+	 * Returns the JVM id
+	 * @return the JVM id
+	 */
+	public String getPid() {
+		return pid;
+	}
+	
+	/**
+	 * Returns the performance data file
+	 * @return the performance data file
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Returns the JVM command, the main class or jar followed by the program arguments, the same as the Attach API display name
+	 * @return the JVM command
+	 */
+	public String getCommand() {
+		final String command = getString("sun.rt.javaCommand");
+		return command==null ? "" : command;
+	}
+	
+	/**
+	 * Returns the main class or jar of the JVM
+	 * @return the main class or jar
+	 */
+	public String getMainClass() {
+		final String command = getCommand().trim();
+		final int index = command.indexOf(' ');
+		return index==-1 ? command : command.substring(0, index);
+	}
+	
+	/**
+	 * Returns the JVM arguments
+	 * @return the JVM arguments
+	 */
+	public String getJvmArgs() {
+		return getString("java.rt.vmArgs");
+	}
+	
+	/**
+	 * Returns the JVM flags
+	 * @return the JVM flags
+	 */
+	public String getJvmFlags() {
+		return getString("java.rt.vmFlags");
+	}
+	
+	/**
+	 * Returns the Java version of the JVM
+	 * @return the Java version
+	 */
+	public String getJavaVersion() {
+		return getString("java.property.java.version");
+	}
+	
+	/**
+	 * Returns the Java home of the JVM
+	 * @return the Java home
+	 */
+	public String getJavaHome() {
+		return getString("java.property.java.home");
+	}
+	
+	/**
+	 * Returns the VM name of the JVM
+	 * @return the VM name
+	 */
+	public String getVmName() {
+		return getString("java.property.java.vm.name");
+	}
+	
+	/**
+	 * Returns the start time of the JVM
+	 * @return the start time as a UTC long timestamp
+	 */
+	public long getStartTime() {
+		return getLong("sun.rt.createVmBeginTime");
+	}
+	
+	/**
+	 * Returns the uptime of the JVM
+	 * @return the uptime in ms
+	 */
+	public long getUptime() {
+		final long start = getStartTime();
+		return start < 0 ? -1L : System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * Returns the number of garbage collections of all collectors
+	 * @return the number of garbage collections
+	 */
+	public long getGcCount() {
+		long total = 0;
+		for(int i = 0; ; i++) {
+			final long count = getLong("sun.gc.collector." + i + ".invocations");
+			if(count < 0) return total;
+			total += count;
+		}
+	}
+	
+	/**
+	 * Returns the elapsed time of the garbage collections of all collectors
+	 * @return the elapsed garbage collection time in ms
+	 */
+	public long getGcTime() {
+		long total = 0;
+		for(int i = 0; ; i++) {
+			final long time = getMillis("sun.gc.collector." + i + ".time");
+			if(time < 0) return total;
+			total += time;
+		}
+	}
+	
+	/**
+	 * Returns the number of loaded classes, including classes loaded from the shared archive
+	 * @return the number of loaded classes
+	 */
+	public long getLoadedClassCount() {
+		final long loaded = getLong("java.cls.loadedClasses");
+		final long shared = getLong("java.cls.sharedLoadedClasses");
+		return shared > 0 ? loaded + shared : loaded;
+	}
+	
+	/**
+	 * Returns the number of unloaded classes, including classes loaded from the shared archive
+	 * @return the number of unloaded classes
+	 */
+	public long getUnloadedClassCount() {
+		final long unloaded = getLong("java.cls.unloadedClasses");
+		final long shared = getLong("java.cls.sharedUnloadedClasses");
+		return shared > 0 ? unloaded + shared : unloaded;
+	}
+	
+	/**
+	 * Returns the number of live threads
+	 * @return the number of live threads
+	 */
+	public long getLiveThreadCount() {
+		return getLong("java.threads.live");
+	}
+	
+	/**
+	 * Returns the number of live daemon threads
+	 * @return the number of live daemon threads
+	 */
+	public long getDaemonThreadCount() {
+		return getLong("java.threads.daemon");
+	}
+	
+	/**
+	 * Returns the peak number of live threads
+	 * @return the peak number of live threads
+	 */
+	public long getPeakThreadCount() {
+		return getLong("java.threads.livePeak");
+	}
+	
+	/**
+	 * Returns the number of threads started
+	 * @return the number of threads started
+	 */
+	public long getStartedThreadCount() {
+		return getLong("java.threads.started");
+	}
+	
+	@Override
+	public String toString() {
+		return "PerfData [" + pid + "] " + getCommand();
+	}
+	
+	/**
+	 * <p>Title: Counter</p>
+	 * <p>Description: A decoded performance data counter directory entry</p>
+	 */
+	private static class Counter {
+		/** The counter name */
+		final String name;
+		/** The data type */
+		final byte type;
+		/** The data units */
+		final byte units;
+		/** The offset of the counter value */
+		final int offset;
+		/** The vector length, 0 for scalars */
+		final int vectorLength;
+		
+		Counter(final String name, final byte type, final byte units, final int offset, final int vectorLength) {
+			this.name = name;
+			this.type = type;
+			this.units = units;
+			this.offset = offset;
+			this.vectorLength = vectorLength;
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+	
+	/**
+	 * Prints an inventory of the local JVMs
+	 * @param args None
+	 */
+	public static void main(String[] args) {
+		for(PerfData pd: list()) {
+			System.out.println(String.format("%-8s %-40s java %-10s up %6ss  gc %d/%dms  classes %d  threads %d  [%s]",
+					pd.getPid(), pd.getMainClass(), pd.getJavaVersion(), pd.getUptime() / 1000, pd.getGcCount(), pd.getGcTime(),
+					pd.getLoadedClassCount(), pd.getLiveThreadCount(), pd.getJvmArgs()));
+		}
+	}
+}
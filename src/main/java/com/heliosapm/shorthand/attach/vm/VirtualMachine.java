@@ -33,7 +33,6 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.MBeanServerConnection;
 import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 
 /**
@@ -132,7 +131,7 @@ public class VirtualMachine extends BaseWrappedClass {
 		try {			
 			pushCl();
 			return AttachProvider.getInstance(
-					invoke(delegate, null, "provider")
+					dispatch(delegate, AttachMethod.VM_PROVIDER)
 			);			
 		} finally {
 			popCl();
@@ -147,7 +146,7 @@ public class VirtualMachine extends BaseWrappedClass {
 		List<VirtualMachineDescriptor> list = new ArrayList<VirtualMachineDescriptor>();
 		try {			
 			pushCl();
-			List<?> vmdDelegates = (List<?>)invoke(null, VirtualMachineBootstrap.VM_CLASS, "list");
+			List<?> vmdDelegates = (List<?>)dispatch(null, AttachMethod.VM_LIST);
 			for(Object del: vmdDelegates) {
 				list.add(VirtualMachineDescriptor.getInstance(del));
 			}
@@ -164,7 +163,7 @@ public class VirtualMachine extends BaseWrappedClass {
 	public String id() {
 		try {			
 			pushCl();
-			return (String)invoke(delegate, null, "id");
+			return (String)dispatch(delegate, AttachMethod.VM_ID);
 		} finally {
 			popCl();
 		}				
@@ -179,7 +178,7 @@ public class VirtualMachine extends BaseWrappedClass {
 		if(vmd==null) throw new IllegalArgumentException("The passed VirtualMachineDescriptor was null", new Throwable());
 		try {
 			pushCl();
-			Object vmDelegate = invoke(null, VirtualMachineBootstrap.VM_CLASS, "attachV", vmd.delegate);
+			Object vmDelegate = dispatch(null, AttachMethod.VM_ATTACH_V, vmd.delegate);
 			return new VirtualMachine(vmDelegate);
 		} catch (Exception e) {
 			throw new RuntimeException("Failed to attach to VirtualMachine [" + vmd.toString() + "]", e);
@@ -197,7 +196,7 @@ public class VirtualMachine extends BaseWrappedClass {
 		if(id==null) throw new IllegalArgumentException("The passed VirtualMachine id was null", new Throwable());
 		try {
 			pushCl();
-			Object vmDelegate = invoke(null, VirtualMachineBootstrap.VM_CLASS, "attachS", id);
+			Object vmDelegate = dispatch(null, AttachMethod.VM_ATTACH_S, id);
 			return new VirtualMachine(vmDelegate);
 		} catch (Exception e) {
 			throw new RuntimeException("Failed to attach to VirtualMachine [" + id + "]", e);
@@ -212,7 +211,7 @@ public class VirtualMachine extends BaseWrappedClass {
 	public void detach() {
 		try {			
 			pushCl();
-			invoke(delegate, null, "detach");
+			dispatch(delegate, AttachMethod.VM_DETACH);
 		} finally {
 			popCl();
 		}				
@@ -225,7 +224,7 @@ public class VirtualMachine extends BaseWrappedClass {
 	public Properties getAgentProperties() {
 		try {			
 			pushCl();
-			return (Properties)invoke(delegate, null, "getAgentProperties");
+			return (Properties)dispatch(delegate, AttachMethod.VM_GET_AGENT_PROPERTIES);
 		} finally {
 			popCl();
 		}						
@@ -238,7 +237,7 @@ public class VirtualMachine extends BaseWrappedClass {
 	public Properties getSystemProperties() {
 		try {			
 			pushCl();
-			return (Properties)invoke(delegate, null, "getSystemProperties");
+			return (Properties)dispatch(delegate, AttachMethod.VM_GET_SYSTEM_PROPERTIES);
 		} finally {
 			popCl();
 		}				
@@ -251,7 +250,7 @@ public class VirtualMachine extends BaseWrappedClass {
 	public void loadAgent(String agent) {
 		try {			
 			pushCl();
-			invoke(delegate, null, "loadAgentS", agent);
+			dispatch(delegate, AttachMethod.VM_LOAD_AGENT_S, agent);
 		} finally {
 			popCl();
 		}				
@@ -265,7 +264,7 @@ public class VirtualMachine extends BaseWrappedClass {
 	public void loadAgent(String agent, String options) {
 		try {			
 			pushCl();
-			invoke(delegate, null, "loadAgentSS", agent, options);
+			dispatch(delegate, AttachMethod.VM_LOAD_AGENT_SS, agent, options);
 		} finally {
 			popCl();
 		}				
@@ -278,7 +277,7 @@ public class VirtualMachine extends BaseWrappedClass {
 	public void loadAgentLibrary(String agentLibrary) {
 		try {			
 			pushCl();
-			invoke(delegate, null, "loadAgentLibraryS", agentLibrary);
+			dispatch(delegate, AttachMethod.VM_LOAD_AGENT_LIBRARY_S, agentLibrary);
 		} finally {
 			popCl();
 		}				
@@ -292,7 +291,7 @@ public class VirtualMachine extends BaseWrappedClass {
 	public void loadAgentLibrary(String agentLibrary, String options) {
 		try {			
 			pushCl();
-			invoke(delegate, null, "loadAgentLibrarySS", agentLibrary, options);
+			dispatch(delegate, AttachMethod.VM_LOAD_AGENT_LIBRARY_SS, agentLibrary, options);
 		} finally {
 			popCl();
 		}				
@@ -305,7 +304,7 @@ public class VirtualMachine extends BaseWrappedClass {
 	public void loadAgentPath(String agentPath) {
 		try {			
 			pushCl();
-			invoke(delegate, null, "loadAgentPathS", agentPath);
+			dispatch(delegate, AttachMethod.VM_LOAD_AGENT_PATH_S, agentPath);
 		} finally {
 			popCl();
 		}				
@@ -319,14 +318,28 @@ public class VirtualMachine extends BaseWrappedClass {
 	public void loadAgentPath(String agentPath, String options) {
 		try {			
 			pushCl();
-			invoke(delegate, null, "loadAgentPathSS", agentPath, options);
+			dispatch(delegate, AttachMethod.VM_LOAD_AGENT_PATH_SS, agentPath, options);
 		} finally {
 			popCl();
 		}				
 	}
 	
 	/**
-	 * Returns a {@link MBeanServerConnection} to this VM instance
+	 * Starts the local JMX management agent in the target virtual machine if it is not already started.
+	 * Requires a Java 8 or later Attach API and target.
+	 * @return The local connector address of the management agent
+	 */
+	public String startLocalManagementAgent() {
+		try {			
+			pushCl();
+			return (String)dispatch(delegate, AttachMethod.VM_START_LOCAL_MANAGEMENT_AGENT);
+		} finally {
+			popCl();
+		}				
+	}
+	
+	/**
+	 * Returns a {@link MBeanServerConnection} to this VM instance through its shared {@link JMXConnector}
 	 * @return a {@link MBeanServerConnection} to this VM instance
 	 */
 	public MBeanServerConnection getMBeanServerConnection() {		
@@ -339,20 +352,19 @@ public class VirtualMachine extends BaseWrappedClass {
 	
 	
 	/**
-	 * Returns a {@link JMXConnector} to this VM instance
+	 * Returns the {@link JMXConnector} to this VM instance, which is cached and shared per target by the {@link VirtualMachinePool}.
+	 * The connector should not be closed by callers. A closed or failed connector is replaced on the next call.
 	 * @return a {@link JMXConnector} to this VM instance
 	 */
 	public JMXConnector getJMXConnector() {		
-		try {
-			JMXServiceURL serviceURL = getJMXServiceURL();
-			return JMXConnectorFactory.connect(serviceURL);
-		} catch (Exception e) {
-			throw new RuntimeException("Failed to acquire JMXConnector from VirtualMachine [" + id() + "]", e);
-		}
+		return VirtualMachinePool.getInstance().connector(id(), getJMXServiceURL());
 	}
 	
 	/**
-	 * Returns a {@link JMXServiceURL} to connect to this VM instance
+	 * Returns a {@link JMXServiceURL} to connect to this VM instance, starting the local management agent if it is not started.
+	 * The agent properties are read once. If the target has no local connector address, the agent is started with
+	 * {@link #startLocalManagementAgent()} in a single round trip, or by loading the management agent jar if the
+	 * Attach API or target predates that command.
 	 * @return a {@link JMXServiceURL} to connect to this VM instance
 	 * TODO: We need to allow this using authentication.
 	 */
@@ -362,6 +374,13 @@ public class VirtualMachine extends BaseWrappedClass {
 				if(jmxServiceURL==null) {
 					try {
 						String connAddr = getAgentProperties().getProperty(CONNECTOR_ADDRESS);
+						if(connAddr==null && VirtualMachineBootstrap.getInstance().hasAttachMethod(AttachMethod.VM_START_LOCAL_MANAGEMENT_AGENT)) {
+							try {
+								connAddr = startLocalManagementAgent();
+							} catch (Exception ex) {
+								/* No Op, the target predates the command */
+							}
+						}
 						if(connAddr==null) {
 							Properties sysProps = getSystemProperties();
 							String fileSep = sysProps.getProperty(FILE_SEP, File.separator);
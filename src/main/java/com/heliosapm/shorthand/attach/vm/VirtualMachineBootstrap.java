@@ -26,6 +26,7 @@ package com.heliosapm.shorthand.attach.vm;
 
 import java.io.File;
 import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
@@ -58,6 +59,8 @@ public class VirtualMachineBootstrap extends BaseWrappedClass {
 	
 	/** A cache of the reflectively loaded classes keyed by class name */
 	protected final Map<String, Class<?>> classCache = new HashMap<String, Class<?>>();
+	/** The attach methods invoked by the wrapper classes, resolved once and indexed by {@link AttachMethod} ordinal. Missing optional methods are null. */
+	protected final Method[] attachMethods;
 
 	/** The jar file that usually contains the attach API VirtualMachine classes */
 	public static final String JAR_NAME = "tools.jar";
@@ -68,6 +71,9 @@ public class VirtualMachineBootstrap extends BaseWrappedClass {
 		File.separator + ".." + File.separator + "lib" + File.separator
 	};
 	
+	/** The Java specification major version of this JVM */
+	public static final int JAVA_MAJOR = javaMajor();
+	
 	/** Flag indicating if the attach classes have been found */
 	private static final AtomicBoolean found = new AtomicBoolean(false);
 	
@@ -132,7 +138,32 @@ public class VirtualMachineBootstrap extends BaseWrappedClass {
 		} catch (Exception e) {
 			e.printStackTrace(System.err);
 			throw new RuntimeException("Failed to load Attach API Class. (If you are running a JRE, you need to use a JDK with a tools.jar", e);
-		}		
+		}
+		attachMethods = resolveAttachMethods();
+	}
+	
+	/**
+	 * Resolves the methods of every {@link AttachMethod} against the loaded attach classes
+	 * @return the resolved methods indexed by {@link AttachMethod} ordinal
+	 */
+	private Method[] resolveAttachMethods() {
+		final AttachMethod[] values = AttachMethod.values();
+		final Method[] resolved = new Method[values.length];
+		for(AttachMethod am: values) {
+			Method m = getMethodMapping(classCache.get(am.className)).get(am.methodEncode);
+			if(m==null && !am.optional) throw new RuntimeException("The Attach API class [" + am.className + "] has no method for the encode [" + am.methodEncode + "]", new Throwable());
+			resolved[am.ordinal()] = m;
+		}
+		return resolved;
+	}
+	
+	/**
+	 * Determines if the passed attach method is available in the loaded Attach API
+	 * @param method The attach method
+	 * @return true if the method is available, false if it is an optional method missing from this Attach API version
+	 */
+	public boolean hasAttachMethod(AttachMethod method) {
+		return attachMethods[method.ordinal()]!=null;
 	}
 	
 	/**
@@ -199,11 +230,59 @@ public class VirtualMachineBootstrap extends BaseWrappedClass {
 	}
 	
 	/**
-	 * Searches for the Attach API jar
+	 * Returns the Java specification major version of this JVM
+	 * @return the major version, e.g. 8 for <b><code>1.8</code></b>
+	 */
+	private static int javaMajor() {
+		String version = System.getProperty("java.specification.version", "1.6");
+		if(version.startsWith("1.")) version = version.substring(2);
+		final int index = version.indexOf('.');
+		try {
+			return Integer.parseInt(index==-1 ? version : version.substring(0, index));
+		} catch (Exception ex) {
+			return 6;
+		}
+	}
+	
+	/**
+	 * Loads the Attach API from the jar cached by a previous search for this JDK
+	 * @return true if the Attach API was loaded, false if there is no valid cached jar
+	 */
+	private static boolean loadCached() {
+		final File jar = AttachApiCache.lookup();
+		if(jar==null) return false;
+		try {
+			URLClassLoader ucl = new URLClassLoader(new URL[]{jar.toURI().toURL()}, ClassLoader.getSystemClassLoader().getParent());
+			Class.forName(VM_CLASS, true, ucl);
+			attachClassLoader.set(ucl);
+			found.set(true);
+			return true;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Searches for the Attach API jar. On Java 9+ the Attach API is the <b><code>jdk.attach</code></b> module
+	 * and is loaded from the boot layer without a search. Otherwise a location found by a previous search for this JDK
+	 * (see {@link AttachApiCache}) is used directly if it is unchanged, else the class path and the tools.jar locations
+	 * are probed and the location found is cached.
 	 * @param urlLocation An optional override fully qualified URL of the attach jar
 	 */
 	protected static void findAttachAPI(String urlLocation) {
 		if(found.get()) return;
+		if(JAVA_MAJOR >= 9) {
+			try {
+				Class<?> clazz = Class.forName(VM_CLASS, true, ClassLoader.getSystemClassLoader());
+				attachClassLoader.set(clazz.getClassLoader()==null ? ClassLoader.getSystemClassLoader() : clazz.getClassLoader());
+				found.set(true);
+				BaseWrappedClass.savedState.set(null);
+				return;
+			} catch (Throwable e) {
+				throw new RuntimeException("Failed to find the Attach API. The jdk.attach module is not available in [" + JAVA_HOME + "]", e);
+			}
+		}
+		if(urlLocation==null && loadCached()) return;
 		//if(inClassPath()) return;
 		try {
 			Class<?> clazz = Class.forName(VM_CLASS);
@@ -237,6 +316,7 @@ public class VirtualMachineBootstrap extends BaseWrappedClass {
 					URLClassLoader ucl = new URLClassLoader(new URL[]{url}, ClassLoader.getSystemClassLoader().getParent());
 					if(inClassPath(ucl)) {
 						//log.info("Attach API Found And Loaded [" + toolsLoc + "]");	
+						if(!s.equals(urlLocation)) AttachApiCache.store(toolsLoc);
 //						attachClassLoader.set(ucl);
 //						BaseWrappedClass.savedState.set(null);						
 						return;
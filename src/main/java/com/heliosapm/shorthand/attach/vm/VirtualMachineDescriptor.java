@@ -37,8 +37,10 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p><code>com.heliosapm.shorthand.attach.vm.VirtualMachineDescriptor</code></p>
  */
 public class VirtualMachineDescriptor extends BaseWrappedClass {
-	/** A map of machine descriptors delegates keyed by their system identity hash codes */
-	private static final Map<Integer, VirtualMachineDescriptor> vmdInstances = new ConcurrentHashMap<Integer, VirtualMachineDescriptor>();
+	/** A map of machine descriptors keyed by their delegates, which are equal if they have the same provider and id */
+	private static final Map<Object, VirtualMachineDescriptor> vmdInstances = new ConcurrentHashMap<Object, VirtualMachineDescriptor>();
+	/** The attach-free performance data of this descriptor's JVM */
+	private volatile PerfData perfData = null;
 
 	/**
 	 * Acquires the wrapped VirtualMachineDescriptor for the passed delegate
@@ -50,14 +52,13 @@ public class VirtualMachineDescriptor extends BaseWrappedClass {
 		if(!VirtualMachineBootstrap.getInstance().isInstanceOf(delegate, VirtualMachineBootstrap.VM_DESC_CLASS)) {
 			throw new IllegalArgumentException("The passed delegate of type [" + delegate.getClass().getName() + "] was not of the type [" + VirtualMachineBootstrap.VM_DESC_CLASS + "]", new Throwable());
 		}		
-		int id = System.identityHashCode(delegate);
-		VirtualMachineDescriptor vmd = vmdInstances.get(id);
+		VirtualMachineDescriptor vmd = vmdInstances.get(delegate);
 		if(vmd==null) {
 			synchronized(vmdInstances) {
-				vmd = vmdInstances.get(id);
+				vmd = vmdInstances.get(delegate);
 				if(vmd==null) {
 					vmd = new VirtualMachineDescriptor(delegate);
-					vmdInstances.put(id, vmd);
+					vmdInstances.put(delegate, vmd);
 				}
 			}
 		}
@@ -73,18 +74,7 @@ public class VirtualMachineDescriptor extends BaseWrappedClass {
 		try {
 			pushCl();
 			for(AttachProvider ap: AttachProvider.getAttachProviders()) {
-				for(VirtualMachineDescriptor vmd: ap.listVirtualMachines()) {
-					results.add(vmd);
-					int key = System.identityHashCode(vmd.delegate);
-					if(!vmdInstances.containsKey(key)) {
-						synchronized(vmdInstances) {
-							if(!vmdInstances.containsKey(key)) {
-								VirtualMachineDescriptor virtualMachineDescriptor = new VirtualMachineDescriptor(vmd);
-								vmdInstances.put(key, virtualMachineDescriptor);
-							}
-						}
-					}					
-				}
+				results.addAll(ap.listVirtualMachines());
 			}
 			return results;
 		} catch (Exception e) {
@@ -94,6 +84,14 @@ public class VirtualMachineDescriptor extends BaseWrappedClass {
 		}		
 	}
 	
+	/**
+	 * Removes the passed descriptor from the instance cache, typically because its JVM has exited
+	 * @param vmd The descriptor to remove
+	 */
+	static void evict(VirtualMachineDescriptor vmd) {
+		vmdInstances.remove(vmd.delegate);
+	}
+	
 	/**
 	 * Return the identifier component of this descriptor. 
 	 * @return The identifier component of this descriptor.
@@ -101,7 +99,7 @@ public class VirtualMachineDescriptor extends BaseWrappedClass {
 	public String id() {
 		try {
 			pushCl();
-			return (String)invoke(delegate, null, "id");
+			return (String)dispatch(delegate, AttachMethod.VMD_ID);
 		} finally {
 			popCl();
 		}
@@ -114,7 +112,7 @@ public class VirtualMachineDescriptor extends BaseWrappedClass {
 	public String displayName() {
 		try {
 			pushCl();
-			return (String)invoke(delegate, null, "displayName");
+			return (String)dispatch(delegate, AttachMethod.VMD_DISPLAY_NAME);
 		} finally {
 			popCl();
 		}
@@ -127,13 +125,25 @@ public class VirtualMachineDescriptor extends BaseWrappedClass {
 	public AttachProvider provider() {
 		try {
 			pushCl();
-			return AttachProvider.getInstance(invoke(delegate, null, "provider"));			
+			return AttachProvider.getInstance(dispatch(delegate, AttachMethod.VMD_PROVIDER));			
 		} finally {
 			popCl();
 		}
 	}
 	
 
+	/**
+	 * Returns the attach-free performance data of this descriptor's JVM, which exposes the JVM's command, arguments,
+	 * uptime and GC, class loading and thread counters
+	 * @return the performance data or null if the JVM has no readable performance data file
+	 */
+	public PerfData getPerfData() {
+		if(perfData==null) {
+			perfData = PerfData.forPid(id());
+		}
+		return perfData;
+	}
+
 	/**
 	 * Tests this VirtualMachineDescriptor for equality with another object.
 	 * @param obj The object to compare to
@@ -0,0 +1,46 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+/**
+ * <p>Title: VirtualMachineListener</p>
+ * <p>Description: Defines a listener notified by the {@link VirtualMachineRegistry} when JVMs on this host start or exit</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.VirtualMachineListener</code></p>
+ */
+public interface VirtualMachineListener {
+	/**
+	 * Callback when a new JVM is discovered
+	 * @param vmd The descriptor of the new JVM
+	 */
+	public void onVirtualMachineAdded(VirtualMachineDescriptor vmd);
+	
+	/**
+	 * Callback when a JVM has exited
+	 * @param vmd The descriptor of the exited JVM
+	 */
+	public void onVirtualMachineRemoved(VirtualMachineDescriptor vmd);
+}
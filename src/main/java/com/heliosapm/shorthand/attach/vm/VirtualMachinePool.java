@@ -0,0 +1,632 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * <p>Title: VirtualMachinePool</p>
+ * <p>Description: A pool of attached {@link VirtualMachine}s keyed by JVM id, so repeated operations against the same JVM
+ * do not each pay the attach handshake. Handles are borrowed with {@link #borrow(String)} and must be returned with
+ * {@link #release(VirtualMachine)} (never detached), or discarded with {@link #invalidate(VirtualMachine)} if they failed.</p>
+ * <p>The number of handles per JVM is bounded, borrowers wait for a handle when the bound is reached. A borrowed idle handle is
+ * health checked: the JVM's process must still be running and, if the handle was idle for longer than the validation
+ * interval, an agent properties round trip must succeed. Idle handles are detached by a background evictor after the idle timeout.</p>
+ * <p>The pool also caches each JVM's {@link JMXServiceURL} and a shared {@link JMXConnector}, which is checked before it is handed out
+ * and replaced if it has failed or been closed. Since callers keep using a connector once it is handed out, it is not closed when idle,
+ * only when its JVM has exited or the pool is cleared. {@link #ensureJMX(Collection, Map)} starts the management agents of many JVMs concurrently.</p>
+ * <p>The pool is configured with the system properties:<ul>
+ * 	<li><b><code>com.heliosapm.jal.attach.pool.maxpertarget</code></b>: The maximum number of handles per JVM (default 2)</li>
+ * 	<li><b><code>com.heliosapm.jal.attach.pool.idletimeout</code></b>: The ms after which idle handles are detached (default 60000)</li>
+ * 	<li><b><code>com.heliosapm.jal.attach.pool.validateafter</code></b>: The ms a handle can be idle before it is validated by a round trip (default 5000)</li>
+ * 	<li><b><code>com.heliosapm.jal.attach.pool.borrowtimeout</code></b>: The ms a borrower waits for a handle (default 10000)</li>
+ * 	<li><b><code>com.heliosapm.jal.attach.pool.jmxthreads</code></b>: The maximum number of JVMs prepared concurrently by ensureJMX (default 8)</li>
+ * 	<li><b><code>com.heliosapm.jal.attach.pool.jmxtimeout</code></b>: The ms ensureJMX waits for all JVMs to be prepared (default 30000)</li>
+ * </ul></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.VirtualMachinePool</code></p>
+ */
+public class VirtualMachinePool {
+	/** The singleton instance  */
+	private static volatile VirtualMachinePool instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	/** Static class logger */
+	private final static Logger log = Logger.getLogger(VirtualMachinePool.class.getName());
+	
+	/** The system property defining the maximum number of attached handles per JVM */
+	public static final String MAX_PER_TARGET_PROP = "com.heliosapm.jal.attach.pool.maxpertarget";
+	/** The default maximum number of attached handles per JVM */
+	public static final int DEFAULT_MAX_PER_TARGET = 2;
+	/** The system property defining the ms after which idle handles are detached */
+	public static final String IDLE_TIMEOUT_PROP = "com.heliosapm.jal.attach.pool.idletimeout";
+	/** The default idle timeout in ms */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	/** The system property defining the ms a handle can be idle before it is validated by a round trip on borrow */
+	public static final String VALIDATE_AFTER_PROP = "com.heliosapm.jal.attach.pool.validateafter";
+	/** The default validation interval in ms */
+	public static final long DEFAULT_VALIDATE_AFTER = 5000;
+	/** The system property defining the ms a borrower waits for a handle */
+	public static final String BORROW_TIMEOUT_PROP = "com.heliosapm.jal.attach.pool.borrowtimeout";
+	/** The default borrow timeout in ms */
+	public static final long DEFAULT_BORROW_TIMEOUT = 10000;
+	
+	/** The system property defining the maximum number of JVMs prepared concurrently by {@link #ensureJMX(Collection, Map)} */
+	public static final String JMX_THREADS_PROP = "com.heliosapm.jal.attach.pool.jmxthreads";
+	/** The default maximum number of JVMs prepared concurrently */
+	public static final int DEFAULT_JMX_THREADS = 8;
+	/** The system property defining the ms {@link #ensureJMX(Collection, Map)} waits for all JVMs to be prepared */
+	public static final String JMX_TIMEOUT_PROP = "com.heliosapm.jal.attach.pool.jmxtimeout";
+	/** The default ensure JMX timeout in ms */
+	public static final long DEFAULT_JMX_TIMEOUT = 30000;
+	
+	/** The maximum number of handles per JVM */
+	private final int maxPerTarget;
+	/** The idle timeout in ms */
+	private final long idleTimeout;
+	/** The validation interval in ms */
+	private final long validateAfter;
+	/** The borrow timeout in ms */
+	private final long borrowTimeout;
+	/** The maximum number of JVMs prepared concurrently by ensureJMX */
+	private final int jmxThreads;
+	/** The ensure JMX timeout in ms */
+	private final long jmxTimeout;
+	/** The pooled targets keyed by JVM id */
+	private final Map<String, Target> targets = new ConcurrentHashMap<String, Target>();
+	/** The borrowed handles and their targets. VirtualMachine equality is not symmetric, so handles are tracked by identity. */
+	private final Map<VirtualMachine, Target> borrowed = Collections.synchronizedMap(new IdentityHashMap<VirtualMachine, Target>());
+	/** The idle handle and connector evictor */
+	private final ScheduledExecutorService evictor;
+	/** The number of attaches */
+	private final AtomicLong attaches = new AtomicLong(0L);
+	/** The number of borrows served by an idle handle */
+	private final AtomicLong reuses = new AtomicLong(0L);
+	/** The number of handles discarded by a failed health check, invalidation or eviction */
+	private final AtomicLong discards = new AtomicLong(0L);
+	
+	/**
+	 * Returns the VirtualMachinePool instance
+	 * @return the VirtualMachinePool instance
+	 */
+	public static VirtualMachinePool getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new VirtualMachinePool();
+				}
+			}
+		}
+		return instance;
+	}
+	
+	private VirtualMachinePool() {
+		maxPerTarget = (int)longProperty(MAX_PER_TARGET_PROP, DEFAULT_MAX_PER_TARGET);
+		idleTimeout = longProperty(IDLE_TIMEOUT_PROP, DEFAULT_IDLE_TIMEOUT);
+		validateAfter = longProperty(VALIDATE_AFTER_PROP, DEFAULT_VALIDATE_AFTER);
+		borrowTimeout = longProperty(BORROW_TIMEOUT_PROP, DEFAULT_BORROW_TIMEOUT);
+		jmxThreads = (int)longProperty(JMX_THREADS_PROP, DEFAULT_JMX_THREADS);
+		jmxTimeout = longProperty(JMX_TIMEOUT_PROP, DEFAULT_JMX_TIMEOUT);
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "VirtualMachinePoolEvictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final long period = Math.max(1000, idleTimeout / 2);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					evictIdle();
+				} catch (Exception ex) {
+					log.log(Level.WARNING, "VirtualMachinePool eviction failed", ex);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	private static long longProperty(final String name, final long defaultValue) {
+		final String value = System.getProperty(name);
+		if(value==null || value.trim().isEmpty()) return defaultValue;
+		try {
+			final long l = Long.parseLong(value.trim());
+			return l < 1 ? defaultValue : l;
+		} catch (Exception ex) {
+			return defaultValue;
+		}
+	}
+	
+	private Target target(final String id) {
+		if(id==null) throw new IllegalArgumentException("The passed VirtualMachine id was null", new Throwable());
+		Target t = targets.get(id);
+		if(t==null) {
+			synchronized(targets) {
+				t = targets.get(id);
+				if(t==null) {
+					t = new Target(id, maxPerTarget);
+					targets.put(id, t);
+				}
+			}
+		}
+		return t;
+	}
+	
+	/**
+	 * Borrows an attached VirtualMachine, reusing a healthy idle handle if there is one
+	 * @param id The JVM id
+	 * @return the attached VirtualMachine, which must be returned with {@link #release(VirtualMachine)} or {@link #invalidate(VirtualMachine)}
+	 */
+	public VirtualMachine borrow(final String id) {
+		final Target t = target(id);
+		try {
+			if(!t.permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				throw new RuntimeException("Timed out after " + borrowTimeout + " ms waiting for an attached VirtualMachine [" + id + "]", new Throwable());
+			}
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for an attached VirtualMachine [" + id + "]", iex);
+		}
+		try {
+			VirtualMachine vm = null;
+			for(Idle idle = t.poll(); idle!=null; idle = t.poll()) {
+				if(isHealthy(id, idle)) {
+					vm = idle.vm;
+					reuses.incrementAndGet();
+					break;
+				}
+				discard(idle.vm);
+			}
+			if(vm==null) {
+				vm = VirtualMachine.attach(id);
+				attaches.incrementAndGet();
+			}
+			borrowed.put(vm, t);
+			return vm;
+		} catch (RuntimeException rex) {
+			t.permits.release();
+			throw rex;
+		}
+	}
+	
+	/**
+	 * Returns a borrowed VirtualMachine to the pool
+	 * @param vm The borrowed VirtualMachine
+	 */
+	public void release(final VirtualMachine vm) {
+		if(vm==null) return;
+		final Target t = borrowed.remove(vm);
+		if(t==null) throw new IllegalArgumentException("The passed VirtualMachine was not borrowed from this pool", new Throwable());
+		t.offer(new Idle(vm));
+		t.permits.release();
+	}
+	
+	/**
+	 * Discards a borrowed VirtualMachine that has failed, detaching it
+	 * @param vm The borrowed VirtualMachine
+	 */
+	public void invalidate(final VirtualMachine vm) {
+		if(vm==null) return;
+		final Target t = borrowed.remove(vm);
+		if(t==null) throw new IllegalArgumentException("The passed VirtualMachine was not borrowed from this pool", new Throwable());
+		discard(vm);
+		t.permits.release();
+	}
+	
+	/**
+	 * Determines if an idle handle can be reused
+	 * @param id The JVM id
+	 * @param idle The idle handle
+	 * @return true if the handle is healthy
+	 */
+	private boolean isHealthy(final String id, final Idle idle) {
+		if(!VirtualMachineRegistry.isAlive(id)) return false;
+		if(System.currentTimeMillis() - idle.since < validateAfter) return true;
+		try {
+			idle.vm.getAgentProperties();
+			return true;
+		} catch (Exception ex) {
+			return false;
+		}
+	}
+	
+	private void discard(final VirtualMachine vm) {
+		discards.incrementAndGet();
+		try { vm.detach(); } catch (Exception x) {/* No Op */}
+	}
+	
+	/**
+	 * Returns the system properties of the passed JVM using a pooled handle
+	 * @param id The JVM id
+	 * @return the system properties
+	 */
+	public Properties getSystemProperties(final String id) {
+		final VirtualMachine vm = borrow(id);
+		try {
+			final Properties p = vm.getSystemProperties();
+			release(vm);
+			return p;
+		} catch (RuntimeException rex) {
+			invalidate(vm);
+			throw rex;
+		}
+	}
+	
+	/**
+	 * Returns the agent properties of the passed JVM using a pooled handle
+	 * @param id The JVM id
+	 * @return the agent properties
+	 */
+	public Properties getAgentProperties(final String id) {
+		final VirtualMachine vm = borrow(id);
+		try {
+			final Properties p = vm.getAgentProperties();
+			release(vm);
+			return p;
+		} catch (RuntimeException rex) {
+			invalidate(vm);
+			throw rex;
+		}
+	}
+	
+	/**
+	 * Returns the cached JMXServiceURL of the passed JVM's management agent, starting the agent if necessary
+	 * (see {@link VirtualMachine#getJMXServiceURL()})
+	 * @param id The JVM id
+	 * @return the JMXServiceURL
+	 */
+	public JMXServiceURL getJMXServiceURL(final String id) {
+		final Target t = target(id);
+		JMXServiceURL url = t.serviceURL;
+		if(url==null) {
+			final VirtualMachine vm = borrow(id);
+			try {
+				url = vm.getJMXServiceURL();
+				release(vm);
+			} catch (RuntimeException rex) {
+				invalidate(vm);
+				throw rex;
+			}
+			t.serviceURL = url;
+		}
+		return url;
+	}
+	
+	/**
+	 * Ensures the local management agent is started in each of the passed JVMs and caches their JMXServiceURLs.
+	 * JVMs with a cached JMXServiceURL are not contacted, the others are prepared concurrently,
+	 * each with one agent properties round trip and, if the management agent is not started, one more to start it.
+	 * @param ids The ids of the JVMs
+	 * @param failures An optional map the failures are added to, keyed by JVM id
+	 * @return the JMXServiceURLs of the prepared JVMs keyed by JVM id, in the order of the passed ids
+	 */
+	public Map<String, JMXServiceURL> ensureJMX(final Collection<String> ids, final Map<String, Throwable> failures) {
+		if(ids==null) throw new IllegalArgumentException("The passed id collection was null", new Throwable());
+		final Map<String, JMXServiceURL> urls = new LinkedHashMap<String, JMXServiceURL>();
+		final Map<String, Future<JMXServiceURL>> pending = new LinkedHashMap<String, Future<JMXServiceURL>>();
+		ExecutorService executor = null;
+		try {
+			for(final String id: ids) {
+				if(urls.containsKey(id) || pending.containsKey(id)) continue;
+				final JMXServiceURL url = target(id).serviceURL;
+				if(url!=null) {
+					urls.put(id, url);
+					continue;
+				}
+				if(executor==null) {
+					final AtomicInteger serial = new AtomicInteger();
+					executor = Executors.newFixedThreadPool(Math.min(jmxThreads, ids.size()), new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread t = new Thread(r, "VirtualMachinePoolJMX#" + serial.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+				}
+				pending.put(id, executor.submit(new Callable<JMXServiceURL>() {
+					@Override
+					public JMXServiceURL call() {
+						return getJMXServiceURL(id);
+					}
+				}));
+			}
+			final long deadline = System.currentTimeMillis() + jmxTimeout;
+			for(Map.Entry<String, Future<JMXServiceURL>> entry: pending.entrySet()) {
+				try {
+					urls.put(entry.getKey(), entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+				} catch (Exception ex) {
+					entry.getValue().cancel(true);
+					final Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+					if(failures!=null) failures.put(entry.getKey(), cause);
+					log.log(Level.FINE, "Failed to acquire JMXServiceURL from VirtualMachine [" + entry.getKey() + "]", cause);
+				}
+			}
+		} finally {
+			if(executor!=null) executor.shutdownNow();
+		}
+		return urls;
+	}
+	
+	/**
+	 * Returns the shared JMXConnector to the passed JVM's management agent, connecting if there is none or it has failed.
+	 * The connector is shared and should not be closed by callers. A closed connector is replaced on the next call.
+	 * @param id The JVM id
+	 * @return the JMXConnector
+	 */
+	public JMXConnector getJMXConnector(final String id) {
+		final Target t = target(id);
+		final JMXConnector connector = t.validConnector();
+		return connector!=null ? connector : connector(id, getJMXServiceURL(id));
+	}
+	
+	/**
+	 * Returns an MBeanServerConnection to the passed JVM through its shared JMXConnector
+	 * @param id The JVM id
+	 * @return the MBeanServerConnection
+	 */
+	public MBeanServerConnection getMBeanServerConnection(final String id) {
+		try {
+			return getJMXConnector(id).getMBeanServerConnection();
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to acquire MBeanServerConnection from VirtualMachine [" + id + "]", e);
+		}
+	}
+	
+	/**
+	 * Returns the shared JMXConnector to the passed JVM, connecting to the passed service URL if there is none or it has failed
+	 * @param id The JVM id
+	 * @param serviceURL The JMXServiceURL of the JVM's management agent
+	 * @return the JMXConnector
+	 */
+	JMXConnector connector(final String id, final JMXServiceURL serviceURL) {
+		final Target t = target(id);
+		if(t.serviceURL==null) t.serviceURL = serviceURL;
+		synchronized(t.connectLock) {
+			JMXConnector connector = t.validConnector();
+			if(connector==null) {
+				try {
+					connector = JMXConnectorFactory.connect(serviceURL);
+				} catch (Exception e) {
+					t.serviceURL = null;
+					throw new RuntimeException("Failed to acquire JMXConnector from VirtualMachine [" + id + "]", e);
+				}
+				t.setConnector(connector);
+			}
+			return connector;
+		}
+	}
+	
+	/**
+	 * Detaches handles idle for longer than the idle timeout, and closes the connectors and drops the targets of exited JVMs.
+	 * The connectors of running JVMs are left open, as they may still be in use.
+	 */
+	public void evictIdle() {
+		final long cutoff = System.currentTimeMillis() - idleTimeout;
+		for(Target t: new ArrayList<Target>(targets.values())) {
+			final boolean alive = VirtualMachineRegistry.isAlive(t.id);
+			for(VirtualMachine vm: t.evict(alive ? cutoff : Long.MAX_VALUE)) {
+				discard(vm);
+			}
+			if(!alive) {
+				t.closeConnector();
+				synchronized(targets) {
+					if(t.isEmpty()) targets.remove(t.id);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Detaches all idle handles and closes all connectors
+	 */
+	public void clear() {
+		for(Target t: new ArrayList<Target>(targets.values())) {
+			for(VirtualMachine vm: t.evict(Long.MAX_VALUE)) {
+				discard(vm);
+			}
+			t.closeConnector();
+			t.serviceURL = null;
+		}
+	}
+	
+	/**
+	 * Returns the number of attaches made by the pool
+	 * @return the number of attaches
+	 */
+	public long getAttachCount() {
+		return attaches.get();
+	}
+	
+	/**
+	 * Returns the number of borrows served by an idle handle
+	 * @return the number of reused handles
+	 */
+	public long getReuseCount() {
+		return reuses.get();
+	}
+	
+	/**
+	 * Returns the number of handles detached by failed health checks, invalidation or eviction
+	 * @return the number of discarded handles
+	 */
+	public long getDiscardCount() {
+		return discards.get();
+	}
+	
+	/**
+	 * Returns the number of borrowed handles
+	 * @return the number of borrowed handles
+	 */
+	public int getBorrowedCount() {
+		return borrowed.size();
+	}
+	
+	/**
+	 * Returns the number of idle handles
+	 * @return the number of idle handles
+	 */
+	public int getIdleCount() {
+		int count = 0;
+		for(Target t: targets.values()) {
+			synchronized(t) {
+				count += t.idle.size();
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * <p>Title: Idle</p>
+	 * <p>Description: An idle pooled handle</p>
+	 */
+	private static class Idle {
+		/** The attached VirtualMachine */
+		final VirtualMachine vm;
+		/** The time the handle became idle */
+		final long since = System.currentTimeMillis();
+		
+		Idle(final VirtualMachine vm) {
+			this.vm = vm;
+		}
+	}
+	
+	/**
+	 * <p>Title: Target</p>
+	 * <p>Description: The pooled handles, service URL and connector of one JVM</p>
+	 */
+	private static class Target {
+		/** The JVM id */
+		final String id;
+		/** The maximum number of handles */
+		final int maxPerTarget;
+		/** The permits to hold a handle, bounding the handles of the JVM */
+		final Semaphore permits;
+		/** Serializes connecting the shared connector */
+		final Object connectLock = new Object();
+		/** The idle handles, most recently used first */
+		final LinkedList<Idle> idle = new LinkedList<Idle>();
+		/** The cached management agent service URL */
+		volatile JMXServiceURL serviceURL = null;
+		/** The shared connector */
+		JMXConnector connector = null;
+		
+		Target(final String id, final int maxPerTarget) {
+			this.id = id;
+			this.maxPerTarget = maxPerTarget;
+			this.permits = new Semaphore(maxPerTarget, true);
+		}
+		
+		synchronized Idle poll() {
+			return idle.poll();
+		}
+		
+		synchronized void offer(final Idle handle) {
+			idle.addFirst(handle);
+		}
+		
+		/**
+		 * Removes the handles idle since before the passed time
+		 * @param cutoff The cutoff time
+		 * @return the removed handles
+		 */
+		synchronized List<VirtualMachine> evict(final long cutoff) {
+			final List<VirtualMachine> evicted = new ArrayList<VirtualMachine>();
+			// the oldest idle handles are at the end
+			while(!idle.isEmpty() && idle.getLast().since < cutoff) {
+				evicted.add(idle.removeLast().vm);
+			}
+			return evicted;
+		}
+		
+		/**
+		 * Returns the connector if it is still connected, discarding it if it is not
+		 * @return the connector or null
+		 */
+		synchronized JMXConnector validConnector() {
+			if(connector==null) return null;
+			try {
+				connector.getConnectionId();
+				return connector;
+			} catch (Exception ex) {
+				try { connector.close(); } catch (Exception x) {/* No Op */}
+				connector = null;
+				return null;
+			}
+		}
+		
+		synchronized void setConnector(final JMXConnector connector) {
+			this.connector = connector;
+		}
+		
+		/**
+		 * Closes the connector
+		 */
+		synchronized void closeConnector() {
+			if(connector!=null) {
+				try { connector.close(); } catch (Exception x) {/* No Op */}
+				connector = null;
+			}
+		}
+		
+		/**
+		 * Determines if the target has no idle or borrowed handles and no connector
+		 * @return true if the target is empty
+		 */
+		synchronized boolean isEmpty() {
+			return idle.isEmpty() && connector==null && permits.availablePermits()==maxPerTarget;
+		}
+	}
+}
@@ -0,0 +1,343 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Title: VirtualMachineRegistry</p>
+ * <p>Description: A registry of the live {@link VirtualMachineDescriptor}s of this host, refreshed incrementally.</p>
+ * <p>Each {@link #refresh()} lists the HotSpot performance data directories (<b><code>hsperfdata_&lt;user&gt;</code></b>), which hold one file
+ * per running JVM named by its pid, and diffs the pids against the registered descriptors. The attach providers are only
+ * asked to list (and describe) the JVMs when a new pid appears. JVMs whose pid has gone, or whose process no longer
+ * exists (a JVM that was killed leaves its performance data file behind), are evicted without a listing. As with the
+ * providers, only readable performance data files are counted, and pids a listing did not return (e.g. JVMs that
+ * cannot be attached to) are ignored until their file goes away, so they do not cause a listing on every refresh. If no
+ * performance data directory can be found, every refresh falls back to listing the JVMs through the attach providers.</p>
+ * <p>Registered {@link VirtualMachineListener}s are notified of added and removed JVMs. The registry can be refreshed
+ * on demand or periodically by {@link #start(long)}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.VirtualMachineRegistry</code></p>
+ */
+public class VirtualMachineRegistry {
+	/** The singleton instance  */
+	private static volatile VirtualMachineRegistry instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	/** Static class logger */
+	private final static Logger log = Logger.getLogger(VirtualMachineRegistry.class.getName());
+	
+	/** The system property defining the directory containing the HotSpot performance data directories */
+	public static final String PERF_DATA_DIR_PROP = "com.heliosapm.jal.perfdata.dir";
+	/** The name prefix of the HotSpot performance data directories */
+	public static final String PERF_DATA_PREFIX = "hsperfdata_";
+	/** The proc file system directory used to confirm a process is running, where available */
+	private static final File PROC = new File("/proc");
+	
+	/** The registered descriptors keyed by JVM id */
+	private final Map<String, VirtualMachineDescriptor> descriptors = new ConcurrentHashMap<String, VirtualMachineDescriptor>();
+	/** The registered listeners */
+	private final List<VirtualMachineListener> listeners = new CopyOnWriteArrayList<VirtualMachineListener>();
+	/** The pids with a performance data file that the last listings did not return */
+	private final Set<String> unlisted = new HashSet<String>();
+	/** The number of refreshes */
+	private final AtomicLong refreshes = new AtomicLong(0L);
+	/** The number of refreshes that listed the JVMs through the attach providers */
+	private final AtomicLong listings = new AtomicLong(0L);
+	/** The scheduler of periodic refreshes */
+	private ScheduledExecutorService scheduler = null;
+	/** The handle of the periodic refresh */
+	private ScheduledFuture<?> refreshHandle = null;
+	
+	/**
+	 * Returns the VirtualMachineRegistry instance, populated by an initial refresh
+	 * @return the VirtualMachineRegistry instance
+	 */
+	public static VirtualMachineRegistry getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					final VirtualMachineRegistry registry = new VirtualMachineRegistry();
+					registry.refresh();
+					instance = registry;
+				}
+			}
+		}
+		return instance;
+	}
+	
+	private VirtualMachineRegistry() {
+		VirtualMachineBootstrap.getInstance();
+	}
+	
+	/**
+	 * Returns the directories containing the HotSpot performance data files of the JVMs on this host
+	 * @return the existing performance data directories, which may be empty
+	 */
+	public static List<File> getPerfDataDirectories() {
+		final String configured = System.getProperty(PERF_DATA_DIR_PROP);
+		final Set<File> roots = new LinkedHashSet<File>();
+		if(configured!=null && !configured.trim().isEmpty()) {
+			roots.add(new File(configured.trim()));
+		} else {
+			// HotSpot on Linux uses /tmp regardless of java.io.tmpdir
+			if(System.getProperty("os.name", "").toLowerCase().contains("linux")) roots.add(new File("/tmp"));
+			roots.add(new File(System.getProperty("java.io.tmpdir")));
+		}
+		final List<File> dirs = new ArrayList<File>();
+		for(File root: roots) {
+			final File[] files = root.listFiles();
+			if(files==null) continue;
+			for(File f: files) {
+				if(f.getName().startsWith(PERF_DATA_PREFIX) && f.isDirectory() && f.canRead()) dirs.add(f);
+			}
+		}
+		return dirs;
+	}
+	
+	/**
+	 * Lists the pids of the running JVMs with a readable performance data file, as the attach providers do
+	 * @return the pids, or null if there are no performance data directories
+	 */
+	static Set<String> scanPerfData() {
+		final List<File> dirs = getPerfDataDirectories();
+		if(dirs.isEmpty()) return null;
+		final Set<String> pids = new HashSet<String>();
+		for(File dir: dirs) {
+			final File[] files = dir.listFiles();
+			if(files==null) continue;
+			for(File f: files) {
+				final String name = f.getName();
+				if(isPid(name) && f.isFile() && f.canRead() && isAlive(name)) pids.add(name);
+			}
+		}
+		return pids;
+	}
+	
+	private static boolean isPid(final String name) {
+		if(name.isEmpty()) return false;
+		for(int i = 0; i < name.length(); i++) {
+			if(!Character.isDigit(name.charAt(i))) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Determines if the process with the passed id is running
+	 * @param pid The process id
+	 * @return false if the process is known to have exited, true otherwise
+	 */
+	static boolean isAlive(final String pid) {
+		if(!PROC.isDirectory() || !isPid(pid)) return true;
+		return new File(PROC, pid).exists();
+	}
+	
+	/**
+	 * Determines if each of the passed pids is registered or was not returned by a listing
+	 * @param pids The pids of the running JVMs
+	 * @return true if no new pid appeared, false otherwise
+	 */
+	private boolean isKnown(final Set<String> pids) {
+		for(String pid: pids) {
+			if(!descriptors.containsKey(pid) && !unlisted.contains(pid)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Refreshes the registry, registering new JVMs, evicting exited JVMs and notifying the listeners
+	 */
+	public void refresh() {
+		final List<VirtualMachineDescriptor> added = new ArrayList<VirtualMachineDescriptor>();
+		final List<VirtualMachineDescriptor> removed = new ArrayList<VirtualMachineDescriptor>();
+		synchronized(descriptors) {
+			refreshes.incrementAndGet();
+			Set<String> current = scanPerfData();
+			if(current!=null) unlisted.retainAll(current);
+			if(current==null || !isKnown(current)) {
+				listings.incrementAndGet();
+				final Map<String, VirtualMachineDescriptor> listed = new HashMap<String, VirtualMachineDescriptor>();
+				for(VirtualMachineDescriptor vmd: VirtualMachineDescriptor.getVirtualMachineDescriptors()) {
+					listed.put(vmd.id(), vmd);
+				}
+				if(current!=null) {
+					for(String pid: current) {
+						if(!listed.containsKey(pid)) unlisted.add(pid);
+					}
+				}
+				for(Map.Entry<String, VirtualMachineDescriptor> entry: listed.entrySet()) {
+					if(!descriptors.containsKey(entry.getKey()) && isAlive(entry.getKey())) {
+						descriptors.put(entry.getKey(), entry.getValue());
+						added.add(entry.getValue());
+					}
+				}
+				current = listed.keySet();
+			}
+			for(Map.Entry<String, VirtualMachineDescriptor> entry: descriptors.entrySet()) {
+				if(!current.contains(entry.getKey()) || !isAlive(entry.getKey())) {
+					descriptors.remove(entry.getKey());
+					VirtualMachineDescriptor.evict(entry.getValue());
+					removed.add(entry.getValue());
+				}
+			}
+		}
+		for(VirtualMachineDescriptor vmd: removed) {
+			for(VirtualMachineListener listener: listeners) {
+				try {
+					listener.onVirtualMachineRemoved(vmd);
+				} catch (Exception ex) {
+					log.log(Level.WARNING, "VirtualMachineListener [" + listener + "] failed on removal of [" + vmd.id() + "]", ex);
+				}
+			}
+		}
+		for(VirtualMachineDescriptor vmd: added) {
+			for(VirtualMachineListener listener: listeners) {
+				try {
+					listener.onVirtualMachineAdded(vmd);
+				} catch (Exception ex) {
+					log.log(Level.WARNING, "VirtualMachineListener [" + listener + "] failed on addition of [" + vmd.id() + "]", ex);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Starts refreshing the registry periodically on a daemon thread. Restarts with the new period if already started.
+	 * @param period The refresh period in ms
+	 */
+	public synchronized void start(final long period) {
+		if(period < 1) throw new IllegalArgumentException("Invalid refresh period [" + period + "]");
+		if(scheduler==null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "VirtualMachineRegistryRefresher");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		if(refreshHandle!=null) refreshHandle.cancel(false);
+		refreshHandle = scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				} catch (Exception ex) {
+					log.log(Level.WARNING, "VirtualMachineRegistry refresh failed", ex);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the periodic refresh
+	 */
+	public synchronized void stop() {
+		if(scheduler!=null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+			refreshHandle = null;
+		}
+	}
+	
+	/**
+	 * Returns the registered descriptors
+	 * @return a snapshot of the registered descriptors
+	 */
+	public List<VirtualMachineDescriptor> getDescriptors() {
+		return Collections.unmodifiableList(new ArrayList<VirtualMachineDescriptor>(descriptors.values()));
+	}
+	
+	/**
+	 * Returns the registered descriptor of the passed JVM id
+	 * @param id The JVM id
+	 * @return the descriptor or null if the JVM is not registered
+	 */
+	public VirtualMachineDescriptor getDescriptor(final String id) {
+		if(id==null) throw new IllegalArgumentException("The passed id was null", new Throwable());
+		return descriptors.get(id);
+	}
+	
+	/**
+	 * Returns the number of registered descriptors
+	 * @return the number of registered descriptors
+	 */
+	public int size() {
+		return descriptors.size();
+	}
+	
+	/**
+	 * Returns the number of refreshes
+	 * @return the number of refreshes
+	 */
+	public long getRefreshCount() {
+		return refreshes.get();
+	}
+	
+	/**
+	 * Returns the number of refreshes that listed the JVMs through the attach providers
+	 * @return the number of listing refreshes
+	 */
+	public long getListingCount() {
+		return listings.get();
+	}
+	
+	/**
+	 * Registers a listener
+	 * @param listener The listener to register
+	 */
+	public void addListener(final VirtualMachineListener listener) {
+		if(listener==null) throw new IllegalArgumentException("The passed listener was null", new Throwable());
+		if(!listeners.contains(listener)) listeners.add(listener);
+	}
+	
+	/**
+	 * Unregisters a listener
+	 * @param listener The listener to unregister
+	 */
+	public void removeListener(final VirtualMachineListener listener) {
+		if(listener!=null) listeners.remove(listener);
+	}
+}
@@ -0,0 +1,205 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>Title: ArchiveLoaderBenchmark</p>
+ * <p>Description: Command line benchmark of {@link IsolatedArchiveLoader} against its previous implementation
+ * (a <b><code>URLClassLoader</code></b> scanning the JVM input arguments on every lookup) and a plain <b><code>URLClassLoader</code></b>.
+ * Each iteration creates each loader, loads every class and reads every resource of the roots, and looks up classes
+ * and resources of the root system classloader.</p>
+ * <p>Usage: <b><code>ArchiveLoaderBenchmark &lt;iterations&gt; &lt;root&gt;...</code></b> where roots are jars, directories or globs</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.ArchiveLoaderBenchmark</code></p>
+ */
+
+public class ArchiveLoaderBenchmark {
+	/** System classes looked up through each loader */
+	private static final String[] SYSTEM_CLASSES = {"java.lang.String", "java.util.List", "java.util.concurrent.ConcurrentHashMap", "javax.management.ObjectName"};
+
+	/**
+	 * Runs the benchmark
+	 * @param args The number of iterations followed by the roots
+	 * @throws Exception thrown on any error
+	 */
+	public static void main(final String[] args) throws Exception {
+		if(args.length < 2) {
+			System.err.println("Usage: ArchiveLoaderBenchmark <iterations> <root>...");
+			return;
+		}
+		final int iterations = Integer.parseInt(args[0]);
+		final String[] roots = new String[args.length - 1];
+		System.arraycopy(args, 1, roots, 0, roots.length);
+		final URL[] urls = IsolatedArchiveLoader.expand(roots);
+		final List<String> classNames = new ArrayList<String>();
+		final List<String> resourceNames = new ArrayList<String>();
+		for(URL url: urls) {
+			list(ArchiveIndex.toFile(url), classNames, resourceNames);
+		}
+		System.out.println("Benchmark: " + urls.length + " roots, " + classNames.size() + " classes, " + resourceNames.size() + " resources, " + iterations + " iterations");
+		for(int i = 0; i < iterations; i++) {
+			final StringBuilder b = new StringBuilder("#").append(i);
+			for(int impl = 0; impl < 3; impl++) {
+				final long start = System.nanoTime();
+				final ClassLoader loader = impl==0 ? new LegacyArchiveLoader(urls) : impl==1 ? new URLClassLoader(urls, null) : new IsolatedArchiveLoader(urls);
+				final long created = System.nanoTime();
+				int failed = 0;
+				for(String name: classNames) {
+					try {
+						Class.forName(name, false, loader);
+					} catch (Throwable t) {
+						failed++;
+					}
+				}
+				final long classes = System.nanoTime();
+				for(String name: resourceNames) {
+					final InputStream is = loader.getResourceAsStream(name);
+					if(is==null) failed++; else is.close();
+				}
+				final long resources = System.nanoTime();
+				for(int j = 0; j < 1000; j++) {
+					for(String name: SYSTEM_CLASSES) {
+						if(loader.loadClass(name)==null) failed++;
+					}
+					if(loader.getResource("java/lang/Object.class")==null) failed++;
+				}
+				final long system = System.nanoTime();
+				b.append("  ").append(impl==0 ? "previous" : impl==1 ? "URLClassLoader" : "IsolatedArchiveLoader")
+					.append(": create ").append(TimeUnit.NANOSECONDS.toMillis(created - start))
+					.append(" ms, classes ").append(TimeUnit.NANOSECONDS.toMillis(classes - created))
+					.append(" ms, resources ").append(TimeUnit.NANOSECONDS.toMillis(resources - classes))
+					.append(" ms, system ").append(TimeUnit.NANOSECONDS.toMillis(system - resources))
+					.append(" ms, failed ").append(failed);
+			}
+			System.out.println(b);
+		}
+	}
+
+	/**
+	 * Lists the class and resource names of the passed root
+	 * @param root The jar or directory
+	 * @param classNames The list to add class names to
+	 * @param resourceNames The list to add resource names to
+	 * @throws Exception thrown on any error reading the root
+	 */
+	private static void list(final File root, final List<String> classNames, final List<String> resourceNames) throws Exception {
+		if(root==null) return;
+		if(root.isDirectory()) {
+			walk(root, "", classNames, resourceNames);
+			return;
+		}
+		final ZipFile zipFile = new ZipFile(root);
+		try {
+			for(Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements();) {
+				final ZipEntry ze = en.nextElement();
+				if(!ze.isDirectory()) add(ze.getName(), classNames, resourceNames);
+			}
+		} finally {
+			zipFile.close();
+		}
+	}
+
+	private static void walk(final File dir, final String prefix, final List<String> classNames, final List<String> resourceNames) {
+		final File[] files = dir.listFiles();
+		if(files==null) return;
+		for(File f: files) {
+			if(f.isDirectory()) walk(f, prefix + f.getName() + "/", classNames, resourceNames);
+			else add(prefix + f.getName(), classNames, resourceNames);
+		}
+	}
+
+	private static void add(final String name, final List<String> classNames, final List<String> resourceNames) {
+		if(name.endsWith(".class")) {
+			// skip module-info, package-info and the like
+			if(name.indexOf('-')==-1) classNames.add(name.substring(0, name.length() - 6).replace('/', '.'));
+		} else {
+			resourceNames.add(name);
+		}
+	}
+
+	/**
+	 * The previous IsolatedArchiveLoader implementation, which scanned the JVM input arguments on every lookup
+	 */
+	private static class LegacyArchiveLoader extends URLClassLoader {
+		private final SystemOnlyClassLoader system;
+
+		LegacyArchiveLoader(final URL[] urls) {
+			this(urls, new SystemOnlyClassLoader());
+		}
+
+		private LegacyArchiveLoader(final URL[] urls, final SystemOnlyClassLoader system) {
+			super(urls, system);
+			this.system = system;
+		}
+
+		private Class<?> loadSystemClass(final String name) throws ClassNotFoundException {
+			try {
+				final Class<?> clazz = super.findClass(name);
+				if(IsolatedArchiveLoader.scanInputArguments()) {
+					System.out.println("IsolatedArchiveLoader [" + name + "]");
+				}
+				return clazz;
+			} catch (ClassNotFoundException cle) {
+				IsolatedArchiveLoader.scanInputArguments();
+				return system.forReal(name);
+			}
+		}
+
+		@Override
+		public URL getResource(final String name) {
+			final URL url = super.getResource(name);
+			IsolatedArchiveLoader.scanInputArguments();
+			return url==null ? system.getRealResource(name) : url;
+		}
+
+		@Override
+		public InputStream getResourceAsStream(final String name) {
+			final InputStream is = super.getResourceAsStream(name);
+			IsolatedArchiveLoader.scanInputArguments();
+			return is==null ? system.getRealResourceAsStream(name) : is;
+		}
+
+		@Override
+		protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+			return loadSystemClass(name);
+		}
+
+		@Override
+		public Class<?> loadClass(final String name) throws ClassNotFoundException {
+			return loadSystemClass(name);
+		}
+
+		@Override
+		protected Class<?> findClass(final String name) throws ClassNotFoundException {
+			return loadSystemClass(name);
+		}
+	}
+}
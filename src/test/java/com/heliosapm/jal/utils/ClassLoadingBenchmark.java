@@ -0,0 +1,160 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jal.utils;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>Title: ClassLoadingBenchmark</p>
+ * <p>Description: Command line class loading contention benchmark. M threads each load the same N classes of a jar
+ * (in a different random order) through a fresh {@link IsolatedClassLoader}, and then load them again through the
+ * already populated loader. The run is repeated with a loader whose <b><code>loadClass</code></b> is synchronized on
+ * the loader instance, for comparison.</p>
+ * <p>Usage: <b><code>ClassLoadingBenchmark &lt;jar&gt; [threads] [max classes] [archive mode] [iterations]</code></b></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jal.utils.ClassLoadingBenchmark</code></p>
+ */
+
+public class ClassLoadingBenchmark {
+
+	/**
+	 * Runs the benchmark
+	 * @param args The jar to load classes from, then optionally the number of threads, the maximum number of classes,
+	 * the archive mode and the number of iterations
+	 * @throws Exception thrown on any error
+	 */
+	public static void main(final String[] args) throws Exception {
+		if(args.length==0) {
+			System.err.println("Usage: ClassLoadingBenchmark <jar> [threads] [max classes] [archive mode] [iterations]");
+			return;
+		}
+		final File jar = new File(args[0]);
+		final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		final int maxClasses = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+		final ArchiveMode mode = args.length > 3 ? ArchiveMode.decode(args[3]) : ArchiveMode.getDefault();
+		final int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+		final List<String> classNames = classNames(jar, maxClasses);
+		final URL url = jar.toURI().toURL();
+		IsolatedClassLoader.log("Benchmark: %s classes, %s threads, mode %s, %s iterations", classNames.size(), threads, mode, iterations);
+		for(int i = 0; i < iterations; i++) {
+			final long[] parallel = run(new IsolatedClassLoader(null, mode, url), classNames, threads);
+			final long[] synched = run(new SynchronizedLoader(mode, url), classNames, threads);
+			IsolatedClassLoader.log("#%s  parallel: cold %s ms, warm %s ms   synchronized: cold %s ms, warm %s ms", i,
+					TimeUnit.NANOSECONDS.toMillis(parallel[0]), TimeUnit.NANOSECONDS.toMillis(parallel[1]),
+					TimeUnit.NANOSECONDS.toMillis(synched[0]), TimeUnit.NANOSECONDS.toMillis(synched[1]));
+		}
+	}
+
+	/**
+	 * Loads all the classes from all the threads, twice
+	 * @param classLoader The class loader to load from
+	 * @param classNames The class names to load
+	 * @param threads The number of threads
+	 * @return the elapsed ns. of the cold and warm passes
+	 * @throws Exception thrown on any error
+	 */
+	private static long[] run(final ClassLoader classLoader, final List<String> classNames, final int threads) throws Exception {
+		final long[] elapsed = new long[2];
+		final AtomicInteger failures = new AtomicInteger(0);
+		for(int pass = 0; pass < 2; pass++) {
+			final CountDownLatch startLatch = new CountDownLatch(1);
+			final CountDownLatch endLatch = new CountDownLatch(threads);
+			for(int t = 0; t < threads; t++) {
+				final List<String> names = new ArrayList<String>(classNames);
+				Collections.shuffle(names, new Random(t));
+				final Thread thread = new Thread("ClassLoadingBenchmark#" + t) {
+					@Override
+					public void run() {
+						try {
+							startLatch.await();
+							for(String name: names) {
+								try {
+									Class.forName(name, false, classLoader);
+								} catch (Throwable ex) {
+									failures.incrementAndGet();
+								}
+							}
+						} catch (InterruptedException iex) {
+							/* No Op */
+						} finally {
+							endLatch.countDown();
+						}
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+			final long start = System.nanoTime();
+			startLatch.countDown();
+			endLatch.await();
+			elapsed[pass] = System.nanoTime() - start;
+		}
+		if(failures.get() > 0) IsolatedClassLoader.loge("%s class loads failed", failures.get());
+		return elapsed;
+	}
+
+	/**
+	 * Lists the class names in the passed jar
+	 * @param jar The jar file
+	 * @param max The maximum number of class names to return
+	 * @return the class names
+	 * @throws Exception thrown on any error reading the jar
+	 */
+	private static List<String> classNames(final File jar, final int max) throws Exception {
+		final List<String> names = new ArrayList<String>();
+		final ZipFile zipFile = new ZipFile(jar);
+		try {
+			for(Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements() && names.size() < max;) {
+				final String name = en.nextElement().getName();
+				if(name.endsWith(".class") && name.indexOf('-')==-1) {
+					names.add(name.substring(0, name.length() - 6).replace('/', '.'));
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+		return names;
+	}
+
+	/**
+	 * An IsolatedClassLoader that serializes class loading on the loader instance, as it did before it was parallel capable
+	 */
+	private static class SynchronizedLoader extends IsolatedClassLoader {
+		SynchronizedLoader(final ArchiveMode mode, final URL url) {
+			super(null, mode, url);
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+			return super.loadClass(name, resolve);
+		}
+	}
+}
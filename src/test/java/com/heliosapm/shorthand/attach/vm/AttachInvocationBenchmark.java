@@ -0,0 +1,102 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: AttachInvocationBenchmark</p>
+ * <p>Description: Command line benchmark of the per-call overhead of the attach API wrappers, comparing the
+ * encoded method lookup of {@link BaseWrappedClass#invoke(Object, String, String, Object...)} against the
+ * pre-resolved dispatch of {@link BaseWrappedClass#dispatch(Object, AttachMethod, Object...)}.
+ * Each iteration invokes the descriptor and provider accessors of this JVM's {@link VirtualMachineDescriptor} and the static
+ * <b><code>VirtualMachine.list()</code></b> through both paths.</p>
+ * <p>Usage: <b><code>AttachInvocationBenchmark [iterations] [calls per iteration]</code></b></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.AttachInvocationBenchmark</code></p>
+ */
+public class AttachInvocationBenchmark {
+	/** The number of VirtualMachine.list() calls per iteration, which are dominated by the directory scan */
+	private static final int LIST_CALLS = 100;
+	
+	/**
+	 * Runs the benchmark
+	 * @param args The optional number of iterations (default 10) and accessor calls per iteration (default 1000000)
+	 */
+	public static void main(String[] args) {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		final int calls = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		VirtualMachineBootstrap.getInstance();
+		final String id = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+		VirtualMachineDescriptor self = null;
+		for(VirtualMachineDescriptor vmd: VirtualMachine.list()) {
+			if(id.equals(vmd.id())) self = vmd;
+		}
+		if(self==null) {
+			System.err.println("This JVM [" + id + "] is not listed by the Attach API");
+			return;
+		}
+		final Object vmd = self.delegate;
+		final Object provider = self.provider().delegate;
+		System.out.println("Benchmark: " + iterations + " iterations, " + calls + " accessor calls, " + LIST_CALLS + " list calls");
+		long sink = 0;
+		for(int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			for(int c = 0; c < calls; c++) {
+				sink += ((String)BaseWrappedClass.invoke(vmd, null, "id")).length();
+				sink += ((String)BaseWrappedClass.invoke(vmd, null, "displayName")).length();
+				sink += ((String)BaseWrappedClass.invoke(provider, null, "name")).length();
+			}
+			final long invokeElapsed = System.nanoTime() - start;
+			start = System.nanoTime();
+			for(int c = 0; c < calls; c++) {
+				sink += ((String)BaseWrappedClass.dispatch(vmd, AttachMethod.VMD_ID)).length();
+				sink += ((String)BaseWrappedClass.dispatch(vmd, AttachMethod.VMD_DISPLAY_NAME)).length();
+				sink += ((String)BaseWrappedClass.dispatch(provider, AttachMethod.AP_NAME)).length();
+			}
+			final long dispatchElapsed = System.nanoTime() - start;
+			start = System.nanoTime();
+			for(int c = 0; c < LIST_CALLS; c++) {
+				sink += ((java.util.List<?>)BaseWrappedClass.invoke(null, VirtualMachineBootstrap.VM_CLASS, "list")).size();
+			}
+			final long invokeList = System.nanoTime() - start;
+			start = System.nanoTime();
+			for(int c = 0; c < LIST_CALLS; c++) {
+				sink += ((java.util.List<?>)BaseWrappedClass.dispatch(null, AttachMethod.VM_LIST)).size();
+			}
+			final long dispatchList = System.nanoTime() - start;
+			System.out.println("#" + i
+					+ "  accessors: invoke " + perCall(invokeElapsed, calls * 3) + " ns/call, dispatch " + perCall(dispatchElapsed, calls * 3) + " ns/call"
+					+ "  list: invoke " + TimeUnit.NANOSECONDS.toMicros(invokeList / LIST_CALLS) + " us/call, dispatch " + TimeUnit.NANOSECONDS.toMicros(dispatchList / LIST_CALLS) + " us/call");
+		}
+		if(sink==42) System.out.println();
+	}
+	
+	private static String perCall(final long elapsed, final long calls) {
+		return String.format("%.1f", (double)elapsed / calls);
+	}
+}